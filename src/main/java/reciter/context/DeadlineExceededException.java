@@ -0,0 +1,14 @@
+package reciter.context;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Thrown when the deadline of the current request passed, or the request was otherwise cancelled, before its work
+ * was done.
+ */
+public class DeadlineExceededException extends InterruptedIOException {
+
+    public DeadlineExceededException(String requestId) {
+        super("Request " + requestId + " was cancelled or ran past its deadline");
+    }
+}
@@ -0,0 +1,321 @@
+package reciter.context;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import reciter.tracing.Span;
+import reciter.tracing.Trace;
+
+import java.io.InterruptedIOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * State of the HTTP request currently being served. The context is bound to the servlet thread by
+ * {@link reciter.tracing.TracingFilter} and carried over to the retrieval executor with {@link #wrap(Callable)}.
+ * A request may have a deadline; when it passes, the request is cancelled and the hooks registered with
+ * {@link #onCancel(Runnable)}, e.g. aborting a request to NCBI, are run.
+ */
+@Getter
+public class RequestContext {
+
+    /**
+     * Requests to NCBI are shared between the lanes by weight, see {@link reciter.pubmed.ratelimit.NcbiRateLimiter}.
+     */
+    public enum Lane {
+        INTERACTIVE, BULK
+    }
+
+    public static final String ANONYMOUS = "anonymous";
+
+    private static final ThreadLocal<RequestContext> CURRENT = new ThreadLocal<>();
+
+    private static final ScheduledExecutorService DEADLINES = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "request-deadlines");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Undoes an {@link #onCancel(Runnable)} registration.
+     */
+    public interface Registration extends AutoCloseable {
+
+        Registration NONE = () -> {
+        };
+
+        @Override
+        void close();
+    }
+
+    private final String requestId;
+    private final Trace trace;
+    private final String clientId;
+    private volatile Lane lane;
+    private volatile long staleAgeMillis = -1;
+    private volatile long deadlineNanos;
+    private volatile boolean cancelled;
+    @Getter(AccessLevel.NONE)
+    private final Set<Runnable> cancellationHooks = new LinkedHashSet<>();
+    @Getter(AccessLevel.NONE)
+    private ScheduledFuture<?> deadlineTimer;
+
+    public RequestContext(String requestId, Trace trace) {
+        this(requestId, trace, ANONYMOUS, Lane.INTERACTIVE);
+    }
+
+    public RequestContext(String requestId, Trace trace, String clientId, Lane lane) {
+        this.requestId = requestId;
+        this.trace = trace;
+        this.clientId = clientId;
+        this.lane = lane;
+    }
+
+    /**
+     * @return a context for one of several attempts at the same work, e.g. a hedged EFetch. It shares the trace,
+     * client, lane and deadline of this request, but can be cancelled on its own to abort just that attempt's
+     * request to NCBI. It is not cancelled with this request unless the caller registers that.
+     */
+    public RequestContext attempt() {
+        RequestContext attempt = new RequestContext(requestId, trace, clientId, lane);
+        attempt.deadlineNanos = deadlineNanos;
+        return attempt;
+    }
+
+    /**
+     * Moves the rest of this request to the bulk lane, e.g. once a query turns out to be large.
+     */
+    public void demote() {
+        lane = Lane.BULK;
+    }
+
+    /**
+     * Cancels this request {@code timeoutMillis} from now.
+     */
+    public synchronized void setTimeout(long timeoutMillis) {
+        deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        if (deadlineTimer != null) {
+            deadlineTimer.cancel(false);
+        }
+        deadlineTimer = DEADLINES.schedule(() -> cancel("deadline of " + timeoutMillis + " ms passed"), timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean hasDeadline() {
+        return deadlineNanos != 0;
+    }
+
+    /**
+     * @return the milliseconds left until the deadline, at least 0, or {@link Long#MAX_VALUE} without a deadline
+     */
+    public long remainingMillis() {
+        return hasDeadline() ? Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime())) : Long.MAX_VALUE;
+    }
+
+    /**
+     * Marks this request as cancelled and runs its cancellation hooks. The hooks run while holding the lock that
+     * {@link Registration#close()} takes, so that no hook fires after its registration was closed, e.g. interrupting
+     * a pool thread that has moved on to other work. Hooks must therefore be quick and must not block.
+     */
+    public synchronized void cancel(String reason) {
+        if (cancelled) {
+            return;
+        }
+        cancelled = true;
+        trace.event("cancelled", reason);
+        for (Runnable hook : cancellationHooks) {
+            hook.run();
+        }
+        cancellationHooks.clear();
+    }
+
+    /**
+     * Runs {@code hook} when this request is cancelled, at once if it already is, until the registration is closed.
+     * Once {@link Registration#close()} returned, the hook has either run or will never run.
+     */
+    public Registration onCancel(Runnable hook) {
+        synchronized (this) {
+            if (!cancelled) {
+                cancellationHooks.add(hook);
+                return () -> {
+                    synchronized (this) {
+                        cancellationHooks.remove(hook);
+                    }
+                };
+            }
+        }
+        hook.run();
+        return Registration.NONE;
+    }
+
+    /**
+     * Stops the deadline timer once the response is complete.
+     */
+    public synchronized void finish() {
+        if (deadlineTimer != null) {
+            deadlineTimer.cancel(false);
+        }
+        cancellationHooks.clear();
+    }
+
+    /**
+     * @throws DeadlineExceededException if the current request was cancelled
+     */
+    public static void checkDeadline() throws DeadlineExceededException {
+        RequestContext context = current();
+        if (context != null && context.isCancelled()) {
+            throw new DeadlineExceededException(context.getRequestId());
+        }
+    }
+
+    /**
+     * Sleeps for {@code millis}, but not past the deadline of the current request, and wakes up when it is cancelled.
+     *
+     * @throws DeadlineExceededException if the current request was cancelled before or while sleeping
+     */
+    public static void sleep(long millis) throws InterruptedIOException {
+        RequestContext context = current();
+        checkDeadline();
+        if (context == null) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while sleeping");
+            }
+            return;
+        }
+        Thread thread = Thread.currentThread();
+        try (Registration waking = context.onCancel(thread::interrupt)) {
+            Thread.sleep(Math.min(millis, context.remainingMillis()));
+        } catch (InterruptedException e) {
+            if (!context.isCancelled()) {
+                thread.interrupt();
+                throw new InterruptedIOException("Interrupted while sleeping");
+            }
+        }
+        if (context.isCancelled() || context.hasDeadline() && context.remainingMillis() == 0) {
+            // The cancellation may have interrupted this thread after it woke up.
+            Thread.interrupted();
+            throw new DeadlineExceededException(context.getRequestId());
+        }
+    }
+
+    /**
+     * @return whether the current request was cancelled, {@code false} outside of a request
+     */
+    public static boolean isCurrentCancelled() {
+        RequestContext context = current();
+        return context != null && context.isCancelled();
+    }
+
+    /**
+     * @return the milliseconds left until the deadline of the current request, {@link Long#MAX_VALUE} without one
+     */
+    public static long currentRemainingMillis() {
+        RequestContext context = current();
+        return context == null ? Long.MAX_VALUE : context.remainingMillis();
+    }
+
+    /**
+     * Records that the current request is answered from data retrieved {@code ageMillis} ago instead of from NCBI,
+     * so that the response can be marked as stale.
+     */
+    public static void markStale(long ageMillis) {
+        RequestContext context = current();
+        if (context != null) {
+            context.staleAgeMillis = Math.max(context.staleAgeMillis, ageMillis);
+        }
+    }
+
+    public boolean isStale() {
+        return staleAgeMillis >= 0;
+    }
+
+    /**
+     * @return the client of the current request, {@value #ANONYMOUS} outside of a request
+     */
+    public static String currentClientId() {
+        RequestContext context = current();
+        return context == null ? ANONYMOUS : context.getClientId();
+    }
+
+    /**
+     * @return the lane of the current request, {@link Lane#INTERACTIVE} outside of a request
+     */
+    public static Lane currentLane() {
+        RequestContext context = current();
+        return context == null ? Lane.INTERACTIVE : context.getLane();
+    }
+
+    /**
+     * @return the context bound to this thread or {@code null} when running outside of a request.
+     */
+    public static RequestContext current() {
+        return CURRENT.get();
+    }
+
+    public static void bind(RequestContext context) {
+        CURRENT.set(context);
+    }
+
+    public static void unbind() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Starts a span on the current request's trace. Outside of a request the returned span records nothing.
+     */
+    public static Span span(String name) {
+        return span(name, null);
+    }
+
+    public static Span span(String name, String detail) {
+        RequestContext context = current();
+        if (context == null) {
+            return Span.noop();
+        }
+        return context.getTrace().startSpan(name, detail);
+    }
+
+    public static void event(String name, String detail) {
+        RequestContext context = current();
+        if (context != null) {
+            context.getTrace().event(name, detail);
+        }
+    }
+
+    /**
+     * Binds the caller's context around {@code callable} so that spans recorded on a pool thread end up in the
+     * trace of the request that submitted it.
+     */
+    public static <V> Callable<V> wrap(Callable<V> callable) {
+        RequestContext context = current();
+        if (context == null) {
+            return callable;
+        }
+        return wrap(context, callable);
+    }
+
+    /**
+     * Binds {@code context} around {@code callable}, e.g. for work done on behalf of no HTTP request.
+     */
+    public static <V> Callable<V> wrap(RequestContext context, Callable<V> callable) {
+        return () -> {
+            RequestContext previous = current();
+            bind(context);
+            try {
+                return callable.call();
+            } finally {
+                if (previous == null) {
+                    unbind();
+                } else {
+                    bind(previous);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,38 @@
+package reciter.controller;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+import reciter.pubmed.store.BaselineImporter;
+import reciter.pubmed.store.BaselineImporter.ImportResult;
+import reciter.pubmed.store.LocalArticleStore;
+
+import java.io.IOException;
+
+@Controller
+@RequestMapping("/pubmed/store")
+@Api(value = "LocalStoreController", description = "Local copy of the PubMed baseline and update files.")
+public class LocalStoreController {
+
+    @Autowired
+    private LocalArticleStore localArticleStore;
+
+    @Autowired
+    private BaselineImporter baselineImporter;
+
+    @ApiOperation(value = "Imports the files in pubmed.store.import-dir that were not imported yet.", response = ImportResult.class)
+    @RequestMapping(value = "/import", method = RequestMethod.POST, produces = "application/json")
+    @ResponseBody
+    public ResponseEntity<ImportResult> importFiles() throws IOException {
+        if (!localArticleStore.isEnabled()) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        return ResponseEntity.ok(baselineImporter.importConfiguredDirectory());
+    }
+}
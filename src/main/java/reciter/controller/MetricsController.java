@@ -0,0 +1,26 @@
+package reciter.controller;
+
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+@Controller
+@RequestMapping("/pubmed")
+@Api(value = "MetricsController", description = "Retrieval metrics in Prometheus text format.")
+public class MetricsController {
+
+    @Autowired
+    private PrometheusMeterRegistry meterRegistry;
+
+    @ApiOperation(value = "Scrape endpoint for timers, histograms and gauges.", response = String.class)
+    @RequestMapping(value = "/metrics", method = RequestMethod.GET, produces = "text/plain; version=0.0.4; charset=utf-8")
+    @ResponseBody
+    public String metrics() {
+        return meterRegistry.scrape();
+    }
+}
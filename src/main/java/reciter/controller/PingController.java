@@ -4,11 +4,14 @@ package reciter.controller;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.ResponseBody;
+import reciter.health.ReadinessIndicator;
 
 @Slf4j
 @Controller
@@ -16,10 +19,21 @@ import org.springframework.web.bind.annotation.ResponseBody;
 @Api(value = "PingController", description = "Health Check.")
 public class PingController {
 
+    @Autowired
+    private ReadinessIndicator readinessIndicator;
+
     @ApiOperation(value = "Health check", response = ResponseEntity.class)
     @RequestMapping(value = "/ping", method = RequestMethod.GET, produces = "application/json")
     @ResponseBody
     public ResponseEntity ping() {
         return ResponseEntity.ok("Healthy");
     }
+
+    @ApiOperation(value = "Readiness check. Responds with 503 while the node cannot take more retrievals.", response = ReadinessIndicator.Readiness.class)
+    @RequestMapping(value = "/ready", method = RequestMethod.GET, produces = "application/json")
+    @ResponseBody
+    public ResponseEntity<ReadinessIndicator.Readiness> ready() {
+        ReadinessIndicator.Readiness readiness = readinessIndicator.check();
+        return new ResponseEntity<>(readiness, readiness.isReady() ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE);
+    }
 }
@@ -2,7 +2,6 @@ package reciter.controller;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.bohnman.squiggly.Squiggly;
@@ -13,45 +12,42 @@ import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import lombok.extern.slf4j.Slf4j;
 
-import org.apache.commons.io.IOUtils;
-import org.apache.http.Header;
-import org.apache.http.HttpEntity;
 import org.apache.http.HttpHeaders;
-import org.apache.http.HttpResponse;
-import org.apache.http.NameValuePair;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.params.ClientPNames;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.util.EntityUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
-import org.xml.sax.SAXException;
+import reciter.context.DeadlineExceededException;
+import reciter.context.RequestContext;
+import reciter.format.ResponseFormatConfig;
+import reciter.metrics.PubMedMetrics;
 import reciter.model.pubmed.PubMedArticle;
+import reciter.pubmed.client.CircuitOpenException;
+import reciter.pubmed.client.ESearchClient;
+import reciter.pubmed.model.IdentifierLookupRequest;
 import reciter.pubmed.model.PubMedQuery;
-import reciter.pubmed.model.PubmedESearchResult;
-import reciter.pubmed.querybuilder.PubmedXmlQuery;
 import reciter.pubmed.retriever.PubMedArticleRetrievalService;
-import reciter.pubmed.xmlparser.PubmedESearchHandler;
-
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParserFactory;
+import reciter.pubmed.store.IdentifierIndex.IdType;
+import reciter.pubmed.store.LocalQueryEngine;
+import reciter.tracing.Span;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.StringWriter;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Controller
@@ -61,8 +57,22 @@ public class PubMedRetrievalToolController {
 
     @Autowired
     private PubMedArticleRetrievalService pubMedArticleRetrievalService;
+
+    @Autowired
+    private PubMedMetrics pubMedMetrics;
+
+    @Autowired
+    private ESearchClient eSearchClient;
+
+    @Autowired
+    private LocalQueryEngine localQueryEngine;
+
+    @Value("${pubmed.esearch.max-batch:100}")
+    private int maxCountBatch;
+
+    @Value("${pubmed.identifiers.max-batch:10000}")
+    private int maxIdentifierBatch;
     
-    private static ObjectMapper objectMapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
 
     @ApiOperation(value = "Query with field selection.", response = List.class)
     @ApiResponses(value = {
@@ -71,14 +81,16 @@ public class PubMedRetrievalToolController {
             @ApiResponse(code = 403, message = "Accessing the resource you were trying to reach is forbidden"),
             @ApiResponse(code = 404, message = "The resource you were trying to reach is not found")
     })
-    @RequestMapping(value = "/query/{query}", method = RequestMethod.GET, produces = "application/json")
+    @RequestMapping(value = "/query/{query}", method = RequestMethod.GET,
+            produces = {MediaType.APPLICATION_JSON_VALUE, ResponseFormatConfig.APPLICATION_SMILE, ResponseFormatConfig.APPLICATION_CBOR})
     @ResponseBody
     public List<PubMedArticle> query(@PathVariable String query,
                                      @RequestParam(name = "fields", required = false) String fields) throws IOException {
         return retrieve(query, fields);
     }
 
-    @RequestMapping(value = "/query-complex/", method = RequestMethod.POST)
+    @RequestMapping(value = "/query-complex/", method = RequestMethod.POST,
+            produces = {MediaType.APPLICATION_JSON_VALUE, ResponseFormatConfig.APPLICATION_SMILE, ResponseFormatConfig.APPLICATION_CBOR})
     @ResponseBody
     public ResponseEntity<List<PubMedArticle>> queryComplex(@RequestBody PubMedQuery pubMedQuery) throws IOException {
         List<PubMedArticle> pubMedArticles = query(pubMedQuery.toString(), null);
@@ -95,79 +107,85 @@ public class PubMedRetrievalToolController {
     @RequestMapping(value = "/query-number-pubmed-articles/", method = RequestMethod.POST)
     @ResponseBody
     public int getNumberOfPubMedArticles(@RequestBody PubMedQuery pubMedQuery) throws IOException {
-    	
-        PubmedXmlQuery pubmedXmlQuery = new PubmedXmlQuery(URLEncoder.encode(pubMedQuery.toString(), "UTF-8"));
-        //pubmedXmlQuery.setRetMax(1);
-        pubmedXmlQuery.setRetStart(0);
-        String fullUrl = pubmedXmlQuery.buildESearchQuery(); // build eSearch query.
-        log.info("ESearch Query=[" + fullUrl + "]");
-        //PubmedESearchHandler pubmedESearchHandler = new PubmedESearchHandler();
-        PubmedESearchResult eSearchResult = new PubmedESearchResult();
-        HttpClient httpClient = HttpClients.createDefault();
-        if(pubmedXmlQuery.getApiKey() != null &&
-       		  !pubmedXmlQuery.getApiKey().isEmpty()) {
-        	fullUrl = PubmedXmlQuery.ESEARCH_BASE_URL + "?api_key=" + pubmedXmlQuery.getApiKey();
-        } else {
-        	fullUrl = PubmedXmlQuery.ESEARCH_BASE_URL;
+        Integer localCount = localQueryEngine.count(pubMedQuery.toString());
+        if (localCount != null) {
+            return localCount;
         }
-        
-        HttpPost httppost = new HttpPost(fullUrl);
-        // Request parameters and other properties.
-        List<NameValuePair> params = new ArrayList<>();
-        params.add(new BasicNameValuePair("db", pubmedXmlQuery.getDb()));
-        params.add(new BasicNameValuePair("retmax", String.valueOf(pubmedXmlQuery.getRetMax())));
-        params.add(new BasicNameValuePair("usehistory", pubmedXmlQuery.getUseHistory()));
-        params.add(new BasicNameValuePair("term", java.net.URLDecoder.decode(pubmedXmlQuery.getTerm(), "UTF-8")));
-        params.add(new BasicNameValuePair("retmode", pubmedXmlQuery.getRetMode()));
-        params.add(new BasicNameValuePair("retstart", String.valueOf(pubmedXmlQuery.getRetStart())));
-        httppost.setEntity(new UrlEncodedFormEntity(params));
-        httppost.setHeader("Content-Type", "application/x-www-form-urlencoded");
-        httppost.getParams().setParameter(ClientPNames.COOKIE_POLICY, "standard");
-        httppost.setHeader("cache-control", "no-cache");
-
-        //Execute and get the response.
-        
-        HttpResponse response = httpClient.execute(httppost);
-        
-        Header[] headerRateLimitRemaining = response.getHeaders("X-RateLimit-Remaining");
-        Header[] headerRateLimit = response.getHeaders("X-RateLimit-Limit");
-        Header[] headerRetryAfter = response.getHeaders("Retry-After");
-        
-        log.info("Query : " + pubMedQuery.toString()  + " " + headerRateLimit[0].toString() + " " + headerRateLimitRemaining[0].toString());
-        
-        if(headerRateLimitRemaining != null && headerRateLimitRemaining.length > 0 && headerRateLimitRemaining[0] != null && Integer.parseInt(headerRateLimitRemaining[0].getValue()) == 0) {
-        	if(headerRetryAfter != null && headerRetryAfter.length > 0 && headerRetryAfter[0] != null) {
-        		log.info("Query : " + pubMedQuery.toString()  + " " + headerRetryAfter[0].toString());
-        		try {
-        			Thread.sleep(Long.parseLong(headerRetryAfter[0].getValue()) * 1000L);
-        		} catch (InterruptedException e) {
-        			log.error("InterruptedException", e);
-        		}
-        		response = httpClient.execute(httppost);
-        	}
+        return eSearchClient.count(URLEncoder.encode(pubMedQuery.toString(), "UTF-8"), "count");
+    }
+
+    /**
+     * Counts the articles of several queries at once, concurrently but within the NCBI rate limit.
+     *
+     * @return the counts in the order of the queries
+     */
+    @RequestMapping(value = "/query-number-pubmed-articles-batch/", method = RequestMethod.POST)
+    @ResponseBody
+    public ResponseEntity<List<Integer>> getNumberOfPubMedArticlesBatch(@RequestBody List<PubMedQuery> pubMedQueries) throws IOException {
+        if (pubMedQueries.size() > maxCountBatch) {
+            log.warn("Rejected a batch of {} count queries, at most {} are allowed", pubMedQueries.size(), maxCountBatch);
+            return ResponseEntity.badRequest().body(null);
         }
-		/*
-		 * for (Header header : headers) {
-		 * if(header.getName().equalsIgnoreCase("X-RateLimit-Limit") ||
-		 * header.getName().equalsIgnoreCase("X-RateLimit-Remaining") ||
-		 * header.getName().equalsIgnoreCase("Retry-After")) { log.info("Key : " +
-		 * header.getName() + " ,Value : " + header.getValue()); } }
-		 */
-        HttpEntity entity = response.getEntity();
-        if (entity != null) {
-            InputStream esearchStream = entity.getContent();
-			/*
-			 * StringWriter writer = new StringWriter(); IOUtils.copy(esearchStream, writer,
-			 * "UTF-8"); log.info(writer.toString());
-			 */
-            //SAXParserFactory.newInstance().newSAXParser().parse(esearchStream, pubmedESearchHandler);
-			JsonNode json = objectMapper.readTree(esearchStream).get("esearchresult");
-			if(json !=  null) {
-				eSearchResult = objectMapper.treeToValue(json, PubmedESearchResult.class);
-			}
+        // Queries the local indexes can answer are counted here, the others go to ESearch together.
+        List<Integer> counts = new ArrayList<>(pubMedQueries.size());
+        List<String> terms = new ArrayList<>();
+        for (PubMedQuery pubMedQuery : pubMedQueries) {
+            Integer localCount = localQueryEngine.count(pubMedQuery.toString());
+            counts.add(localCount);
+            if (localCount == null) {
+                terms.add(URLEncoder.encode(pubMedQuery.toString(), "UTF-8"));
+            }
         }
+        if (!terms.isEmpty()) {
+            Iterator<Integer> eSearchCounts = eSearchClient.countAll(terms, "count").iterator();
+            counts.replaceAll(count -> count != null ? count : eSearchCounts.next());
+        }
+        return ResponseEntity.ok(counts);
+    }
+
+    /**
+     * Resolves DOIs and PMCIDs to PMIDs, from the identifier index where possible.
+     *
+     * @return for {@code doi} and {@code pmcid}, the PMID of each identifier in the order given, {@code null} for
+     * those not found
+     */
+    @RequestMapping(value = "/lookup-ids/", method = RequestMethod.POST)
+    @ResponseBody
+    public ResponseEntity<Map<String, Map<String, Long>>> lookUpIdentifiers(@RequestBody IdentifierLookupRequest request) throws IOException {
+        int size = request.getDois().size() + request.getPmcids().size();
+        if (size > maxIdentifierBatch) {
+            log.warn("Rejected a batch of {} identifiers, at most {} are allowed", size, maxIdentifierBatch);
+            return ResponseEntity.badRequest().body(null);
+        }
+        Map<String, Map<String, Long>> pmids = new LinkedHashMap<>();
+        try (Span span = RequestContext.span("lookup-ids", "ids=" + size)) {
+            pmids.put("doi", pubMedArticleRetrievalService.lookUpIdentifiers(IdType.DOI, request.getDois()));
+            pmids.put("pmcid", pubMedArticleRetrievalService.lookUpIdentifiers(IdType.PMCID, request.getPmcids()));
+        }
+        return ResponseEntity.ok(pmids);
+    }
+
+    /**
+     * Answers {@code 503} with a {@code Retry-After} header while NCBI is unavailable and there is no stale data to
+     * serve instead.
+     */
+    @ExceptionHandler(CircuitOpenException.class)
+    public ResponseEntity<String> circuitOpen(CircuitOpenException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(TimeUnit.MILLISECONDS.toSeconds(e.getRetryAfterMillis() + 999)))
+                .contentType(MediaType.TEXT_PLAIN)
+                .body(e.getMessage());
+    }
 
-        return eSearchResult.getCount();
+    /**
+     * Answers {@code 504} once the deadline of the request passed.
+     */
+    @ExceptionHandler(DeadlineExceededException.class)
+    public ResponseEntity<String> deadlineExceeded(DeadlineExceededException e) {
+        pubMedMetrics.recordDeadlineExceeded();
+        return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+                .contentType(MediaType.TEXT_PLAIN)
+                .body(e.getMessage());
     }
 
     private List<PubMedArticle> retrieve(String query, String fields) throws IOException {
@@ -184,7 +202,17 @@ public class PubMedRetrievalToolController {
 
         List<PubMedArticle> result = new ArrayList<>();
 
-        List<PubMedArticle> pubMedArticles = pubMedArticleRetrievalService.retrieve(query);
+        List<PubMedArticle> pubMedArticles;
+        try (Span span = RequestContext.span("retrieve")) {
+            try {
+                pubMedArticles = pubMedArticleRetrievalService.retrieve(query);
+            } catch (IOException | RuntimeException e) {
+                span.fail(e);
+                throw e;
+            }
+        }
+        Span projectionSpan = RequestContext.span("projection", fields);
+        long start = System.nanoTime();
         pubMedArticles.forEach(elem -> {
             String partialObject = SquigglyUtils.stringify(objectMapper, elem);
             PubMedArticle pubMedArticle = null;
@@ -195,6 +223,8 @@ public class PubMedRetrievalToolController {
             }
             result.add(pubMedArticle);
         });
+        pubMedMetrics.projectionLatency().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        projectionSpan.close();
         log.info("retrieved " + pubMedArticles.size() + " PubMed articles using query=[" + query + "]");
         return result;
     }
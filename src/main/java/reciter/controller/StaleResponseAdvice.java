@@ -0,0 +1,37 @@
+package reciter.controller;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+import reciter.context.RequestContext;
+
+/**
+ * Marks responses answered from cached data instead of NCBI with {@code Warning: 110 - "Response is Stale"} and an
+ * {@code Age} header giving the seconds since the data was retrieved.
+ */
+@ControllerAdvice
+public class StaleResponseAdvice implements ResponseBodyAdvice<Object> {
+
+    public static final String STALE_WARNING = "110 - \"Response is Stale\"";
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return true;
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        RequestContext context = RequestContext.current();
+        if (context != null && context.isStale()) {
+            response.getHeaders().set("Warning", STALE_WARNING);
+            response.getHeaders().set("Age", String.valueOf(context.getStaleAgeMillis() / 1000));
+        }
+        return body;
+    }
+}
@@ -0,0 +1,44 @@
+package reciter.controller;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import reciter.tracing.Trace;
+import reciter.tracing.TraceRepository;
+
+import java.util.List;
+
+@Controller
+@RequestMapping("/pubmed/debug")
+@Api(value = "TraceController", description = "Timelines of recent retrieval requests.")
+public class TraceController {
+
+    @Autowired
+    private TraceRepository traceRepository;
+
+    @ApiOperation(value = "Slowest recent requests with their ESearch, EFetch, retry and projection spans.", response = List.class)
+    @RequestMapping(value = "/traces", method = RequestMethod.GET, produces = "application/json")
+    @ResponseBody
+    public List<Trace> slowestTraces(@RequestParam(name = "limit", required = false, defaultValue = "20") int limit) {
+        return traceRepository.slowest(limit);
+    }
+
+    @ApiOperation(value = "Trace of a single request by its X-Request-Id.", response = Trace.class)
+    @RequestMapping(value = "/traces/{id}", method = RequestMethod.GET, produces = "application/json")
+    @ResponseBody
+    public ResponseEntity<Trace> trace(@PathVariable String id) {
+        Trace trace = traceRepository.find(id);
+        if (trace == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        return ResponseEntity.ok(trace);
+    }
+}
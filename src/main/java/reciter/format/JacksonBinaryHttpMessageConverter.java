@@ -0,0 +1,16 @@
+package reciter.format;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.AbstractJackson2HttpMessageConverter;
+
+/**
+ * Reads and writes one of Jackson's binary data formats, selected by the {@link com.fasterxml.jackson.core.JsonFactory}
+ * of the given {@link ObjectMapper}. Spring 4.3 only ships converters for JSON and XML.
+ */
+public class JacksonBinaryHttpMessageConverter extends AbstractJackson2HttpMessageConverter {
+
+    public JacksonBinaryHttpMessageConverter(ObjectMapper objectMapper, MediaType mediaType) {
+        super(objectMapper, mediaType);
+    }
+}
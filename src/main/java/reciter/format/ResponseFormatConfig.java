@@ -0,0 +1,52 @@
+package reciter.format;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import java.util.List;
+
+/**
+ * Lets clients ask for articles in Smile or CBOR instead of JSON through the {@code Accept} header. Both encode the
+ * same Jackson model as JSON does, so projections with {@code fields} apply unchanged.
+ */
+@Configuration
+public class ResponseFormatConfig extends WebMvcConfigurerAdapter {
+
+    public static final String APPLICATION_SMILE = "application/x-jackson-smile";
+    public static final String APPLICATION_CBOR = "application/cbor";
+
+    /**
+     * Smile with back references for repeated values as well as field names, which pays off for the journal titles,
+     * MeSH terms and affiliations that recur across the articles of one response.
+     */
+    public static ObjectMapper smileObjectMapper() {
+        SmileFactory smileFactory = new SmileFactory();
+        smileFactory.enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES);
+        return configure(new ObjectMapper(smileFactory));
+    }
+
+    public static ObjectMapper cborObjectMapper() {
+        return configure(new ObjectMapper(new CBORFactory()));
+    }
+
+    /**
+     * Applies the defaults Spring uses for the JSON {@link ObjectMapper}, so that all formats carry the same fields.
+     */
+    private static ObjectMapper configure(ObjectMapper objectMapper) {
+        Jackson2ObjectMapperBuilder.json().configure(objectMapper);
+        return objectMapper;
+    }
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(new JacksonBinaryHttpMessageConverter(smileObjectMapper(), MediaType.valueOf(APPLICATION_SMILE)));
+        converters.add(new JacksonBinaryHttpMessageConverter(cborObjectMapper(), MediaType.valueOf(APPLICATION_CBOR)));
+    }
+}
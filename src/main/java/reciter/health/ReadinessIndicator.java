@@ -0,0 +1,101 @@
+package reciter.health;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.google.common.cache.CacheStats;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reciter.metrics.PubMedMetrics;
+import reciter.pubmed.cache.PubMedArticleCache;
+import reciter.pubmed.client.CircuitBreaker;
+import reciter.pubmed.ratelimit.NcbiRateLimiter;
+import reciter.pubmed.retriever.PubMedArticleRetrievalService;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides whether this node should receive more retrieval traffic. A node is not ready while NCBI has told it to
+ * back off, while it already serves as many retrievals or queued EFetch windows as configured, while most of its
+ * recent E-utilities requests failed, or while its circuit to NCBI is open.
+ */
+@Component
+public class ReadinessIndicator {
+
+    @Autowired
+    private NcbiRateLimiter ncbiRateLimiter;
+
+    @Autowired
+    private CircuitBreaker circuitBreaker;
+
+    @Autowired
+    private PubMedArticleRetrievalService pubMedArticleRetrievalService;
+
+    @Autowired
+    private PubMedArticleCache pubMedArticleCache;
+
+    @Autowired
+    private PubMedMetrics pubMedMetrics;
+
+    @Value("${pubmed.readiness.max-in-flight:16}")
+    private int maxInFlight;
+
+    @Value("${pubmed.readiness.max-queued:64}")
+    private int maxQueued;
+
+    @Value("${pubmed.readiness.max-error-rate:0.5}")
+    private double maxErrorRate;
+
+    @Value("${pubmed.readiness.min-calls-for-error-rate:10}")
+    private int minCallsForErrorRate;
+
+    public Readiness check() {
+        Readiness readiness = new Readiness();
+        readiness.rateLimiter = ncbiRateLimiter.getState();
+        readiness.inFlightRetrievals = pubMedArticleRetrievalService.getInFlightRetrievals();
+        readiness.queuedTasks = pubMedArticleRetrievalService.getQueuedTasks();
+        if (pubMedArticleCache.isEnabled()) {
+            CacheStats cacheStats = pubMedArticleCache.stats();
+            readiness.cacheHitRatio = cacheStats.requestCount() == 0 ? 0 : cacheStats.hitRate();
+            readiness.cacheSize = pubMedArticleCache.size();
+        }
+        readiness.recentUpstreamCalls = pubMedMetrics.getRecentUpstreamCalls();
+        readiness.recentUpstreamErrorRate = pubMedMetrics.getRecentUpstreamErrorRate();
+        readiness.circuit = circuitBreaker.getState();
+
+        if (readiness.rateLimiter.isBlocked()) {
+            readiness.reasons.add("NCBI asked to retry after " + readiness.rateLimiter.getRetryAfterMillis() + " ms");
+        }
+        if (readiness.inFlightRetrievals >= maxInFlight) {
+            readiness.reasons.add(readiness.inFlightRetrievals + " retrievals in flight, limit is " + maxInFlight);
+        }
+        if (readiness.queuedTasks >= maxQueued) {
+            readiness.reasons.add(readiness.queuedTasks + " EFetch windows queued, limit is " + maxQueued);
+        }
+        if (readiness.recentUpstreamCalls >= minCallsForErrorRate && readiness.recentUpstreamErrorRate >= maxErrorRate) {
+            readiness.reasons.add("Upstream error rate " + readiness.recentUpstreamErrorRate + " over the last minute");
+        }
+        if (readiness.circuit == CircuitBreaker.State.OPEN) {
+            readiness.reasons.add("The circuit to NCBI is open");
+        }
+        readiness.ready = readiness.reasons.isEmpty();
+        return readiness;
+    }
+
+    @Getter
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Readiness {
+        private boolean ready;
+        private final List<String> reasons = new ArrayList<>();
+        private NcbiRateLimiter.State rateLimiter;
+        private int inFlightRetrievals;
+        private long queuedTasks;
+        /** Left out unless {@code pubmed.cache.enabled} is set. */
+        private Double cacheHitRatio;
+        private Long cacheSize;
+        private long recentUpstreamCalls;
+        private double recentUpstreamErrorRate;
+        private CircuitBreaker.State circuit;
+    }
+}
@@ -0,0 +1,330 @@
+package reciter.metrics;
+
+import com.github.rholder.retry.Attempt;
+import com.github.rholder.retry.RetryListener;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timers, counters and gauges for the PubMed retrieval pipeline. All meters are prefixed with {@code pubmed}
+ * and exported through {@link reciter.controller.MetricsController}. Meters are built once, those with a tag that
+ * is only known at the call site the first time the tag value is seen.
+ */
+@Component
+public class PubMedMetrics {
+
+    public static final String ESEARCH = "esearch";
+    public static final String EFETCH = "efetch";
+
+    private final MeterRegistry registry;
+    private final Timer eFetchLatency;
+    private final Timer documentParseTime;
+    private final DistributionSummary articlesPerDocument;
+    private final Timer projectionLatency;
+    private final Timer rateLimitSleep;
+    private final Counter retries;
+    private final Counter storeHits;
+    private final Counter storeMisses;
+    private final Counter localQueries;
+    private final Counter eSearchQueries;
+    private final Counter circuitRejections;
+    private final Counter deadlinesExceeded;
+    private final ConcurrentMap<String, Timer> eSearchLatencies = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Timer> rateLimitWaits = new ConcurrentHashMap<>();
+    private final ConcurrentMap<List<String>, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<List<String>, DistributionSummary> summaries = new ConcurrentHashMap<>();
+    private final RecentOutcomes recentUpstreamOutcomes = new RecentOutcomes(60);
+
+    @Autowired
+    public PubMedMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.eFetchLatency = latencyTimer("pubmed.efetch.latency", "Download and streaming parse time of one EFetch window").register(registry);
+        this.documentParseTime = Timer.builder("pubmed.parse.document")
+                .description("Parse time of one EFetch document")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(300))
+                .register(registry);
+        this.articlesPerDocument = DistributionSummary.builder("pubmed.parse.articles")
+                .description("Articles in one parsed EFetch document")
+                .register(registry);
+        this.projectionLatency = latencyTimer("pubmed.projection.latency", "Squiggly field projection of a result list").register(registry);
+        this.rateLimitSleep = Timer.builder("pubmed.ratelimit.sleep")
+                .description("Time spent sleeping on NCBI Retry-After headers")
+                .register(registry);
+        this.retries = Counter.builder("pubmed.retry.attempts")
+                .description("EFetch window attempts beyond the first one")
+                .register(registry);
+        this.storeHits = storeLookups("hit");
+        this.storeMisses = storeLookups("miss");
+        this.localQueries = localQueries("local");
+        this.eSearchQueries = localQueries("esearch");
+        this.circuitRejections = Counter.builder("pubmed.circuit.rejected")
+                .description("Requests to NCBI refused while the circuit breaker was open")
+                .register(registry);
+        this.deadlinesExceeded = Counter.builder("pubmed.requests.deadline-exceeded")
+                .description("Requests answered with 504 because they ran past their deadline")
+                .register(registry);
+    }
+
+    private Counter storeLookups(String outcome) {
+        return Counter.builder("pubmed.store.lookups")
+                .description("PMIDs looked up in the local article store")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    private Counter localQueries(String outcome) {
+        return Counter.builder("pubmed.store.queries")
+                .description("Queries offered to the local query engine")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    /**
+     * Metrics that are recorded nowhere. Used by callers constructed outside of the Spring context.
+     */
+    public static PubMedMetrics noop() {
+        return new PubMedMetrics(new CompositeMeterRegistry());
+    }
+
+    private static Timer.Builder latencyTimer(String name, String description) {
+        return Timer.builder(name)
+                .description(description)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(10))
+                .maximumExpectedValue(Duration.ofSeconds(300));
+    }
+
+    /**
+     * @param operation the caller of ESearch, e.g. {@code retrieve} or {@code count}
+     */
+    public Timer eSearchLatency(String operation) {
+        return eSearchLatencies.computeIfAbsent(operation, o ->
+                latencyTimer("pubmed.esearch.latency", "Round trip time of an ESearch request")
+                        .tag("operation", o)
+                        .register(registry));
+    }
+
+    public Timer eFetchLatency() {
+        return eFetchLatency;
+    }
+
+    public Timer projectionLatency() {
+        return projectionLatency;
+    }
+
+    public Timer rateLimitSleep() {
+        return rateLimitSleep;
+    }
+
+    /**
+     * @param lane {@code interactive} or {@code bulk}
+     */
+    public Timer rateLimitWait(String lane) {
+        return rateLimitWaits.computeIfAbsent(lane, l -> Timer.builder("pubmed.ratelimit.wait")
+                .description("Time spent waiting for a permit of the NCBI request rate limiter")
+                .tag("lane", l)
+                .register(registry));
+    }
+
+    /**
+     * The counter of the given name and tags, registered on first use.
+     *
+     * @param tags alternating tag keys and values
+     */
+    private Counter counter(String name, String description, String... tags) {
+        return counters.computeIfAbsent(key(name, tags), k -> Counter.builder(name)
+                .description(description)
+                .tags(tags)
+                .register(registry));
+    }
+
+    /**
+     * The summary of the given name and tags in bytes, registered on first use.
+     *
+     * @param tags alternating tag keys and values
+     */
+    private DistributionSummary bytes(String name, String description, String... tags) {
+        return summaries.computeIfAbsent(key(name, tags), k -> DistributionSummary.builder(name)
+                .description(description)
+                .baseUnit("bytes")
+                .tags(tags)
+                .register(registry));
+    }
+
+    private static List<String> key(String name, String... tags) {
+        String[] key = Arrays.copyOf(tags, tags.length + 1);
+        key[tags.length] = name;
+        return Arrays.asList(key);
+    }
+
+    public MeterRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Counts a request to NCBI and remembers its outcome for {@link #getRecentUpstreamErrorRate()}.
+     *
+     * @param utility {@link #ESEARCH} or {@link #EFETCH}
+     */
+    public void recordUpstreamCall(String utility, boolean success) {
+        counter("pubmed.upstream.requests", "Requests sent to the E-utilities",
+                "utility", utility, "outcome", success ? "success" : "error").increment();
+        recentUpstreamOutcomes.record(success);
+    }
+
+    /**
+     * @return fraction of failed E-utilities requests during the last minute.
+     */
+    public double getRecentUpstreamErrorRate() {
+        return recentUpstreamOutcomes.errorRate();
+    }
+
+    public long getRecentUpstreamCalls() {
+        return recentUpstreamOutcomes.total();
+    }
+
+    /**
+     * @param utility {@link #ESEARCH} or {@link #EFETCH}
+     * @param bytes number of bytes read from the response body
+     */
+    public void recordDownloadedBytes(String utility, long bytes) {
+        bytes("pubmed.download.bytes", "Decoded response body size of E-utilities requests",
+                "utility", utility).record(bytes);
+    }
+
+    /**
+     * @param utility {@link #ESEARCH} or {@link #EFETCH}
+     * @param encoding the {@code Content-Encoding} of the response, {@code identity} if it was not compressed
+     * @param bytes number of bytes received before decoding
+     */
+    public void recordTransferredBytes(String utility, String encoding, long bytes) {
+        bytes("pubmed.transfer.bytes", "Bytes received from the E-utilities before content decoding",
+                "utility", utility, "encoding", encoding).record(bytes);
+    }
+
+    /**
+     * @param contentType the {@code Content-Type} of the response, parameters such as the charset are dropped
+     * @param gzip whether the response was eligible for gzip, i.e. the client sent {@code Accept-Encoding: gzip}
+     * @param bytes number of bytes of the response body before compression
+     */
+    public void recordResponseBytes(String contentType, boolean gzip, long bytes) {
+        String format = contentType == null ? "none" : contentType.split(";", 2)[0].trim();
+        bytes("pubmed.response.bytes", "Response body size of the /pubmed endpoints before compression",
+                "content_type", format, "accept_gzip", String.valueOf(gzip)).record(bytes);
+    }
+
+    /**
+     * Records the parse time of one EFetch document and the number of articles it contained. The mean parse time
+     * per article is the {@code sum} of {@code pubmed.parse.document} over the {@code sum} of
+     * {@code pubmed.parse.articles}.
+     */
+    public void recordParseTime(long elapsedNanos, int numberOfArticles) {
+        if (numberOfArticles <= 0) {
+            return;
+        }
+        documentParseTime.record(elapsedNanos, TimeUnit.NANOSECONDS);
+        articlesPerDocument.record(numberOfArticles);
+    }
+
+    /**
+     * @param found number of requested PMIDs served from the local article store
+     * @param missing number of requested PMIDs that had to be fetched from EFetch
+     */
+    public void recordStoreLookup(int found, int missing) {
+        storeHits.increment(found);
+        storeMisses.increment(missing);
+    }
+
+    /**
+     * @param answered whether the query was answered from the local indexes rather than sent to ESearch
+     */
+    public void recordLocalQuery(boolean answered) {
+        (answered ? localQueries : eSearchQueries).increment();
+    }
+
+    /**
+     * @param idType {@code doi} or {@code pmcid}
+     * @param found number of identifiers resolved from the identifier index
+     * @param missing number of identifiers not in the index
+     */
+    public void recordIdentifierLookup(String idType, int found, int missing) {
+        counter("pubmed.identifiers.lookups", "DOIs and PMCIDs looked up in the identifier index",
+                "type", idType, "outcome", "hit").increment(found);
+        counter("pubmed.identifiers.lookups", "DOIs and PMCIDs looked up in the identifier index",
+                "type", idType, "outcome", "miss").increment(missing);
+    }
+
+    /**
+     * @param outcome {@code fired} when a second EFetch was sent for a slow attempt, {@code won} when it answered
+     * first, {@code skipped} when other requests were waiting for the rate limiter
+     */
+    public void recordHedge(String outcome) {
+        counter("pubmed.efetch.hedges", "Duplicate EFetch requests sent for slow attempts",
+                "outcome", outcome).increment();
+    }
+
+    /**
+     * @param reason {@code concurrency} or {@code rate}
+     */
+    public void recordClientRejection(String reason) {
+        counter("pubmed.clients.rejected", "Requests refused because the client exceeded its quota",
+                "reason", reason).increment();
+    }
+
+    public void recordCircuitRejection() {
+        circuitRejections.increment();
+    }
+
+    public void recordDeadlineExceeded() {
+        deadlinesExceeded.increment();
+    }
+
+    /**
+     * @param reason why cached data was served instead of asking NCBI, e.g. {@code circuit-open}
+     */
+    public void recordStaleResponse(String reason) {
+        counter("pubmed.responses.stale", "Responses served from data that may be out of date",
+                "reason", reason).increment();
+    }
+
+    public void monitorExecutor(String name, ForkJoinPool pool) {
+        Gauge.builder("pubmed.executor.queued", pool, p -> p.getQueuedSubmissionCount() + p.getQueuedTaskCount())
+                .description("Tasks waiting in an executor")
+                .tag("executor", name)
+                .register(registry);
+        Gauge.builder("pubmed.executor.active", pool, ForkJoinPool::getActiveThreadCount)
+                .description("Threads of an executor running tasks")
+                .tag("executor", name)
+                .register(registry);
+    }
+
+    /**
+     * A listener for {@link com.github.rholder.retry.Retryer} that counts every attempt after the first one.
+     */
+    public RetryListener retryListener() {
+        return new RetryListener() {
+            @Override
+            public <V> void onRetry(Attempt<V> attempt) {
+                if (attempt.getAttemptNumber() > 1) {
+                    retries.increment();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,72 @@
+package reciter.metrics;
+
+/**
+ * Counts successes and failures over the last {@code windowSeconds} seconds in one-second buckets.
+ */
+public class RecentOutcomes {
+
+    private final int windowSeconds;
+    private final long[] bucketSecond;
+    private final long[] total;
+    private final long[] errors;
+
+    public RecentOutcomes(int windowSeconds) {
+        this.windowSeconds = windowSeconds;
+        this.bucketSecond = new long[windowSeconds];
+        this.total = new long[windowSeconds];
+        this.errors = new long[windowSeconds];
+    }
+
+    public void record(boolean success) {
+        record(success, System.currentTimeMillis());
+    }
+
+    synchronized void record(boolean success, long nowMillis) {
+        long second = nowMillis / 1000L;
+        int index = (int) (second % windowSeconds);
+        if (bucketSecond[index] != second) {
+            bucketSecond[index] = second;
+            total[index] = 0;
+            errors[index] = 0;
+        }
+        total[index]++;
+        if (!success) {
+            errors[index]++;
+        }
+    }
+
+    public long total() {
+        return total(System.currentTimeMillis());
+    }
+
+    synchronized long total(long nowMillis) {
+        long second = nowMillis / 1000L;
+        long sum = 0;
+        for (int i = 0; i < windowSeconds; i++) {
+            if (second - bucketSecond[i] < windowSeconds) {
+                sum += total[i];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @return the fraction of failed outcomes in the window, or 0 when nothing was recorded.
+     */
+    public double errorRate() {
+        return errorRate(System.currentTimeMillis());
+    }
+
+    synchronized double errorRate(long nowMillis) {
+        long second = nowMillis / 1000L;
+        long sum = 0;
+        long failed = 0;
+        for (int i = 0; i < windowSeconds; i++) {
+            if (second - bucketSecond[i] < windowSeconds) {
+                sum += total[i];
+                failed += errors[i];
+            }
+        }
+        return sum == 0 ? 0 : (double) failed / sum;
+    }
+}
@@ -0,0 +1,83 @@
+package reciter.pubmed.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import reciter.format.ResponseFormatConfig;
+import reciter.model.pubmed.PubMedArticle;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One article kept as a Smile encoded byte array instead of a {@link PubMedArticle} object graph, which needs several
+ * times the memory with its nested lists, builders and per-object headers. The article is decoded every time it is
+ * asked for.
+ */
+public final class CompactPubMedArticle {
+
+    private static final ObjectMapper SMILE = ResponseFormatConfig.smileObjectMapper();
+
+    private final byte[] encoded;
+
+    private CompactPubMedArticle(byte[] encoded) {
+        this.encoded = encoded;
+    }
+
+    public static CompactPubMedArticle encode(PubMedArticle pubMedArticle) {
+        try {
+            return new CompactPubMedArticle(SMILE.writeValueAsBytes(pubMedArticle));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static List<CompactPubMedArticle> encode(List<PubMedArticle> pubMedArticles) {
+        List<CompactPubMedArticle> compact = new ArrayList<>(pubMedArticles.size());
+        for (PubMedArticle pubMedArticle : pubMedArticles) {
+            compact.add(encode(pubMedArticle));
+        }
+        return compact;
+    }
+
+    public static List<PubMedArticle> materialize(List<CompactPubMedArticle> compact) {
+        List<PubMedArticle> pubMedArticles = new ArrayList<>(compact.size());
+        for (CompactPubMedArticle article : compact) {
+            pubMedArticles.add(article.materialize());
+        }
+        return pubMedArticles;
+    }
+
+    /**
+     * @return a new {@link PubMedArticle}; callers may modify it without affecting this instance
+     */
+    public PubMedArticle materialize() {
+        try {
+            return SMILE.readValue(encoded, PubMedArticle.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Decodes an article from {@code length} bytes of {@code buffer} that were written from {@link #toByteArray()}.
+     */
+    public static PubMedArticle materialize(byte[] buffer, int offset, int length) {
+        try {
+            return SMILE.readValue(buffer, offset, length, PubMedArticle.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the Smile encoding of the article, shared with this instance and therefore not to be modified
+     */
+    public byte[] toByteArray() {
+        return encoded;
+    }
+
+    public int getEncodedSize() {
+        return encoded.length;
+    }
+}
@@ -0,0 +1,210 @@
+package reciter.pubmed.cache;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reciter.metrics.PubMedMetrics;
+import reciter.model.pubmed.PubMedArticle;
+
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the articles retrieved for a query so that ReCiter's repeated author queries do not go to NCBI every time.
+ * It is off unless {@code pubmed.cache.enabled} is set, as cached results are not current.
+ * The cache is bounded by the total number of articles it holds. With {@code pubmed.cache.compact} the articles are
+ * held as {@link CompactPubMedArticle}s, at about half the heap, but decoded on every hit.
+ * <p>
+ * A result is fresh for {@code pubmed.cache.ttl-minutes}. For another {@code pubmed.cache.max-stale-minutes} it
+ * may still be served while {@link #refreshAsync(String, Callable)} retrieves it again in the background. Past that,
+ * it is kept until {@code pubmed.cache.stale-retention-minutes} after going stale, to be served only while NCBI is
+ * unavailable.
+ */
+@Slf4j
+@Component
+public class PubMedArticleCache {
+
+    private final boolean enabled;
+    private final boolean compact;
+    private final long ttlNanos;
+    private final long maxStaleNanos;
+    private final Ticker ticker;
+    private final Cache<String, Entry> cache;
+    private final Map<String, Boolean> refreshing = new ConcurrentHashMap<>();
+    private final ExecutorService refresher;
+
+    @Autowired
+    public PubMedArticleCache(@Value("${pubmed.cache.enabled:false}") boolean enabled,
+                              @Value("${pubmed.cache.ttl-minutes:10}") long ttlMinutes,
+                              @Value("${pubmed.cache.max-stale-minutes:60}") long maxStaleMinutes,
+                              @Value("${pubmed.cache.stale-retention-minutes:1440}") long staleRetentionMinutes,
+                              @Value("${pubmed.cache.max-articles:100000}") long maxArticles,
+                              @Value("${pubmed.cache.compact:false}") boolean compact,
+                              @Value("${pubmed.cache.refresh-threads:2}") int refreshThreads,
+                              PubMedMetrics pubMedMetrics) {
+        this(enabled, ttlMinutes, maxStaleMinutes, staleRetentionMinutes, maxArticles, compact, refreshThreads,
+                pubMedMetrics, Ticker.systemTicker());
+    }
+
+    PubMedArticleCache(boolean enabled, long ttlMinutes, long maxStaleMinutes, long staleRetentionMinutes,
+                       long maxArticles, boolean compact, int refreshThreads, PubMedMetrics pubMedMetrics, Ticker ticker) {
+        this.enabled = enabled;
+        this.compact = compact;
+        this.ttlNanos = TimeUnit.MINUTES.toNanos(ttlMinutes);
+        this.maxStaleNanos = TimeUnit.MINUTES.toNanos(maxStaleMinutes);
+        this.ticker = ticker;
+        this.cache = CacheBuilder.newBuilder()
+                .ticker(ticker)
+                .expireAfterWrite(ttlMinutes + Math.max(maxStaleMinutes, staleRetentionMinutes), TimeUnit.MINUTES)
+                .maximumWeight(maxArticles)
+                .weigher((String query, Entry entry) -> entry.size() + 1)
+                .recordStats()
+                .build();
+        this.refresher = Executors.newFixedThreadPool(Math.max(1, refreshThreads), runnable -> {
+            Thread thread = new Thread(runnable, "cache-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        GuavaCacheMetrics.monitor(pubMedMetrics.getRegistry(), cache, "pubmed.articles");
+    }
+
+    /**
+     * @return the cached articles for {@code query} if they are younger than {@code pubmed.cache.ttl-minutes},
+     * otherwise {@code null}.
+     */
+    public List<PubMedArticle> get(String query) {
+        Hit hit = lookup(query);
+        return hit == null || !hit.isFresh() ? null : hit.getPubMedArticles();
+    }
+
+    /**
+     * @return the cached articles for {@code query} however old, or {@code null} if there are none
+     */
+    public Hit lookup(String query) {
+        if (!enabled) {
+            return null;
+        }
+        Entry entry = cache.getIfPresent(query);
+        return entry == null ? null : new Hit(entry, ticker.read() - entry.writtenNanos);
+    }
+
+    public void put(String query, List<PubMedArticle> pubMedArticles) {
+        if (enabled) {
+            long now = ticker.read();
+            cache.put(query, compact ? new Entry(null, CompactPubMedArticle.encode(pubMedArticles), now) : new Entry(pubMedArticles, null, now));
+        }
+    }
+
+    /**
+     * Replaces the result of {@code query} with what {@code loader} returns, on a background thread. While one
+     * refresh of a query is running, further ones are ignored. A failed refresh leaves the cached result in place.
+     *
+     * @return whether a refresh was started
+     */
+    public boolean refreshAsync(String query, Callable<List<PubMedArticle>> loader) {
+        if (!enabled || refreshing.putIfAbsent(query, Boolean.TRUE) != null) {
+            return false;
+        }
+        try {
+            refresher.execute(() -> {
+                try {
+                    put(query, loader.call());
+                } catch (Exception e) {
+                    log.warn("Unable to refresh the cached result of query=[{}]: {}", query, e.toString());
+                } finally {
+                    refreshing.remove(query);
+                }
+            });
+        } catch (RuntimeException e) {
+            refreshing.remove(query);
+            throw e;
+        }
+        return true;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    @PreDestroy
+    public void close() {
+        refresher.shutdownNow();
+    }
+
+    /**
+     * Cached articles and how long ago they were retrieved.
+     */
+    public class Hit {
+
+        private final Entry entry;
+        private final long ageNanos;
+
+        Hit(Entry entry, long ageNanos) {
+            this.entry = entry;
+            this.ageNanos = ageNanos;
+        }
+
+        public List<PubMedArticle> getPubMedArticles() {
+            return entry.get();
+        }
+
+        public long getAgeMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(ageNanos);
+        }
+
+        public boolean isFresh() {
+            return ageNanos < ttlNanos;
+        }
+
+        /**
+         * @return whether the result is stale, but young enough to be served while it is refreshed
+         */
+        public boolean isRevalidatable() {
+            return !isFresh() && ageNanos < ttlNanos + maxStaleNanos;
+        }
+    }
+
+    /**
+     * Holds either the articles or their compact encoding.
+     */
+    private static class Entry {
+
+        private final List<PubMedArticle> pubMedArticles;
+        private final List<CompactPubMedArticle> compactArticles;
+        private final long writtenNanos;
+
+        Entry(List<PubMedArticle> pubMedArticles, List<CompactPubMedArticle> compactArticles, long writtenNanos) {
+            this.pubMedArticles = pubMedArticles;
+            this.compactArticles = compactArticles;
+            this.writtenNanos = writtenNanos;
+        }
+
+        List<PubMedArticle> get() {
+            return pubMedArticles != null ? pubMedArticles : CompactPubMedArticle.materialize(compactArticles);
+        }
+
+        int size() {
+            return pubMedArticles != null ? pubMedArticles.size() : compactArticles.size();
+        }
+    }
+}
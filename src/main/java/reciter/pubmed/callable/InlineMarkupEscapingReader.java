@@ -0,0 +1,92 @@
+package reciter.pubmed.callable;
+
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Reader;
+
+/**
+ * Escapes the inline formatting tags {@code <sup>}, {@code <sub>}, {@code <i>} and {@code <b>} (and their closing
+ * tags) that PubMed embeds in titles and abstracts, so that the SAX parser reports them as text instead of elements.
+ * The escaping is done while the EFetch response streams through, without holding the whole document in memory.
+ */
+public class InlineMarkupEscapingReader extends Reader {
+
+    private static final String[] TAGS = {"sup>", "/sup>", "sub>", "/sub>", "i>", "/i>", "b>", "/b>"};
+    private static final int LOOKAHEAD = 5;
+
+    private final PushbackReader in;
+    private final char[] lookahead = new char[LOOKAHEAD];
+    private String pending;
+    private int pendingPosition;
+
+    public InlineMarkupEscapingReader(Reader in) {
+        this.in = new PushbackReader(in, LOOKAHEAD);
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        int n = 0;
+        while (n < len) {
+            if (pending != null) {
+                int count = Math.min(len - n, pending.length() - pendingPosition);
+                pending.getChars(pendingPosition, pendingPosition + count, cbuf, off + n);
+                n += count;
+                pendingPosition += count;
+                if (pendingPosition == pending.length()) {
+                    pending = null;
+                }
+                continue;
+            }
+            if (n > 0 && !in.ready()) {
+                break;
+            }
+            int c = in.read();
+            if (c == -1) {
+                break;
+            }
+            if (c == '<') {
+                String tag = matchTag();
+                if (tag != null) {
+                    pending = "&lt;" + tag.substring(0, tag.length() - 1) + "&gt;";
+                    pendingPosition = 0;
+                    continue;
+                }
+            }
+            cbuf[off + n++] = (char) c;
+        }
+        return n == 0 && len > 0 ? -1 : n;
+    }
+
+    /**
+     * Reads ahead after a {@code <} and returns the tag it starts, leaving everything after the tag unread.
+     */
+    private String matchTag() throws IOException {
+        int count = 0;
+        while (count < LOOKAHEAD) {
+            int c = in.read();
+            if (c == -1) {
+                break;
+            }
+            lookahead[count++] = (char) c;
+            if (c == '>') {
+                break;
+            }
+        }
+        String matched = null;
+        for (String tag : TAGS) {
+            if (tag.length() == count && tag.contentEquals(new StringBuilder(count).append(lookahead, 0, count))) {
+                matched = tag;
+                break;
+            }
+        }
+        if (matched == null && count > 0) {
+            in.unread(lookahead, 0, count);
+        }
+        return matched;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
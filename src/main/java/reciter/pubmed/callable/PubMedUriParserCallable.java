@@ -1,54 +1,94 @@
 package reciter.pubmed.callable;
 
-import com.amazonaws.util.IOUtils;
 import lombok.AllArgsConstructor;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import reciter.context.RequestContext;
+import reciter.metrics.PubMedMetrics;
 import reciter.model.pubmed.PubMedArticle;
+import reciter.pubmed.client.EutilsTransport;
+import reciter.pubmed.xmlparser.PubMedArticleParser;
 import reciter.pubmed.xmlparser.PubmedEFetchHandler;
+import reciter.tracing.Span;
 
 import javax.xml.parsers.SAXParser;
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringReader;
-import java.net.URL;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 @AllArgsConstructor
 public class PubMedUriParserCallable implements Callable<List<PubMedArticle>> {
 
-    private final PubmedEFetchHandler xmlHandler;
-    private final SAXParser saxParser;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final PubMedArticleParser pubMedArticleParser;
     private final InputSource inputSource;
+    private final PubMedMetrics pubMedMetrics;
+    private final EutilsTransport eutilsTransport;
 
-    public List<PubMedArticle> parse(InputSource inputSource) throws SAXException, IOException {
-        //inputSource = preprocessSpecialCharacters(inputSource);
-        saxParser.parse(inputSource, xmlHandler);
-        return xmlHandler.getPubmedArticles();
+    public PubMedUriParserCallable(PubmedEFetchHandler xmlHandler, SAXParser saxParser, InputSource inputSource) {
+        this((reader, pubMedArticleSink) -> {
+            xmlHandler.reset();
+            saxParser.parse(new InputSource(reader), xmlHandler);
+            List<PubMedArticle> pubMedArticles = xmlHandler.getPubmedArticles();
+            if (pubMedArticles != null) {
+                pubMedArticleSink.startArticleSet();
+                for (PubMedArticle pubMedArticle : pubMedArticles) {
+                    pubMedArticleSink.accept(pubMedArticle);
+                }
+            }
+        }, inputSource, PubMedMetrics.noop(), EutilsTransport.standalone());
     }
 
-    public List<PubMedArticle> call() throws Exception {
-    	InputSource inputSource = preprocessSpecialCharacters(this.inputSource);
-        return parse(inputSource);
+    public List<PubMedArticle> parse(Reader reader) throws SAXException, IOException {
+        try (Span span = RequestContext.span("efetch.parse")) {
+            long start = System.nanoTime();
+            List<PubMedArticle> pubMedArticles = pubMedArticleParser.parse(reader);
+            pubMedMetrics.recordParseTime(System.nanoTime() - start, pubMedArticles == null ? 0 : pubMedArticles.size());
+            return pubMedArticles;
+        }
     }
 
-    private InputSource preprocessSpecialCharacters(InputSource inputSource) throws IOException {
-        InputStream inputStream;
-        if (inputSource.getSystemId() != null) {
-            inputStream = new URL(inputSource.getSystemId()).openStream();
-        } else {
-            inputStream = inputSource.getByteStream();
+    /**
+     * Downloads the EFetch response and parses it while it streams in. Responses are decoded from gzip or deflate
+     * by the {@link EutilsTransport}.
+     */
+    public List<PubMedArticle> call() throws Exception {
+        if (inputSource.getSystemId() == null) {
+            try (InputStream inputStream = inputSource.getByteStream()) {
+                return parse(preprocessSpecialCharacters(inputStream));
+            }
         }
-        String xml = IOUtils.toString(inputStream);
-        xml = xml.replace("<sup>", "&lt;sup&gt;");
-        xml = xml.replace("</sup>", "&lt;/sup&gt;");
-        xml = xml.replace("<sub>", "&lt;sub&gt;");
-        xml = xml.replace("</sub>", "&lt;/sub&gt;");
-        xml = xml.replace("<i>", "&lt;i&gt;");
-        xml = xml.replace("</i>", "&lt;/i&gt;");
-        xml = xml.replace("<b>", "&lt;b&gt;");
-        xml = xml.replace("</b>", "&lt;/b&gt;");
-        return new InputSource(new StringReader(xml));
+        long start = System.nanoTime();
+        try (Span span = RequestContext.span("efetch.request");
+             CloseableHttpResponse response = eutilsTransport.execute(new HttpGet(inputSource.getSystemId()), PubMedMetrics.EFETCH)) {
+            int status = response.getStatusLine().getStatusCode();
+            if (status >= 400) {
+                IOException e = new IOException("Server returned HTTP response code: " + status + " for URL: " + inputSource.getSystemId());
+                span.fail(e);
+                throw e;
+            }
+            try (InputStream inputStream = eutilsTransport.content(response.getEntity(), PubMedMetrics.EFETCH)) {
+                return parse(preprocessSpecialCharacters(inputStream));
+            } catch (IOException | SAXException e) {
+                span.fail(e);
+                throw e;
+            }
+        } finally {
+            pubMedMetrics.eFetchLatency().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Reader preprocessSpecialCharacters(InputStream inputStream) {
+        return new InlineMarkupEscapingReader(
+                new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8), BUFFER_SIZE));
     }
 }
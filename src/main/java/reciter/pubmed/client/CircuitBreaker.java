@@ -0,0 +1,155 @@
+package reciter.pubmed.client;
+
+import io.micrometer.core.instrument.Gauge;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reciter.metrics.PubMedMetrics;
+import reciter.metrics.RecentOutcomes;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops sending requests to NCBI while it is down. Server errors, failed requests and responses slower than
+ * {@code pubmed.circuit.slow-call-ms} count as failures; {@code 429}s do not, they are the rate limiter's business.
+ * Once {@code pubmed.circuit.failure-rate} of at least {@code pubmed.circuit.min-calls} requests within
+ * {@code pubmed.circuit.window-seconds} failed, the circuit opens and requests fail at once with a
+ * {@link CircuitOpenException} for {@code pubmed.circuit.open-seconds}. Then a single probe request is let through:
+ * if it succeeds the circuit closes, otherwise it opens again.
+ */
+@Slf4j
+@Component
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, HALF_OPEN, OPEN
+    }
+
+    private final boolean enabled;
+    private final double failureRate;
+    private final long slowCallNanos;
+    private final int minCalls;
+    private final int windowSeconds;
+    private final long openNanos;
+    private final PubMedMetrics pubMedMetrics;
+    private RecentOutcomes outcomes;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean probing;
+
+    @Autowired
+    public CircuitBreaker(@Value("${pubmed.circuit.enabled:true}") boolean enabled,
+                          @Value("${pubmed.circuit.failure-rate:0.5}") double failureRate,
+                          @Value("${pubmed.circuit.slow-call-ms:30000}") long slowCallMillis,
+                          @Value("${pubmed.circuit.min-calls:20}") int minCalls,
+                          @Value("${pubmed.circuit.window-seconds:30}") int windowSeconds,
+                          @Value("${pubmed.circuit.open-seconds:30}") long openSeconds,
+                          PubMedMetrics pubMedMetrics) {
+        this.enabled = enabled;
+        this.failureRate = failureRate;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.minCalls = minCalls;
+        this.windowSeconds = windowSeconds;
+        this.openNanos = TimeUnit.SECONDS.toNanos(openSeconds);
+        this.pubMedMetrics = pubMedMetrics;
+        this.outcomes = new RecentOutcomes(windowSeconds);
+        Gauge.builder("pubmed.circuit.state", this, breaker -> breaker.getState().ordinal())
+                .description("State of the NCBI circuit breaker: 0 closed, 1 half open, 2 open")
+                .register(pubMedMetrics.getRegistry());
+    }
+
+    /**
+     * A breaker that never opens. Used by callers constructed outside of the Spring context.
+     */
+    public static CircuitBreaker disabled() {
+        return new CircuitBreaker(false, 1, 0, 0, 1, 0, PubMedMetrics.noop());
+    }
+
+    /**
+     * Lets a request through, or refuses it while the circuit is open or a probe is under way. A request let
+     * through must be followed by {@link #onSuccess(long)}, {@link #onFailure()} or, if it was never sent,
+     * {@link #onCancelled()}.
+     */
+    public synchronized void acquire() throws CircuitOpenException {
+        if (!enabled) {
+            return;
+        }
+        if (state == State.OPEN) {
+            long remaining = openNanos - (System.nanoTime() - openedAt);
+            if (remaining > 0) {
+                throw reject(remaining);
+            }
+            state = State.HALF_OPEN;
+            probing = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (probing) {
+                throw reject(openNanos);
+            }
+            probing = true;
+            log.info("Probing whether NCBI has recovered");
+        }
+    }
+
+    /**
+     * @param latencyNanos time until the response headers arrived
+     */
+    public synchronized void onSuccess(long latencyNanos) {
+        if (!enabled) {
+            return;
+        }
+        if (latencyNanos > slowCallNanos) {
+            onFailure();
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            state = State.CLOSED;
+            outcomes = new RecentOutcomes(windowSeconds);
+            log.info("Closed the NCBI circuit, the probe request succeeded");
+        }
+        outcomes.record(true);
+    }
+
+    /**
+     * Records a server error, or a request that failed or timed out.
+     */
+    public synchronized void onFailure() {
+        if (!enabled) {
+            return;
+        }
+        outcomes.record(false);
+        if (state == State.HALF_OPEN) {
+            open("the probe request failed");
+        } else if (state == State.CLOSED && outcomes.total() >= minCalls && outcomes.errorRate() >= failureRate) {
+            open(String.format("%.0f%% of %d requests failed", outcomes.errorRate() * 100, outcomes.total()));
+        }
+    }
+
+    /**
+     * Records a request that was let through but not sent, so that another one may probe.
+     */
+    public synchronized void onCancelled() {
+        if (state == State.HALF_OPEN) {
+            probing = false;
+        }
+    }
+
+    private void open(String reason) {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        log.warn("Opened the NCBI circuit for {} s, {}", TimeUnit.NANOSECONDS.toSeconds(openNanos), reason);
+    }
+
+    private CircuitOpenException reject(long retryAfterNanos) {
+        pubMedMetrics.recordCircuitRejection();
+        return new CircuitOpenException(Math.max(1, TimeUnit.NANOSECONDS.toMillis(retryAfterNanos)));
+    }
+
+    public synchronized State getState() {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+}
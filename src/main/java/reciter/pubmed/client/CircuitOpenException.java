@@ -0,0 +1,36 @@
+package reciter.pubmed.client;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of sending a request to NCBI while the {@link CircuitBreaker} is open. It is not retried.
+ */
+public class CircuitOpenException extends IOException {
+
+    private final long retryAfterMillis;
+
+    public CircuitOpenException(long retryAfterMillis) {
+        super("NCBI E-utilities are unavailable, retry after " + retryAfterMillis + " ms");
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * @return the {@code CircuitOpenException} that caused {@code throwable}, e.g. through an executor or the
+     * retryer, or {@code null}
+     */
+    public static CircuitOpenException causeOf(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CircuitOpenException) {
+                return (CircuitOpenException) cause;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,238 @@
+package reciter.pubmed.client;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.params.ClientPNames;
+import org.apache.http.message.BasicNameValuePair;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reciter.context.RequestContext;
+import reciter.metrics.PubMedMetrics;
+import reciter.pubmed.model.PubmedESearchResult;
+import reciter.pubmed.querybuilder.PubmedXmlQuery;
+import reciter.tracing.Span;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends ESearch requests for every caller. The query is POSTed so that long terms fit, an exhausted NCBI rate limit
+ * is waited out once as announced by {@code Retry-After}, and only the {@code esearchresult} object of the response
+ * is decoded, straight from the stream into a {@link PubmedESearchResult}.
+ */
+@Slf4j
+@Component
+public class ESearchClient {
+
+    private static final ObjectReader RESULT_READER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .readerFor(PubmedESearchResult.class);
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static volatile ESearchClient standalone;
+
+    private final EutilsTransport eutilsTransport;
+    private final PubMedMetrics pubMedMetrics;
+    private final ExecutorService countExecutor;
+
+    @Autowired
+    public ESearchClient(EutilsTransport eutilsTransport,
+                         PubMedMetrics pubMedMetrics,
+                         @Value("${pubmed.esearch.count-concurrency:8}") int countConcurrency) {
+        this.eutilsTransport = eutilsTransport;
+        this.pubMedMetrics = pubMedMetrics;
+        this.countExecutor = Executors.newFixedThreadPool(Math.max(countConcurrency, 1), new ThreadFactory() {
+            private final AtomicInteger threads = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "esearch-count-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * A client on the {@link EutilsTransport#standalone()} transport, for callers outside of the Spring context.
+     */
+    public static ESearchClient standalone() {
+        if (standalone == null) {
+            synchronized (ESearchClient.class) {
+                if (standalone == null) {
+                    standalone = new ESearchClient(EutilsTransport.standalone(), PubMedMetrics.noop(), 1);
+                }
+            }
+        }
+        return standalone;
+    }
+
+    /**
+     * @param operation what the search is for, tags the latency metric and the trace span
+     * @return the result, with all fields unset if the response has no {@code esearchresult}
+     */
+    public PubmedESearchResult search(PubmedXmlQuery pubmedXmlQuery, String operation) throws IOException {
+        pubmedXmlQuery.setEutilsBaseUrl(eutilsTransport.getBaseUrl());
+        log.info("ESearch Query=[{}]", pubmedXmlQuery.buildESearchQuery());
+        HttpPost httppost = buildRequest(pubmedXmlQuery);
+        long start = System.nanoTime();
+        try (Span span = RequestContext.span("esearch", operation)) {
+            try {
+                return execute(httppost, pubmedXmlQuery.getTerm());
+            } catch (IOException | RuntimeException e) {
+                span.fail(e);
+                throw e;
+            }
+        } finally {
+            pubMedMetrics.eSearchLatency(operation).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Asks only for the number of matching articles: no PMIDs are listed and no history session is created.
+     *
+     * @param term URL encoded search term
+     */
+    public int count(String term, String operation) throws IOException {
+        PubmedXmlQuery pubmedXmlQuery = new PubmedXmlQuery(term);
+        pubmedXmlQuery.setRetMax(0);
+        pubmedXmlQuery.setUseHistory("n");
+        pubmedXmlQuery.setRetType("count");
+        return search(pubmedXmlQuery, operation).getCount();
+    }
+
+    /**
+     * Counts all {@code terms} concurrently, at most {@code pubmed.esearch.count-concurrency} at a time and each
+     * within the NCBI rate limit.
+     *
+     * @return the counts in the order of {@code terms}
+     */
+    public List<Integer> countAll(List<String> terms, String operation) throws IOException {
+        List<Future<Integer>> counts = new ArrayList<>(terms.size());
+        for (String term : terms) {
+            counts.add(countExecutor.submit(RequestContext.wrap(() -> count(term, operation))));
+        }
+        List<Integer> result = new ArrayList<>(terms.size());
+        try {
+            for (Future<Integer> count : counts) {
+                result.add(count.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while counting");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            counts.forEach(count -> count.cancel(true));
+        }
+        return result;
+    }
+
+    @PreDestroy
+    public void close() {
+        countExecutor.shutdownNow();
+    }
+
+    private HttpPost buildRequest(PubmedXmlQuery pubmedXmlQuery) throws IOException {
+        String fullUrl = pubmedXmlQuery.getESearchBaseUrl();
+        if (pubmedXmlQuery.getApiKey() != null && !pubmedXmlQuery.getApiKey().isEmpty()) {
+            fullUrl += "?api_key=" + pubmedXmlQuery.getApiKey();
+        }
+        HttpPost httppost = new HttpPost(fullUrl);
+        // Request parameters and other properties.
+        List<NameValuePair> params = new ArrayList<>();
+        params.add(new BasicNameValuePair("db", pubmedXmlQuery.getDb()));
+        params.add(new BasicNameValuePair("retmax", String.valueOf(pubmedXmlQuery.getRetMax())));
+        params.add(new BasicNameValuePair("usehistory", pubmedXmlQuery.getUseHistory()));
+        params.add(new BasicNameValuePair("term", URLDecoder.decode(pubmedXmlQuery.getTerm(), "UTF-8")));
+        params.add(new BasicNameValuePair("retmode", pubmedXmlQuery.getRetMode()));
+        params.add(new BasicNameValuePair("retstart", String.valueOf(pubmedXmlQuery.getRetStart())));
+        if (pubmedXmlQuery.getRetType() != null) {
+            params.add(new BasicNameValuePair("rettype", pubmedXmlQuery.getRetType()));
+        }
+        httppost.setEntity(new UrlEncodedFormEntity(params));
+        httppost.setHeader("Content-Type", "application/x-www-form-urlencoded");
+        httppost.getParams().setParameter(ClientPNames.COOKIE_POLICY, "standard");
+        httppost.setHeader("cache-control", "no-cache");
+        return httppost;
+    }
+
+    private PubmedESearchResult execute(HttpPost httppost, String term) throws IOException {
+        CloseableHttpResponse response = eutilsTransport.execute(httppost, PubMedMetrics.ESEARCH);
+        try {
+            Header rateLimit = response.getFirstHeader("X-RateLimit-Limit");
+            Header rateLimitRemaining = response.getFirstHeader("X-RateLimit-Remaining");
+            Header retryAfter = response.getFirstHeader("Retry-After");
+            log.info("Query : {} {} {}", term, rateLimit, rateLimitRemaining);
+
+            if (rateLimitRemaining != null && "0".equals(rateLimitRemaining.getValue().trim()) && retryAfter != null) {
+                log.info("Query : {} {}", term, retryAfter);
+                long sleepStart = System.nanoTime();
+                // Not past the deadline of the request, which is answered with 504 when it passes.
+                try (Span span = RequestContext.span("ratelimit.sleep", retryAfter.toString())) {
+                    RequestContext.sleep(Long.parseLong(retryAfter.getValue().trim()) * 1000L);
+                } finally {
+                    pubMedMetrics.rateLimitSleep().record(System.nanoTime() - sleepStart, TimeUnit.NANOSECONDS);
+                }
+                response.close();
+                response = eutilsTransport.execute(httppost, PubMedMetrics.ESEARCH);
+            }
+
+            HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                return new PubmedESearchResult();
+            }
+            try (InputStream esearchStream = eutilsTransport.content(entity, PubMedMetrics.ESEARCH)) {
+                return decode(esearchStream);
+            }
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Reads the {@code esearchresult} member of an ESearch JSON response. Nothing after it is read.
+     */
+    static PubmedESearchResult decode(InputStream esearchStream) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(esearchStream)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return new PubmedESearchResult();
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                JsonToken value = parser.nextToken();
+                if ("esearchresult".equals(parser.getCurrentName()) && value == JsonToken.START_OBJECT) {
+                    return RESULT_READER.readValue(parser);
+                }
+                parser.skipChildren();
+            }
+            return new PubmedESearchResult();
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package reciter.pubmed.client;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reciter.context.DeadlineExceededException;
+import reciter.context.RequestContext;
+import reciter.metrics.PubMedMetrics;
+import reciter.pubmed.querybuilder.PubmedXmlQuery;
+import reciter.pubmed.ratelimit.AdaptiveConcurrencyLimit;
+import reciter.pubmed.ratelimit.NcbiRateLimiter;
+
+import javax.annotation.PreDestroy;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The HTTP connection to the E-utilities shared by ESearch and EFetch. Unless the {@link CircuitBreaker} refuses it,
+ * every request takes a permit from the {@link NcbiRateLimiter} and then a slot of the {@link AdaptiveConcurrencyLimit}, held until the response is
+ * closed. Taking the permit first keeps the order in which the rate limiter serves lanes and clients. Responses are
+ * requested gzip or deflate encoded and decoded here while being read so that both the transferred and the decoded
+ * number of bytes can be measured.
+ */
+@Slf4j
+@Component
+public class EutilsTransport {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static volatile EutilsTransport standalone;
+
+    private final String baseUrl;
+    private final boolean compression;
+    private final NcbiRateLimiter ncbiRateLimiter;
+    private final AdaptiveConcurrencyLimit concurrencyLimit;
+    private final CircuitBreaker circuitBreaker;
+    private final PubMedMetrics pubMedMetrics;
+    private final CloseableHttpClient httpClient;
+
+    @Autowired
+    public EutilsTransport(@Value("${pubmed.eutils.base-url:}") String baseUrl,
+                           @Value("${pubmed.eutils.compression:true}") boolean compression,
+                           @Value("${pubmed.eutils.connect-timeout-ms:10000}") int connectTimeoutMillis,
+                           @Value("${pubmed.eutils.socket-timeout-ms:60000}") int socketTimeoutMillis,
+                           NcbiRateLimiter ncbiRateLimiter,
+                           AdaptiveConcurrencyLimit concurrencyLimit,
+                           CircuitBreaker circuitBreaker,
+                           PubMedMetrics pubMedMetrics) {
+        if (baseUrl.isEmpty()) {
+            baseUrl = PubmedXmlQuery.DEFAULT_EUTILS_BASE_URL;
+        }
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+        log.info("Sending E-utilities requests to {}", this.baseUrl);
+        this.compression = compression;
+        this.ncbiRateLimiter = ncbiRateLimiter;
+        this.concurrencyLimit = concurrencyLimit;
+        this.circuitBreaker = circuitBreaker;
+        this.pubMedMetrics = pubMedMetrics;
+        // Content decoding is done in content() so that the compressed size stays observable.
+        this.httpClient = HttpClients.custom()
+                .disableContentCompression()
+                .setMaxConnPerRoute(32)
+                .setMaxConnTotal(64)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(connectTimeoutMillis)
+                        .setSocketTimeout(socketTimeoutMillis)
+                        .build())
+                .build();
+    }
+
+    /**
+     * A transport without rate limiting, circuit breaker or metrics, for callers constructed outside of the Spring
+     * context. It sends requests to the {@code pubmed.eutils.base-url} system property or the
+     * {@code PUBMED_EUTILS_BASE_URL} environment variable if either is set, otherwise to NCBI.
+     */
+    public static EutilsTransport standalone() {
+        if (standalone == null) {
+            synchronized (EutilsTransport.class) {
+                if (standalone == null) {
+                    String baseUrl = System.getProperty("pubmed.eutils.base-url");
+                    if (baseUrl == null || baseUrl.isEmpty()) {
+                        baseUrl = System.getenv("PUBMED_EUTILS_BASE_URL");
+                    }
+                    standalone = new EutilsTransport(baseUrl == null ? "" : baseUrl, true, 10000, 60000, NcbiRateLimiter.unlimited(),
+                            AdaptiveConcurrencyLimit.unlimited(), CircuitBreaker.disabled(), PubMedMetrics.noop());
+                }
+            }
+        }
+        return standalone;
+    }
+
+    /**
+     * @return the location of the E-utilities requests are meant for, {@code pubmed.eutils.base-url} or NCBI,
+     * ending with {@code /}.
+     */
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    /**
+     * Sends {@code request} once a rate limiter permit is available. The caller must close the response. If the
+     * current request is cancelled meanwhile, waiting stops and {@code request} is aborted.
+     *
+     * @param utility {@link PubMedMetrics#ESEARCH} or {@link PubMedMetrics#EFETCH}
+     * @throws CircuitOpenException at once while the {@link CircuitBreaker} is open
+     * @throws DeadlineExceededException once the current request is cancelled
+     */
+    public CloseableHttpResponse execute(HttpUriRequest request, String utility) throws IOException {
+        if (compression) {
+            request.setHeader(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate");
+        }
+        RequestContext context = RequestContext.current();
+        RequestContext.checkDeadline();
+        circuitBreaker.acquire();
+        Thread thread = Thread.currentThread();
+        try (RequestContext.Registration waiting = onCancel(context, thread::interrupt)) {
+            ncbiRateLimiter.acquire();
+            concurrencyLimit.acquire();
+        } catch (InterruptedException e) {
+            circuitBreaker.onCancelled();
+            if (context != null && context.isCancelled()) {
+                throw new DeadlineExceededException(context.getRequestId());
+            }
+            thread.interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the NCBI rate limiter");
+        }
+        if (context != null && context.isCancelled()) {
+            // An interrupt from the cancellation may have arrived after the permits were granted.
+            Thread.interrupted();
+            concurrencyLimit.release();
+            circuitBreaker.onCancelled();
+            throw new DeadlineExceededException(context.getRequestId());
+        }
+        RequestContext.Registration abort = onCancel(context, request::abort);
+        long start = System.nanoTime();
+        CloseableHttpResponse response;
+        try {
+            response = httpClient.execute(request);
+        } catch (IOException | RuntimeException e) {
+            abort.close();
+            concurrencyLimit.release();
+            if (context != null && context.isCancelled()) {
+                // Aborted by this service, which says nothing about NCBI.
+                circuitBreaker.onCancelled();
+                throw new DeadlineExceededException(context.getRequestId());
+            }
+            concurrencyLimit.onDropped();
+            circuitBreaker.onFailure();
+            pubMedMetrics.recordUpstreamCall(utility, false);
+            throw e;
+        }
+        long latency = System.nanoTime() - start;
+        int status = response.getStatusLine().getStatusCode();
+        if (status == 429 || status >= 500) {
+            concurrencyLimit.onDropped();
+        } else {
+            concurrencyLimit.onResponse(latency);
+        }
+        if (status >= 500) {
+            circuitBreaker.onFailure();
+        } else {
+            circuitBreaker.onSuccess(latency);
+        }
+        ncbiRateLimiter.observe(response);
+        pubMedMetrics.recordUpstreamCall(utility, status < 400);
+        return releasingOnClose(response, abort);
+    }
+
+    private static RequestContext.Registration onCancel(RequestContext context, Runnable hook) {
+        return context == null ? RequestContext.Registration.NONE : context.onCancel(hook);
+    }
+
+    /**
+     * @return {@code response} that gives back its concurrency slot and stops aborting on cancellation when closed
+     */
+    private CloseableHttpResponse releasingOnClose(CloseableHttpResponse response, RequestContext.Registration abort) {
+        AtomicBoolean released = new AtomicBoolean();
+        return (CloseableHttpResponse) Proxy.newProxyInstance(CloseableHttpResponse.class.getClassLoader(),
+                new Class<?>[] {CloseableHttpResponse.class}, (proxy, method, args) -> {
+                    if ("close".equals(method.getName()) && released.compareAndSet(false, true)) {
+                        abort.close();
+                        concurrencyLimit.release();
+                    }
+                    try {
+                        return method.invoke(response, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    /**
+     * @return the decoded response body. Transferred and decoded byte counts are recorded when it is closed.
+     */
+    public InputStream content(HttpEntity entity, String utility) throws IOException {
+        CountingStream wire = new CountingStream(entity.getContent());
+        Header contentEncoding = entity.getContentEncoding();
+        String encoding = contentEncoding == null ? "identity" : contentEncoding.getValue().trim().toLowerCase();
+        InputStream decoded;
+        if ("gzip".equals(encoding) || "x-gzip".equals(encoding)) {
+            decoded = new GZIPInputStream(wire, BUFFER_SIZE);
+        } else if ("deflate".equals(encoding)) {
+            decoded = new InflaterInputStream(wire, new Inflater(), BUFFER_SIZE);
+        } else {
+            decoded = wire;
+        }
+        return new CountingStream(decoded) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                // The SAX parser closes its input when done, callers close it again.
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                super.close();
+                pubMedMetrics.recordDownloadedBytes(utility, getCount());
+                pubMedMetrics.recordTransferredBytes(utility, encoding, wire.getCount());
+            }
+        };
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        httpClient.close();
+    }
+
+    private static class CountingStream extends FilterInputStream {
+
+        private long count;
+
+        CountingStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package reciter.pubmed.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The DOIs and PMCIDs to resolve to PMIDs in one request. A missing or {@code null} list is taken as empty.
+ */
+@Getter
+public class IdentifierLookupRequest {
+
+    @JsonProperty("doi")
+    private List<String> dois = new ArrayList<>();
+    @JsonProperty("pmcid")
+    private List<String> pmcids = new ArrayList<>();
+
+    public void setDois(List<String> dois) {
+        this.dois = dois == null ? new ArrayList<>() : dois;
+    }
+
+    public void setPmcids(List<String> pmcids) {
+        this.pmcids = pmcids == null ? new ArrayList<>() : pmcids;
+    }
+}
@@ -6,6 +6,8 @@ import com.fasterxml.jackson.annotation.JsonRootName;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.util.List;
+
 @Getter
 @Setter
 //@JsonRootName(value = "esearchresult")
@@ -21,4 +23,6 @@ public class PubmedESearchResult {
 	private int queryKey;
 	@JsonProperty(value = "webenv", required = true)
 	private String webenv;
+	@JsonProperty(value = "idlist")
+	private List<String> idList;
 }
@@ -2,6 +2,8 @@ package reciter.pubmed.querybuilder;
 
 import lombok.Data;
 
+import java.util.List;
+
 /**
  * Reference documentation for the various parameters in this class: http://www.ncbi.nlm.nih.gov/books/NBK25499/
  */
@@ -10,11 +12,16 @@ public class PubmedXmlQuery {
 
     public static final int DEFAULT_RETMAX = 10000;
 
+    /**
+     * Location of the E-utilities at NCBI.
+     */
+    public static final String DEFAULT_EUTILS_BASE_URL = "https://www.ncbi.nlm.nih.gov/entrez/eutils/";
+
     /**
      * Required Parameters.
      */
-    public static final String ESEARCH_BASE_URL = "https://www.ncbi.nlm.nih.gov/entrez/eutils/esearch.fcgi";
-    protected static final String EFETCH_BASE_URL = "https://www.ncbi.nlm.nih.gov/entrez/eutils/efetch.fcgi";
+    public static final String ESEARCH_BASE_URL = DEFAULT_EUTILS_BASE_URL + "esearch.fcgi";
+    protected static final String EFETCH_BASE_URL = DEFAULT_EUTILS_BASE_URL + "efetch.fcgi";
 
     /**
      * Optional Parameters.
@@ -24,6 +31,11 @@ public class PubmedXmlQuery {
      */
     private String db = "pubmed";
 
+    /**
+     * Location of the E-utilities the query is sent to, ending with {@code /}. (Default={@link #DEFAULT_EUTILS_BASE_URL})
+     */
+    private String eutilsBaseUrl = DEFAULT_EUTILS_BASE_URL;
+
     /**
      * Entrez text query. All special characters must be URL encoded. Spaces may be replaced by '+'
      * signs. For very long queries (more than several hundred characters long), consider using
@@ -77,9 +89,26 @@ public class PubmedXmlQuery {
      */
     private String retMode = "json";
 
+    /**
+     * ESearch result type, {@code count} returns nothing but the count. {@code null} for the full result.
+     */
+    private String retType;
+
     public PubmedXmlQuery() {
     }
 
+    public void setEutilsBaseUrl(String eutilsBaseUrl) {
+        this.eutilsBaseUrl = eutilsBaseUrl.endsWith("/") ? eutilsBaseUrl : eutilsBaseUrl + "/";
+    }
+
+    public String getESearchBaseUrl() {
+        return eutilsBaseUrl + "esearch.fcgi";
+    }
+
+    public String getEFetchBaseUrl() {
+        return eutilsBaseUrl + "efetch.fcgi";
+    }
+
     public PubmedXmlQuery(String db, String term) {
         this.db = db;
         this.term = term;
@@ -96,7 +125,7 @@ public class PubmedXmlQuery {
      */
     public String buildESearchQuery() {
         StringBuilder sb = new StringBuilder();
-        sb.append(ESEARCH_BASE_URL);
+        sb.append(getESearchBaseUrl());
         if(apiKey != null) {
     		if(!apiKey.isEmpty()) {
 	        sb.append("?api_key=");
@@ -115,6 +144,10 @@ public class PubmedXmlQuery {
         sb.append(useHistory);
         sb.append("&retmode=");
         sb.append(retMode);
+        if (retType != null) {
+            sb.append("&rettype=");
+            sb.append(retType);
+        }
         
         return sb.toString();
     }
@@ -127,7 +160,7 @@ public class PubmedXmlQuery {
      */
     public String buildEFetchQuery() {
         StringBuilder sb = new StringBuilder();
-        sb.append(EFETCH_BASE_URL);
+        sb.append(getEFetchBaseUrl());
         if(apiKey != null) {
     		if(!apiKey.isEmpty()) {
 	        sb.append("?api_key=");
@@ -151,4 +184,26 @@ public class PubmedXmlQuery {
         
         return sb.toString();
     }
+
+    /**
+     * Constructs an EFetch query for the articles with {@code pmids}, without going through the history server.
+     */
+    public String buildEFetchQuery(List<String> pmids) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(getEFetchBaseUrl());
+        if (apiKey != null && !apiKey.isEmpty()) {
+            sb.append("?api_key=");
+            sb.append(apiKey);
+            sb.append("&db=");
+        } else {
+            sb.append("?db=");
+        }
+        sb.append(db);
+        sb.append("&id=");
+        sb.append(String.join(",", pmids));
+        sb.append("&retmode=");
+        sb.append("xml");
+
+        return sb.toString();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,120 @@
+package reciter.pubmed.ratelimit;
+
+import io.micrometer.core.instrument.Gauge;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reciter.metrics.PubMedMetrics;
+
+/**
+ * Bounds the number of requests to NCBI in flight, independently of the {@link NcbiRateLimiter}. The limit is
+ * adjusted by additive increase, multiplicative decrease: while responses arrive within
+ * {@code pubmed.upstream.concurrency.latency-tolerance} times the usual time to the first byte it grows by one per
+ * limit's worth of responses, and a slower response, a {@code 429} or {@code 5xx} or a failed request cuts it by a
+ * quarter, at most once per usual response time. The usual response time is a moving average, so a lasting change
+ * of NCBI's speed becomes the new normal.
+ */
+@Slf4j
+@Component
+public class AdaptiveConcurrencyLimit {
+
+    private static final double BACKOFF = 0.75;
+    private static final double SMOOTHING = 0.05;
+
+    private final boolean enabled;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double latencyTolerance;
+    private double limit;
+    private int inFlight;
+    private double usualLatencyNanos;
+    private long lastDecrease;
+
+    @Autowired
+    public AdaptiveConcurrencyLimit(@Value("${pubmed.upstream.concurrency.enabled:true}") boolean enabled,
+                                    @Value("${pubmed.upstream.concurrency.initial:4}") int initialLimit,
+                                    @Value("${pubmed.upstream.concurrency.min:1}") int minLimit,
+                                    @Value("${pubmed.upstream.concurrency.max:32}") int maxLimit,
+                                    @Value("${pubmed.upstream.concurrency.latency-tolerance:2.0}") double latencyTolerance,
+                                    PubMedMetrics pubMedMetrics) {
+        this.enabled = enabled;
+        this.minLimit = Math.max(minLimit, 1);
+        this.maxLimit = Math.max(maxLimit, this.minLimit);
+        this.latencyTolerance = latencyTolerance;
+        this.limit = Math.min(Math.max(initialLimit, this.minLimit), this.maxLimit);
+        Gauge.builder("pubmed.upstream.concurrency.limit", this, AdaptiveConcurrencyLimit::getLimit)
+                .description("Requests to NCBI allowed in flight")
+                .register(pubMedMetrics.getRegistry());
+        Gauge.builder("pubmed.upstream.concurrency.in-flight", this, AdaptiveConcurrencyLimit::getInFlight)
+                .description("Requests to NCBI in flight")
+                .register(pubMedMetrics.getRegistry());
+    }
+
+    /**
+     * A limit that never makes callers wait. Used by callers constructed outside of the Spring context.
+     */
+    public static AdaptiveConcurrencyLimit unlimited() {
+        return new AdaptiveConcurrencyLimit(false, 1, 1, 1, 2.0, PubMedMetrics.noop());
+    }
+
+    /**
+     * Blocks until fewer requests than the limit are in flight. The caller must {@link #release()} afterwards.
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (enabled && inFlight >= (int) limit) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    public synchronized void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * @param latencyNanos time until the response headers arrived
+     */
+    public synchronized void onResponse(long latencyNanos) {
+        if (usualLatencyNanos == 0) {
+            usualLatencyNanos = latencyNanos;
+        }
+        if (latencyNanos > latencyTolerance * usualLatencyNanos) {
+            decrease("latency");
+        } else if (inFlight >= limit / 2) {
+            // Only a limit that is used is raised.
+            limit = Math.min(maxLimit, limit + 1 / limit);
+            notifyAll();
+        }
+        usualLatencyNanos += SMOOTHING * (latencyNanos - usualLatencyNanos);
+    }
+
+    /**
+     * Records a {@code 429}, a server error or a request that failed, e.g. by timing out.
+     */
+    public synchronized void onDropped() {
+        decrease("dropped");
+    }
+
+    private void decrease(String cause) {
+        long now = System.nanoTime();
+        if (lastDecrease != 0 && now - lastDecrease < usualLatencyNanos) {
+            return;
+        }
+        lastDecrease = now;
+        double previous = limit;
+        limit = Math.max(minLimit, limit * BACKOFF);
+        if ((int) previous != (int) limit) {
+            log.info("Lowered the NCBI concurrency limit from {} to {} ({})", (int) previous, (int) limit, cause);
+        }
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+}
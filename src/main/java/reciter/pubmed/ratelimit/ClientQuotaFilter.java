@@ -0,0 +1,65 @@
+package reciter.pubmed.ratelimit;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import reciter.context.RequestContext;
+import reciter.metrics.PubMedMetrics;
+import reciter.tracing.TracingFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Applies the {@link ClientQuotas} to the requests that reach NCBI, answering those over quota with
+ * {@code 429 Too Many Requests}. Runs after the {@link TracingFilter}, which identifies the client.
+ */
+@Slf4j
+@Component
+@Order(TracingFilter.ORDER + 1)
+public class ClientQuotaFilter extends OncePerRequestFilter {
+
+    @Autowired
+    private ClientQuotas clientQuotas;
+
+    @Autowired
+    private PubMedMetrics pubMedMetrics;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !TracingFilter.isTraced(request);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String clientId = RequestContext.currentClientId();
+        if (!clientQuotas.tryCount(clientId)) {
+            reject(response, clientId, "rate", 60);
+            return;
+        }
+        if (!clientQuotas.tryStart(clientId)) {
+            reject(response, clientId, "concurrency", 1);
+            return;
+        }
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            clientQuotas.finish(clientId);
+        }
+    }
+
+    private void reject(HttpServletResponse response, String clientId, String reason, int retryAfterSeconds) throws IOException {
+        log.warn("Rejected a request of client {} over its {} quota", clientId, reason);
+        pubMedMetrics.recordClientRejection(reason);
+        RequestContext.event("quota.rejected", reason);
+        response.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+        response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), "Client " + clientId + " exceeded its " + reason + " quota");
+    }
+}
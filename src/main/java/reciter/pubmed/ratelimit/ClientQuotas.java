@@ -0,0 +1,100 @@
+package reciter.pubmed.ratelimit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits what one client may ask of this service: the number of its requests being served at a time and the
+ * number of its requests per minute. A limit of 0 turns it off.
+ */
+@Component
+public class ClientQuotas {
+
+    private final int maxConcurrent;
+    private final int requestsPerMinute;
+    private final ConcurrentMap<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+    private final Cache<String, MinuteWindow> windows = CacheBuilder.newBuilder()
+            .expireAfterAccess(2, TimeUnit.MINUTES)
+            .build();
+
+    @Autowired
+    public ClientQuotas(@Value("${pubmed.clients.max-concurrent:0}") int maxConcurrent,
+                        @Value("${pubmed.clients.requests-per-minute:0}") int requestsPerMinute) {
+        this.maxConcurrent = maxConcurrent;
+        this.requestsPerMinute = requestsPerMinute;
+    }
+
+    /**
+     * Counts a request against the per minute quota of {@code clientId}.
+     *
+     * @return {@code false} if the client has used up its quota for this minute
+     */
+    public boolean tryCount(String clientId) {
+        if (requestsPerMinute <= 0) {
+            return true;
+        }
+        try {
+            return windows.get(clientId, MinuteWindow::new).tryCount(System.currentTimeMillis() / 60_000, requestsPerMinute);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return {@code false} if {@code clientId} already has {@code pubmed.clients.max-concurrent} requests being
+     * served; otherwise the caller must call {@link #finish(String)} when done
+     */
+    public boolean tryStart(String clientId) {
+        if (maxConcurrent <= 0) {
+            return true;
+        }
+        AtomicInteger count = inFlight.computeIfAbsent(clientId, key -> new AtomicInteger());
+        if (count.incrementAndGet() > maxConcurrent) {
+            finish(clientId);
+            return false;
+        }
+        return true;
+    }
+
+    public void finish(String clientId) {
+        if (maxConcurrent <= 0) {
+            return;
+        }
+        inFlight.computeIfPresent(clientId, (key, count) -> count.decrementAndGet() <= 0 ? null : count);
+    }
+
+    /**
+     * @return the number of requests of {@code clientId} being served
+     */
+    public int getInFlight(String clientId) {
+        AtomicInteger count = inFlight.get(clientId);
+        return count == null ? 0 : count.get();
+    }
+
+    private static class MinuteWindow {
+
+        private long minute;
+        private int count;
+
+        synchronized boolean tryCount(long now, int limit) {
+            if (now != minute) {
+                minute = now;
+                count = 0;
+            }
+            if (count >= limit) {
+                return false;
+            }
+            count++;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package reciter.pubmed.ratelimit;
+
+import reciter.context.RequestContext.Lane;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decides which of the threads waiting for an NCBI permit goes next. The lanes take turns by weight and, within a
+ * lane, the clients take turns, so a client with many requests queued gets the same share of the budget as one
+ * with a single request. Only the thread whose turn it is waits on the rate limiter.
+ */
+final class FairQueue {
+
+    private final Map<Lane, Integer> weights = new EnumMap<>(Lane.class);
+    private final Map<Lane, LinkedHashMap<String, ArrayDeque<Object>>> waiting = new EnumMap<>(Lane.class);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition turnChanged = lock.newCondition();
+    private Object turn;
+    private Lane lane = Lane.INTERACTIVE;
+    private int credits;
+
+    FairQueue(int interactiveWeight, int bulkWeight) {
+        weights.put(Lane.INTERACTIVE, Math.max(interactiveWeight, 1));
+        weights.put(Lane.BULK, Math.max(bulkWeight, 1));
+        for (Lane each : Lane.values()) {
+            waiting.put(each, new LinkedHashMap<>());
+        }
+    }
+
+    /**
+     * Blocks until it is the caller's turn. The caller must call {@link #done()} when it has taken its permit.
+     */
+    void awaitTurn(Lane lane, String clientId) throws InterruptedException {
+        Object waiter = new Object();
+        lock.lock();
+        try {
+            waiting.get(lane).computeIfAbsent(clientId, key -> new ArrayDeque<>()).add(waiter);
+            if (turn == null) {
+                passTurn();
+            }
+            while (turn != waiter) {
+                try {
+                    turnChanged.await();
+                } catch (InterruptedException e) {
+                    if (turn == waiter) {
+                        passTurn();
+                    } else {
+                        remove(lane, clientId, waiter);
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void done() {
+        lock.lock();
+        try {
+            passTurn();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of callers waiting for their turn
+     */
+    int size() {
+        lock.lock();
+        try {
+            int size = 0;
+            for (Map<String, ArrayDeque<Object>> clients : waiting.values()) {
+                for (ArrayDeque<Object> waiters : clients.values()) {
+                    size += waiters.size();
+                }
+            }
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void passTurn() {
+        turn = next();
+        turnChanged.signalAll();
+    }
+
+    /**
+     * Weighted round-robin: the current lane keeps the turn for as many permits as its weight while the other lane
+     * has waiters too.
+     */
+    private Object next() {
+        boolean interactive = !waiting.get(Lane.INTERACTIVE).isEmpty();
+        boolean bulk = !waiting.get(Lane.BULK).isEmpty();
+        if (!interactive && !bulk) {
+            return null;
+        }
+        Lane chosen = interactive && bulk
+                ? (credits > 0 ? lane : other(lane))
+                : (interactive ? Lane.INTERACTIVE : Lane.BULK);
+        if (chosen != lane) {
+            lane = chosen;
+            credits = weights.get(chosen);
+        }
+        credits--;
+        Iterator<Map.Entry<String, ArrayDeque<Object>>> clients = waiting.get(chosen).entrySet().iterator();
+        Map.Entry<String, ArrayDeque<Object>> client = clients.next();
+        Object waiter = client.getValue().poll();
+        clients.remove();
+        if (!client.getValue().isEmpty()) {
+            // To the back of the line.
+            waiting.get(chosen).put(client.getKey(), client.getValue());
+        }
+        return waiter;
+    }
+
+    private void remove(Lane lane, String clientId, Object waiter) {
+        ArrayDeque<Object> waiters = waiting.get(lane).get(clientId);
+        if (waiters != null && waiters.remove(waiter) && waiters.isEmpty()) {
+            waiting.get(lane).remove(clientId);
+        }
+    }
+
+    private static Lane other(Lane lane) {
+        return lane == Lane.INTERACTIVE ? Lane.BULK : Lane.INTERACTIVE;
+    }
+}
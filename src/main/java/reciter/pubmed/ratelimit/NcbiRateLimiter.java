@@ -0,0 +1,189 @@
+package reciter.pubmed.ratelimit;
+
+import com.google.common.util.concurrent.RateLimiter;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reciter.context.RequestContext;
+import reciter.context.RequestContext.Lane;
+import reciter.metrics.PubMedMetrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Client side budget for requests to the E-utilities. NCBI allows 3 requests per second without an API key and
+ * 10 with one (https://www.ncbi.nlm.nih.gov/books/NBK25497/). Every request to NCBI takes a permit first, and a
+ * {@code Retry-After} seen on any response holds back all callers until it has passed. Waiting callers are served
+ * by a {@link FairQueue}: interactive and bulk requests share the permits by {@code pubmed.scheduler.*-weight}, and
+ * the clients of a lane take turns.
+ */
+@Slf4j
+@Component
+public class NcbiRateLimiter {
+
+    private static final double REQUESTS_PER_SECOND_WITHOUT_API_KEY = 3;
+    private static final double REQUESTS_PER_SECOND_WITH_API_KEY = 10;
+    private static final int MAX_TRACKED_PERMITS = 100;
+    private static final long ONE_SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final RateLimiter rateLimiter;
+    private final FairQueue fairQueue;
+    private final PubMedMetrics pubMedMetrics;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final long[] grants;
+    private int nextGrant;
+    private int grantCount;
+    private volatile long retryAfterUntil;
+    private volatile int lastRateLimit = -1;
+    private volatile int lastRateLimitRemaining = -1;
+
+    @Autowired
+    public NcbiRateLimiter(@Value("${pubmed.ratelimit.requests-per-second:0}") double requestsPerSecond,
+                           @Value("${pubmed.scheduler.interactive-weight:4}") int interactiveWeight,
+                           @Value("${pubmed.scheduler.bulk-weight:1}") int bulkWeight,
+                           PubMedMetrics pubMedMetrics) {
+        this.rateLimiter = RateLimiter.create(requestsPerSecond > 0 ? requestsPerSecond : defaultRequestsPerSecond());
+        this.grants = new long[(int) Math.max(1, Math.min(MAX_TRACKED_PERMITS, Math.ceil(rateLimiter.getRate())))];
+        this.fairQueue = new FairQueue(interactiveWeight, bulkWeight);
+        this.pubMedMetrics = pubMedMetrics;
+    }
+
+    /**
+     * A limiter that never makes callers wait. Used by callers constructed outside of the Spring context.
+     */
+    public static NcbiRateLimiter unlimited() {
+        return new NcbiRateLimiter(Double.MAX_VALUE, 1, 1, PubMedMetrics.noop());
+    }
+
+    private static double defaultRequestsPerSecond() {
+        String apiKey = System.getenv("PUBMED_API_KEY");
+        return apiKey != null && !apiKey.isEmpty() ? REQUESTS_PER_SECOND_WITH_API_KEY : REQUESTS_PER_SECOND_WITHOUT_API_KEY;
+    }
+
+    /**
+     * Blocks until a request to NCBI may be sent on behalf of the client and lane of the current request.
+     */
+    public void acquire() throws InterruptedException {
+        Lane lane = RequestContext.currentLane();
+        waiting.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            fairQueue.awaitTurn(lane, RequestContext.currentClientId());
+            try {
+                long pause = retryAfterUntil - System.currentTimeMillis();
+                if (pause > 0) {
+                    Thread.sleep(pause);
+                }
+                rateLimiter.acquire();
+                granted();
+            } finally {
+                fairQueue.done();
+            }
+        } finally {
+            waiting.decrementAndGet();
+            pubMedMetrics.rateLimitWait(lane.name().toLowerCase()).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * @return {@code true} if a permit was available right away.
+     */
+    public boolean tryAcquire() {
+        if (System.currentTimeMillis() >= retryAfterUntil && rateLimiter.tryAcquire()) {
+            granted();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return {@code true} if fewer permits than a second's worth were granted in the last second and NCBI has not
+     * asked to back off, so that an optional request would take a free permit instead of delaying anyone
+     */
+    public boolean hasSpareCapacity() {
+        if (System.currentTimeMillis() < retryAfterUntil) {
+            return false;
+        }
+        synchronized (grants) {
+            // The slot written next holds the oldest of the last grants.length permits.
+            return grantCount < grants.length || System.nanoTime() - grants[nextGrant] >= ONE_SECOND_NANOS;
+        }
+    }
+
+    private void granted() {
+        synchronized (grants) {
+            grants[nextGrant] = System.nanoTime();
+            nextGrant = (nextGrant + 1) % grants.length;
+            grantCount = Math.min(grantCount + 1, grants.length);
+        }
+    }
+
+    /**
+     * Remembers the {@code X-RateLimit-*} and {@code Retry-After} headers of an E-utilities response.
+     */
+    public void observe(HttpResponse response) {
+        Integer limit = intHeader(response, "X-RateLimit-Limit");
+        if (limit != null) {
+            lastRateLimit = limit;
+        }
+        Integer remaining = intHeader(response, "X-RateLimit-Remaining");
+        if (remaining != null) {
+            lastRateLimitRemaining = remaining;
+        }
+        Integer retryAfter = intHeader(response, "Retry-After");
+        if (retryAfter != null) {
+            retryAfter(retryAfter);
+        }
+    }
+
+    public void retryAfter(long seconds) {
+        long until = System.currentTimeMillis() + seconds * 1000L;
+        if (until > retryAfterUntil) {
+            retryAfterUntil = until;
+        }
+    }
+
+    private static Integer intHeader(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        if (header == null) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(header.getValue().trim());
+        } catch (NumberFormatException e) {
+            log.warn("Ignoring malformed header " + header);
+            return null;
+        }
+    }
+
+    public State getState() {
+        return new State(rateLimiter.getRate(), waiting.get(), lastRateLimit, lastRateLimitRemaining,
+                Math.max(0, retryAfterUntil - System.currentTimeMillis()));
+    }
+
+    @Getter
+    public static class State {
+        private final double permitsPerSecond;
+        private final int waiting;
+        private final int lastRateLimit;
+        private final int lastRateLimitRemaining;
+        private final long retryAfterMillis;
+
+        State(double permitsPerSecond, int waiting, int lastRateLimit, int lastRateLimitRemaining, long retryAfterMillis) {
+            this.permitsPerSecond = permitsPerSecond;
+            this.waiting = waiting;
+            this.lastRateLimit = lastRateLimit;
+            this.lastRateLimitRemaining = lastRateLimitRemaining;
+            this.retryAfterMillis = retryAfterMillis;
+        }
+
+        public boolean isBlocked() {
+            return retryAfterMillis > 0;
+        }
+    }
+}
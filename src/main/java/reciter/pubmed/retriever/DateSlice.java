@@ -0,0 +1,69 @@
+package reciter.pubmed.retriever;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A range of publication dates, both ends included, that restricts a query with a {@code [DP]} range in the
+ * format {@code PubMedQuery} uses.
+ */
+final class DateSlice {
+
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("yyyy/MM/dd");
+
+    private final LocalDate from;
+    private final LocalDate to;
+
+    DateSlice(LocalDate from, LocalDate to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * @return a range covering every publication date in PubMed, including issues dated a few years ahead. It ends
+     * close to today so that the first halves already separate recent years, where most articles are.
+     */
+    static DateSlice all() {
+        return new DateSlice(LocalDate.of(1000, 1, 1), LocalDate.of(LocalDate.now().getYear() + 2, 12, 31));
+    }
+
+    LocalDate getFrom() {
+        return from;
+    }
+
+    boolean isSingleDay() {
+        return from.equals(to);
+    }
+
+    /**
+     * @return the earlier and the later half of this range
+     */
+    List<DateSlice> halves() {
+        LocalDate middle = from.plusDays(ChronoUnit.DAYS.between(from, to) / 2);
+        return Arrays.asList(new DateSlice(from, middle), new DateSlice(middle.plusDays(1), to));
+    }
+
+    /**
+     * @param query URL encoded query
+     * @return the URL encoded query restricted to this range
+     */
+    String restrict(String query) {
+        try {
+            return URLEncoder.encode("(" + URLDecoder.decode(query, "UTF-8") + ") AND ("
+                    + DATE.format(from) + "[DP]:" + DATE.format(to) + "[DP])", "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return DATE.format(from) + "-" + DATE.format(to);
+    }
+}
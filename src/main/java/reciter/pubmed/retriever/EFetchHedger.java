@@ -0,0 +1,179 @@
+package reciter.pubmed.retriever;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reciter.context.RequestContext;
+import reciter.metrics.PubMedMetrics;
+import reciter.pubmed.ratelimit.NcbiRateLimiter;
+import reciter.tracing.Trace;
+
+import javax.annotation.PreDestroy;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hedges EFetch attempts against a slow response. An attempt still running after the
+ * {@code pubmed.efetch.hedge.percentile} of the recent attempt durations is sent a second time, if the NCBI rate
+ * limiter has a permit to spare, and whichever response is parsed first is used. The request of the other one is
+ * aborted.
+ * Off unless {@code pubmed.efetch.hedge.enabled=true}.
+ */
+@Slf4j
+@Component
+public class EFetchHedger {
+
+    private static final int SAMPLES = 200;
+    private static final int MIN_SAMPLES = 20;
+    private static final String ATTEMPT = "efetch-attempt";
+
+    private final boolean enabled;
+    private final double percentile;
+    private final long minDelayNanos;
+    private final NcbiRateLimiter ncbiRateLimiter;
+    private final PubMedMetrics pubMedMetrics;
+    private final long[] durations = new long[SAMPLES];
+    private int recorded;
+    private final ExecutorService attempts;
+
+    @Autowired
+    public EFetchHedger(@Value("${pubmed.efetch.hedge.enabled:false}") boolean enabled,
+                        @Value("${pubmed.efetch.hedge.percentile:95}") double percentile,
+                        @Value("${pubmed.efetch.hedge.min-delay-ms:500}") long minDelayMillis,
+                        NcbiRateLimiter ncbiRateLimiter,
+                        PubMedMetrics pubMedMetrics) {
+        this.enabled = enabled;
+        this.percentile = percentile;
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMillis);
+        this.ncbiRateLimiter = ncbiRateLimiter;
+        this.pubMedMetrics = pubMedMetrics;
+        AtomicInteger threads = new AtomicInteger();
+        this.attempts = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "efetch-hedge-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Runs {@code attempt}, hedged when enabled.
+     */
+    public <V> V call(Callable<V> attempt) throws Exception {
+        long start = System.nanoTime();
+        if (!enabled) {
+            V result = attempt.call();
+            record(System.nanoTime() - start);
+            return result;
+        }
+        RequestContext context = RequestContext.current();
+        CompletionService<V> completionService = new ExecutorCompletionService<>(attempts);
+        Attempt<V> primary = new Attempt<>(context, attempt, completionService);
+        Attempt<V> hedge = null;
+        try {
+            long delay = hedgeDelayNanos();
+            Future<V> first = delay < 0 ? completionService.take() : completionService.poll(delay, TimeUnit.NANOSECONDS);
+            if (first == null) {
+                if (ncbiRateLimiter.hasSpareCapacity()) {
+                    pubMedMetrics.recordHedge("fired");
+                    RequestContext.event("efetch.hedge", "after=" + TimeUnit.NANOSECONDS.toMillis(delay) + "ms");
+                    hedge = new Attempt<>(context, attempt, completionService);
+                } else {
+                    pubMedMetrics.recordHedge("skipped");
+                }
+                first = completionService.take();
+            }
+            V result;
+            try {
+                result = first.get();
+            } catch (ExecutionException e) {
+                if (hedge == null) {
+                    throw unwrap(e);
+                }
+                // The other request may still succeed.
+                first = completionService.take();
+                result = first.get();
+            }
+            if (hedge != null && first == hedge.future) {
+                pubMedMetrics.recordHedge("won");
+            }
+            record(System.nanoTime() - start);
+            return result;
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } finally {
+            primary.abort();
+            if (hedge != null) {
+                hedge.abort();
+            }
+        }
+    }
+
+    private static Exception unwrap(ExecutionException e) {
+        return e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    }
+
+    /**
+     * @return how long an attempt runs before it is hedged, or -1 until enough attempts have been seen
+     */
+    synchronized long hedgeDelayNanos() {
+        int size = Math.min(recorded, SAMPLES);
+        if (size < MIN_SAMPLES) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(durations, size);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * size) - 1;
+        return Math.max(minDelayNanos, sorted[Math.max(0, Math.min(index, size - 1))]);
+    }
+
+    private synchronized void record(long durationNanos) {
+        durations[recorded % SAMPLES] = durationNanos;
+        recorded++;
+    }
+
+    @PreDestroy
+    public void close() {
+        attempts.shutdownNow();
+    }
+
+    /**
+     * One attempt, run under a context of its own that is cancelled with the request being served. Cancelling the
+     * future only interrupts its thread, which does not stop a blocking read from NCBI; cancelling the context
+     * aborts the attempt's request as a passed deadline does.
+     */
+    private static class Attempt<V> {
+
+        private final RequestContext context;
+        private final RequestContext.Registration following;
+        private final Future<V> future;
+
+        Attempt(RequestContext parent, Callable<V> callable, CompletionService<V> completionService) {
+            RequestContext attemptContext = parent == null
+                    ? new RequestContext(ATTEMPT, new Trace(ATTEMPT, ATTEMPT)) : parent.attempt();
+            this.context = attemptContext;
+            this.following = parent == null ? RequestContext.Registration.NONE
+                    : parent.onCancel(() -> attemptContext.cancel("request cancelled"));
+            this.future = completionService.submit(RequestContext.wrap(attemptContext, callable));
+        }
+
+        /**
+         * Aborts the attempt unless it has completed.
+         */
+        void abort() {
+            following.close();
+            if (!future.isDone()) {
+                context.cancel("lost to the other efetch attempt");
+                future.cancel(true);
+            }
+        }
+    }
+}
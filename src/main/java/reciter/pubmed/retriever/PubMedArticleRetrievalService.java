@@ -2,260 +2,647 @@ package reciter.pubmed.retriever;
 
 import lombok.extern.slf4j.Slf4j;
 
-import org.apache.commons.io.IOUtils;
-import org.apache.http.Header;
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.NameValuePair;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.params.ClientPNames;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.message.BasicNameValuePair;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.annotation.Bean;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
 
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.rholder.retry.Attempt;
 import com.github.rholder.retry.RetryException;
+import com.github.rholder.retry.RetryListener;
 import com.github.rholder.retry.Retryer;
 import com.github.rholder.retry.Retryer.RetryerCallable;
 import com.github.rholder.retry.RetryerBuilder;
 import com.github.rholder.retry.StopStrategies;
 import com.github.rholder.retry.StopStrategy;
 import com.github.rholder.retry.WaitStrategies;
+import com.github.rholder.retry.WaitStrategy;
 import com.google.common.base.Predicates;
 
+import reciter.context.DeadlineExceededException;
+import reciter.context.RequestContext;
+import reciter.context.RequestContext.Lane;
+import reciter.metrics.PubMedMetrics;
+
 import reciter.model.pubmed.PubMedArticle;
+import reciter.pubmed.cache.PubMedArticleCache;
 import reciter.pubmed.callable.PubMedUriParserCallable;
+import reciter.pubmed.client.CircuitOpenException;
+import reciter.pubmed.client.ESearchClient;
+import reciter.pubmed.client.EutilsTransport;
 import reciter.pubmed.model.PubmedESearchResult;
 import reciter.pubmed.querybuilder.PubmedXmlQuery;
-import reciter.pubmed.xmlparser.PubmedEFetchHandler;
-import reciter.pubmed.xmlparser.PubmedESearchHandler;
+import reciter.pubmed.store.IdentifierIndex;
+import reciter.pubmed.store.IdentifierIndex.IdType;
+import reciter.pubmed.store.LocalArticleStore;
+import reciter.pubmed.store.LocalQueryEngine;
+import reciter.pubmed.xmlparser.ParallelPubMedArticleParser;
+import reciter.pubmed.xmlparser.PubMedArticleParser;
+import reciter.pubmed.xmlparser.VocabularyInterner;
+import reciter.tracing.Span;
+import reciter.tracing.Trace;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.StringWriter;
+import java.io.InterruptedIOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Slf4j
 @Service
 public class PubMedArticleRetrievalService {
 
-    private static final int RETRIEVAL_THRESHOLD = 2000;
-    
-    private static ObjectMapper objectMapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    /**
+     * Largest number of PMIDs missing from the local article store that are fetched by id. NCBI asks for POST
+     * requests above 200 ids, larger gaps are fetched through the history server like a query without a store.
+     */
+    private static final int MAX_EFETCH_IDS = 200;
+
+    /**
+     * Largest number of articles of one search that the history server serves, it answers no retstart beyond.
+     */
+    private static final int HISTORY_LIMIT = 10000;
+
+    /**
+     * Identifiers missing from the {@link IdentifierIndex} that are searched for with one ESearch request.
+     */
+    private static final int IDENTIFIERS_PER_ESEARCH = 100;
 
-    /*@Autowired
-    private SAXParser saxParser;
+    /**
+     * Client of background cache refreshes, which take turns at the rate limiter like any other client.
+     */
+    private static final String REFRESH_CLIENT_ID = "cache-refresh";
 
-    @Bean
-    public SAXParser saxParser() throws ParserConfigurationException, SAXException {
-        return SAXParserFactory.newInstance().newSAXParser();
-    }*/
+    private static final WaitStrategy FIBONACCI_WAIT = WaitStrategies.fibonacciWait(100L, 15L, TimeUnit.SECONDS);
+    private static final StopStrategy STOP_AFTER_ATTEMPTS = StopStrategies.stopAfterAttempt(15);
     
-    //To avoid thread errors - FWK005 parse may not be called while parsing.
-    //https://stackoverflow.com/questions/39658247/singleton-thread-safe-sax-parser-instance
-    private final ThreadLocal<SAXParserFactory> factoryThreadLocal = new ThreadLocal<SAXParserFactory>() {
-        public SAXParserFactory initialValue() {
-            try {
-                return SAXParserFactory.newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
+
+    @Autowired
+    private PubMedMetrics pubMedMetrics;
+
+    @Autowired
+    private EutilsTransport eutilsTransport;
+
+    @Autowired
+    private ESearchClient eSearchClient;
+
+    @Autowired
+    private PubMedArticleCache pubMedArticleCache;
+
+    @Autowired
+    private LocalArticleStore localArticleStore;
+
+    @Autowired
+    private LocalQueryEngine localQueryEngine;
+
+    @Autowired
+    private IdentifierIndex identifierIndex;
+
+    @Autowired
+    private EFetchHedger eFetchHedger;
+
+    /**
+     * Largest query result retrieved at all.
+     */
+    @Value("${pubmed.retrieval.max-articles:50000}")
+    private int maxArticles;
+
+    /**
+     * Largest query result retrieved with a single ESearch, larger ones are split into publication date ranges.
+     */
+    @Value("${pubmed.retrieval.slice-size:2000}")
+    private int sliceSize;
+
+    @Value("${pubmed.identifiers.esearch-fallback:true}")
+    private boolean identifierESearchFallback;
+
+    private final AtomicInteger inFlightRetrievals = new AtomicInteger();
+
+    /**
+     * Shared by all requests so that the number of threads talking to NCBI stays bounded and the queue depth
+     * can be observed. Requests of the bulk lane have a pool of their own, so that their windows never queue
+     * before interactive ones.
+     */
+    private final ExecutorService executor = Executors.newWorkStealingPool();
+
+    private ExecutorService bulkExecutor;
+
+    @Value("${pubmed.scheduler.bulk-threads:0}")
+    private int bulkThreads;
+
+    @PostConstruct
+    public void createExecutors() {
+        bulkExecutor = Executors.newWorkStealingPool(bulkThreads > 0 ? bulkThreads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        pubMedMetrics.monitorExecutor("retrieval", (ForkJoinPool) executor);
+        pubMedMetrics.monitorExecutor("retrieval-bulk", (ForkJoinPool) bulkExecutor);
+    }
+
+    private ExecutorService executor() {
+        return RequestContext.currentLane() == Lane.BULK ? bulkExecutor : executor;
+    }
+
+    /**
+     * @return number of {@link #retrieve(String)} calls currently being served.
+     */
+    public int getInFlightRetrievals() {
+        return inFlightRetrievals.get();
+    }
+
+    /**
+     * @return number of EFetch windows waiting for a thread of the retrieval executor.
+     */
+    public long getQueuedTasks() {
+        long queued = 0;
+        for (ExecutorService each : new ExecutorService[] {executor, bulkExecutor}) {
+            ForkJoinPool pool = (ForkJoinPool) each;
+            queued += pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount();
+        }
+        return queued;
+    }
+
+    @Value("${pubmed.parser.engine:sax}")
+    private String parserEngine;
+
+    /**
+     * Threads parsing chunks of one EFetch response concurrently, 0 parses every response on the thread reading it.
+     */
+    @Value("${pubmed.parser.parallelism:0}")
+    private int parserParallelism;
+
+    @Value("${pubmed.parser.chunk-articles:500}")
+    private int parserChunkArticles;
+
+    @Value("${pubmed.parser.pool-size:16}")
+    private int parserPoolSize;
+
+    @Autowired
+    private VocabularyInterner vocabularyInterner;
+
+    private PubMedArticleParser pubMedArticleParser;
+
+    /**
+     * Parses chunks of one EFetch response with {@code pubmed.parser.parallelism}, otherwise {@code null}.
+     */
+    private ForkJoinPool parserPool;
+
+    @PostConstruct
+    public void createParser() {
+        pubMedArticleParser = PubMedArticleParser.of(parserEngine, parserPoolSize, vocabularyInterner);
+        if (parserParallelism > 0) {
+            parserPool = new ForkJoinPool(parserParallelism);
+            pubMedMetrics.monitorExecutor("parser", parserPool);
+            pubMedArticleParser = new ParallelPubMedArticleParser(pubMedArticleParser, parserPool, parserChunkArticles);
+        }
+        log.info("Parsing EFetch responses with the {} engine on {} threads", parserEngine, Math.max(parserParallelism, 1));
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+        if (bulkExecutor != null) {
+            bulkExecutor.shutdownNow();
+        }
+        if (parserPool != null) {
+            parserPool.shutdownNow();
         }
-   };
-   
-   public SAXParser getSaxParser() throws ParserConfigurationException, SAXException {
-	   return factoryThreadLocal.get().newSAXParser();
-   }
+    }
 
     /**
      * Initializes and starts threads that handles the retrieval process. Partition the number of articles
-     * into manageable pieces and ask each thread to handle one partition.
+     * into manageable pieces and ask each thread to handle one partition. A cached result within
+     * {@code pubmed.cache.max-stale-minutes} of expiring is returned at once, marked as stale, and retrieved again
+     * in the background. While the circuit to NCBI is open, an older cached result is returned instead as well.
      */
     public List<PubMedArticle> retrieve(String pubMedQuery) throws IOException {
-    	
+    	PubMedArticleCache.Hit hit = pubMedArticleCache.lookup(pubMedQuery);
+    	if (hit != null && hit.isFresh()) {
+			RequestContext.event("cache.hit", null);
+			return hit.getPubMedArticles();
+    	}
+    	if (hit != null && hit.isRevalidatable()) {
+			boolean started = pubMedArticleCache.refreshAsync(pubMedQuery, backgroundRetrieval(pubMedQuery));
+			RequestContext.event("cache.stale", "age=" + hit.getAgeMillis() + "ms refresh=" + (started ? "started" : "running"));
+			RequestContext.markStale(hit.getAgeMillis());
+			pubMedMetrics.recordStaleResponse("revalidating");
+			return hit.getPubMedArticles();
+    	}
+    	inFlightRetrievals.incrementAndGet();
+    	try {
+			List<PubMedArticle> pubMedArticles = retrieveFromPubMed(pubMedQuery);
+			pubMedArticleCache.put(pubMedQuery, pubMedArticles);
+			identifierIndex.indexAll(pubMedArticles);
+			return pubMedArticles;
+    	} catch (IOException | RuntimeException e) {
+			RequestContext.checkDeadline();
+			CircuitOpenException circuitOpen = CircuitOpenException.causeOf(e);
+			if (circuitOpen == null) {
+				throw e;
+			}
+			return retrieveStale(pubMedQuery, circuitOpen);
+    	} finally {
+			inFlightRetrievals.decrementAndGet();
+    	}
+    }
+
+    /**
+     * Retrieves {@code pubMedQuery} for the cache outside of any client request, in the bulk lane.
+     */
+    private Callable<List<PubMedArticle>> backgroundRetrieval(String pubMedQuery) {
+        String requestId = "refresh-" + UUID.randomUUID();
+        RequestContext context = new RequestContext(requestId, new Trace(requestId, "refresh " + pubMedQuery),
+                REFRESH_CLIENT_ID, Lane.BULK);
+        return RequestContext.wrap(context, () -> {
+            List<PubMedArticle> pubMedArticles = retrieveFromPubMed(pubMedQuery);
+            identifierIndex.indexAll(pubMedArticles);
+            log.info("Refreshed the cached result of pubMedQuery=[{}] with {} articles.", pubMedQuery, pubMedArticles.size());
+            return pubMedArticles;
+        });
+    }
+
+    private List<PubMedArticle> retrieveStale(String pubMedQuery, CircuitOpenException circuitOpen) throws CircuitOpenException {
+        PubMedArticleCache.Hit hit = pubMedArticleCache.lookup(pubMedQuery);
+        if (hit == null) {
+            throw circuitOpen;
+        }
+        log.warn("Serving {} articles retrieved {} s ago for pubMedQuery=[{}], the NCBI circuit is open.",
+                hit.getPubMedArticles().size(), hit.getAgeMillis() / 1000, pubMedQuery);
+        RequestContext.event("cache.stale", "age=" + hit.getAgeMillis() + "ms");
+        RequestContext.markStale(hit.getAgeMillis());
+        pubMedMetrics.recordStaleResponse("circuit-open");
+        return hit.getPubMedArticles();
+    }
+
+    private List<PubMedArticle> retrieveFromPubMed(String pubMedQuery) throws IOException {
+        List<PubMedArticle> localArticles = localQueryEngine.search(URLDecoder.decode(pubMedQuery, "UTF-8"));
+        if (localArticles != null) {
+            RequestContext.event("store.query", "articles=" + localArticles.size());
+            if (localArticles.size() > maxArticles) {
+                throw new IOException("Number of PubMed Articles retrieved " + localArticles.size() + " exceeded the threshold level " + maxArticles);
+            }
+            return localArticles;
+        }
     	PubmedESearchResult eSearchResult = new PubmedESearchResult();
     	eSearchResult = getNumberOfPubMedArticles(pubMedQuery);
 
         int numberOfPubmedArticles = eSearchResult.getCount();//getNumberOfPubMedArticles(pubMedQuery);
-        List<PubMedArticle> pubMedArticles = new ArrayList<>();
-
-        if (numberOfPubmedArticles <= RETRIEVAL_THRESHOLD) {
-            ExecutorService executor = Executors.newWorkStealingPool();
-        	//ScheduledExecutorService executor = (ScheduledExecutorService) Executors.newScheduledThreadPool(10);
-        	
-
-            // Get the count (number of publications for this query).
-            PubmedXmlQuery pubmedXmlQuery = new PubmedXmlQuery();
-            pubmedXmlQuery.setTerm(pubMedQuery);
-
-            log.info("retMax=[{}], pubMedQuery=[{}], numberOfPubmedArticles=[{}].",
-                    pubmedXmlQuery.getRetMax(), pubMedQuery, numberOfPubmedArticles);
-
-            // Retrieve the publications retMax records at one time and store to disk.
-            int currentRetStart = 0;
-            Retryer<List<PubMedArticle>> retryer = RetryerBuilder.<List<PubMedArticle>>newBuilder()
-                    .retryIfResult(Predicates.<List<PubMedArticle>>isNull())
-                    .retryIfExceptionOfType(IOException.class)
-                    .retryIfRuntimeException()
-                    .withWaitStrategy(WaitStrategies.fibonacciWait(100L, 15L, TimeUnit.SECONDS))
-                    .withStopStrategy(StopStrategies.stopAfterAttempt(15))
-                    .build();
-
-            List<RetryerCallable<List<PubMedArticle>>> callables = new ArrayList<RetryerCallable<List<PubMedArticle>>>();
-            
-            
-
-            // Use the retstart value to iteratively fetch all XMLs.
-            while (numberOfPubmedArticles > 0) {
-                // Get webenv value.
-                pubmedXmlQuery.setRetStart(currentRetStart);
-                //String eSearchUrl = pubmedXmlQuery.buildESearchQuery();
-
-                //pubmedXmlQuery.setWebEnv(PubmedESearchHandler.executeESearchQuery(pubmedXmlQuery.getTerm()).getWebenv());
-                if(eSearchResult.getWebenv() != null) {
-                	pubmedXmlQuery.setWebEnv(eSearchResult.getWebenv());
+        if (numberOfPubmedArticles > maxArticles) {
+            throw new IOException("Number of PubMed Articles retrieved " + numberOfPubmedArticles + " exceeded the threshold level " + maxArticles);
+        }
+        if (numberOfPubmedArticles > sliceSize) {
+            return retrieveInDateSlices(pubMedQuery, numberOfPubmedArticles);
+        }
+        return fetchAll(eFetchWindows(pubMedQuery, eSearchResult));
+    }
+
+    /**
+     * Splits a query with more than {@code pubmed.retrieval.slice-size} results into publication date ranges of at
+     * most that many results, halving ranges that are still too large, and retrieves the ranges concurrently. Every
+     * level of halving is counted in one {@link ESearchClient#countAll(List, String)} call, so all requests stay
+     * within the rate limit. An article can match two ranges through its print and electronic publication dates,
+     * so the results are merged by PMID. The rest of the request runs in the bulk lane. A single day cannot be split
+     * any further, it fails the request if it has more results than the history server serves.
+     */
+    private List<PubMedArticle> retrieveInDateSlices(String pubMedQuery, int numberOfPubmedArticles) throws IOException {
+        RequestContext context = RequestContext.current();
+        if (context != null) {
+            context.demote();
+        }
+        DateSlice all = DateSlice.all();
+        List<DateSlice> slices = new ArrayList<>();
+        List<Integer> sliceCounts = new ArrayList<>();
+        try (Span span = RequestContext.span("date.slices", "articles=" + numberOfPubmedArticles)) {
+            List<DateSlice> pending = all.halves();
+            while (!pending.isEmpty()) {
+                List<String> terms = new ArrayList<>(pending.size());
+                for (DateSlice slice : pending) {
+                    terms.add(slice.restrict(pubMedQuery));
+                }
+                List<Integer> counts = eSearchClient.countAll(terms, "slice");
+                List<DateSlice> larger = new ArrayList<>();
+                for (int i = 0; i < pending.size(); i++) {
+                    int count = counts.get(i);
+                    if (count > sliceSize && !pending.get(i).isSingleDay()) {
+                        larger.addAll(pending.get(i).halves());
+                    } else if (count > HISTORY_LIMIT) {
+                        throw new IOException(count + " articles of pubMedQuery=[" + pubMedQuery + "] have the publication date "
+                                + pending.get(i) + ", more than the " + HISTORY_LIMIT + " that can be retrieved for a single day");
+                    } else if (count > 0) {
+                        slices.add(pending.get(i));
+                        sliceCounts.add(count);
+                    }
                 }
+                pending = larger;
+            }
+        }
+        int slicedArticles = sliceCounts.stream().mapToInt(Integer::intValue).sum();
+        log.info("Split pubMedQuery=[{}] with {} articles into {} date slices with {} articles.",
+                pubMedQuery, numberOfPubmedArticles, slices.size(), slicedArticles);
+        if (slicedArticles < numberOfPubmedArticles) {
+            log.warn("{} articles of pubMedQuery=[{}] have no publication date within {}.",
+                    numberOfPubmedArticles - slicedArticles, pubMedQuery, all);
+        }
+        // Newest first, as ESearch orders a result.
+        slices.sort(Comparator.comparing(DateSlice::getFrom).reversed());
+
+        // The ESearch requests of the slices, then all their EFetch windows, run on the bulk executor.
+        List<Callable<List<Callable<List<PubMedArticle>>>>> searches = new ArrayList<>();
+        for (DateSlice slice : slices) {
+            searches.add(RequestContext.wrap(() -> {
+                String term = slice.restrict(pubMedQuery);
+                return eFetchWindows(term, getNumberOfPubMedArticles(term));
+            }));
+        }
+        Map<Long, PubMedArticle> pubMedArticles = new LinkedHashMap<>();
+        putAbsent(pubMedArticles, fetchAll(fetchAll(searches)));
+        return new ArrayList<>(pubMedArticles.values());
+    }
+
+    private static void putAbsent(Map<Long, PubMedArticle> pubMedArticles, List<PubMedArticle> articles) {
+        for (PubMedArticle pubMedArticle : articles) {
+            pubMedArticles.putIfAbsent(pubMedArticle.getMedlinecitation().getMedlinecitationpmid().getPmid(), pubMedArticle);
+        }
+    }
+
+    /**
+     * @return the requests that retrieve the articles of the ESearch result in its order, those in the local article
+     * store from there and the rest with EFetch
+     */
+    private List<Callable<List<PubMedArticle>>> eFetchWindows(String pubMedQuery, PubmedESearchResult eSearchResult) {
+        int numberOfPubmedArticles = eSearchResult.getCount();
+
+        // Get the count (number of publications for this query).
+        PubmedXmlQuery pubmedXmlQuery = new PubmedXmlQuery();
+        pubmedXmlQuery.setEutilsBaseUrl(eutilsTransport.getBaseUrl());
+        pubmedXmlQuery.setTerm(pubMedQuery);
 
-                // Use the webenv value to retrieve xml.
-                String eFetchUrl = pubmedXmlQuery.buildEFetchQuery();
+        log.info("retMax=[{}], pubMedQuery=[{}], numberOfPubmedArticles=[{}].",
+                pubmedXmlQuery.getRetMax(), pubMedQuery, numberOfPubmedArticles);
+
+        // Retrieve the publications retMax records at one time and store to disk.
+        int currentRetStart = 0;
+        Retryer<List<PubMedArticle>> retryer = eFetchRetryer();
+
+        List<Callable<List<PubMedArticle>>> callables = new ArrayList<Callable<List<PubMedArticle>>>();
+
+        List<PubMedArticle> stored = new ArrayList<>();
+        List<String> missingPmids = takeFromLocalStore(eSearchResult, stored);
+        if (missingPmids != null) {
+            // Only the articles published or first seen after the last import go to EFetch.
+            Callable<List<PubMedArticle>> eFetch = null;
+            if (!missingPmids.isEmpty()) {
+                String eFetchUrl = pubmedXmlQuery.buildEFetchQuery(missingPmids);
                 log.info("eFetchUrl=[{}].", eFetchUrl);
-                
-                
+                eFetch = eFetchWindow(retryer, eFetchUrl, "pmids=" + missingPmids.size());
+            }
+            callables.add(inSearchOrder(eSearchResult.getIdList(), stored, eFetch));
+            numberOfPubmedArticles = 0;
+        }
 
-                try {
-                	PubMedUriParserCallable callable = new PubMedUriParserCallable(new PubmedEFetchHandler(), getSaxParser(), new InputSource(eFetchUrl));
-                	RetryerCallable<List<PubMedArticle>> retryerCallable = retryer.wrap(callable);
-                	callables.add(retryerCallable);
-				} catch (ParserConfigurationException | SAXException e) {
-					log.error("Exception", e);
-				}
-
-                // Update the retstart value.
-                currentRetStart += pubmedXmlQuery.getRetMax();
-                pubmedXmlQuery.setRetStart(currentRetStart);
-                numberOfPubmedArticles -= pubmedXmlQuery.getRetMax();
+        // Use the retstart value to iteratively fetch all XMLs.
+        while (numberOfPubmedArticles > 0) {
+            // Get webenv value.
+            pubmedXmlQuery.setRetStart(currentRetStart);
+            if(eSearchResult.getWebenv() != null) {
+            	pubmedXmlQuery.setWebEnv(eSearchResult.getWebenv());
             }
-            
-			
-			/*
-			 * for(Callable<List<PubMedArticle>> callable: callables) {
-			 * executor.schedule(callable, 5, TimeUnit.SECONDS); }
-			 */
-			 
-
-            try {
-                executor.invokeAll(callables)
-                        .stream()
-                        .map(future -> {
-                            try {
-                                return future.get();
-                            } catch (Exception e) {
-                                log.error("Unable to retrieve result using future get.");
-                                throw new IllegalStateException(e);
-                            }
-                        }).forEach(pubMedArticles::addAll);
-            } catch (InterruptedException e) {
-                log.error("Unable to invoke callable.", e);
+
+            // Use the webenv value to retrieve xml.
+            String eFetchUrl = pubmedXmlQuery.buildEFetchQuery();
+            log.info("eFetchUrl=[{}].", eFetchUrl);
+
+            callables.add(eFetchWindow(retryer, eFetchUrl, "retstart=" + currentRetStart));
+
+            // Update the retstart value.
+            currentRetStart += pubmedXmlQuery.getRetMax();
+            pubmedXmlQuery.setRetStart(currentRetStart);
+            numberOfPubmedArticles -= pubmedXmlQuery.getRetMax();
+        }
+        return callables;
+    }
+
+    /**
+     * Merges the articles taken from the local article store with those {@code eFetch} retrieves, if any, in the order
+     * of {@code idList}, which is newest first like every ESearch result.
+     */
+    private static Callable<List<PubMedArticle>> inSearchOrder(List<String> idList, List<PubMedArticle> stored,
+                                                               Callable<List<PubMedArticle>> eFetch) {
+        return () -> {
+            Map<Long, PubMedArticle> byPmid = new LinkedHashMap<>();
+            putAbsent(byPmid, stored);
+            if (eFetch != null) {
+                putAbsent(byPmid, eFetch.call());
             }
-        } else {
-            throw new IOException("Number of PubMed Articles retrieved " + numberOfPubmedArticles + " exceeded the threshold level " + RETRIEVAL_THRESHOLD);
+            List<PubMedArticle> pubMedArticles = new ArrayList<>(byPmid.size());
+            for (String pmid : idList) {
+                PubMedArticle pubMedArticle = byPmid.remove(Long.parseLong(pmid));
+                if (pubMedArticle != null) {
+                    pubMedArticles.add(pubMedArticle);
+                }
+            }
+            // Articles EFetch returned under a PMID that ESearch did not list come last.
+            pubMedArticles.addAll(byPmid.values());
+            return pubMedArticles;
+        };
+    }
+
+    /**
+     * Runs {@code callables} on the executor of the current request's lane. When the request runs past its deadline,
+     * the callables that have not finished are cancelled.
+     *
+     * @return the concatenated results
+     */
+    private <T> List<T> fetchAll(List<Callable<List<T>>> callables) throws IOException {
+        ExecutorService executor = executor();
+        List<Future<List<T>>> futures = new ArrayList<>(callables.size());
+        for (Callable<List<T>> callable : callables) {
+            futures.add(executor.submit(callable));
+        }
+        RequestContext context = RequestContext.current();
+        List<T> results = new ArrayList<>();
+        try {
+            for (Future<List<T>> future : futures) {
+                results.addAll(context == null ? future.get() : future.get(context.remainingMillis(), TimeUnit.MILLISECONDS));
+            }
+        } catch (TimeoutException e) {
+            throw new DeadlineExceededException(context.getRequestId());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for EFetch windows");
+        } catch (ExecutionException e) {
+            log.error("Unable to retrieve result using future get.");
+            throw new IllegalStateException(e);
+        } finally {
+            // Windows still queued never start, running ones stop at their next request to NCBI.
+            futures.forEach(future -> future.cancel(true));
         }
-        return pubMedArticles;
+        return results;
     }
 
-    protected PubmedESearchResult getNumberOfPubMedArticles(String query) throws IOException {
-        PubmedXmlQuery pubmedXmlQuery = new PubmedXmlQuery(query);
-        //pubmedXmlQuery.setRetMax(1);
-        String fullUrl = pubmedXmlQuery.buildESearchQuery(); // build eSearch query.
-        log.info("ESearch Query=[{}]", fullUrl);
-        
-        if(pubmedXmlQuery.getApiKey() != null &&
-         		  !pubmedXmlQuery.getApiKey().isEmpty()) {
-          	fullUrl = PubmedXmlQuery.ESEARCH_BASE_URL + "?api_key=" + pubmedXmlQuery.getApiKey();
-	      } else {
-	      	fullUrl = PubmedXmlQuery.ESEARCH_BASE_URL;
-	      }
-
-        //PubmedESearchHandler pubmedESearchHandler = new PubmedESearchHandler();
-        PubmedESearchResult eSearchResult = new PubmedESearchResult();
-        //InputStream esearchStream = new URL(fullUrl).openStream();
-
-        HttpClient httpClient = HttpClients.createDefault();
-        HttpPost httppost = new HttpPost(fullUrl);
-        // Request parameters and other properties.
-        List<NameValuePair> params = new ArrayList<>();
-        params.add(new BasicNameValuePair("db", pubmedXmlQuery.getDb()));
-        params.add(new BasicNameValuePair("retmax", String.valueOf(pubmedXmlQuery.getRetMax())));
-        params.add(new BasicNameValuePair("usehistory", pubmedXmlQuery.getUseHistory()));
-        params.add(new BasicNameValuePair("term", java.net.URLDecoder.decode(pubmedXmlQuery.getTerm(), "UTF-8")));
-        params.add(new BasicNameValuePair("retmode", pubmedXmlQuery.getRetMode()));
-        params.add(new BasicNameValuePair("retstart", String.valueOf(pubmedXmlQuery.getRetStart())));
-        httppost.setEntity(new UrlEncodedFormEntity(params));
-        httppost.setHeader("Content-Type", "application/x-www-form-urlencoded");
-        httppost.getParams().setParameter(ClientPNames.COOKIE_POLICY, "standard");
-        httppost.setHeader("cache-control", "no-cache");
-        
-        //Execute and get the response.
-        HttpResponse response = httpClient.execute(httppost);
-        
-        Header[] headerRateLimitRemaining = response.getHeaders("X-RateLimit-Remaining");
-        Header[] headerRateLimit = response.getHeaders("X-RateLimit-Limit");
-        Header[] headerRetryAfter = response.getHeaders("Retry-After");
-        
-        log.info("Query : " + query  + " " + headerRateLimit[0].toString() + " " + headerRateLimitRemaining[0].toString());
-        
-        if(headerRateLimitRemaining != null && headerRateLimitRemaining.length > 0 && headerRateLimitRemaining[0] != null && Integer.parseInt(headerRateLimitRemaining[0].getValue()) == 0) {
-        	if(headerRetryAfter != null && headerRetryAfter.length > 0 && headerRetryAfter[0] != null) {
-        		log.info("Query : " + query  + " " + headerRetryAfter[0].toString());
-        		try {
-        			Thread.sleep(Long.parseLong(headerRetryAfter[0].getValue()) * 1000L);
-        		} catch (InterruptedException e) {
-        			log.error("InterruptedException", e);
-        		}
-        		response = httpClient.execute(httppost);
-        	}
+    /**
+     * Resolves DOIs or PMCIDs to PMIDs through the {@link IdentifierIndex}. Unless
+     * {@code pubmed.identifiers.esearch-fallback} is off, identifiers it does not know are searched for with ESearch
+     * in groups of {@value #IDENTIFIERS_PER_ESEARCH}, and the articles found are fetched and indexed. While the
+     * circuit to NCBI is open, only the index answers and the request is marked as stale.
+     *
+     * @return the PMID of every identifier in the order given, {@code null} for those not found
+     */
+    public Map<String, Long> lookUpIdentifiers(IdType idType, List<String> ids) throws IOException {
+        Map<String, Long> pmids = new LinkedHashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String id : ids) {
+            Long pmid = identifierIndex.find(idType, id);
+            pmids.put(id, pmid);
+            if (pmid == null && IdentifierIndex.normalize(idType, id) != null) {
+                missing.add(id);
+            }
         }
-        
-		/*
-		 * Header[] headers = response.getAllHeaders(); for (Header header : headers) {
-		 * if(header.getName().equalsIgnoreCase("X-RateLimit-Limit") ||
-		 * header.getName().equalsIgnoreCase("X-RateLimit-Remaining") ||
-		 * header.getName().equalsIgnoreCase("Retry-After")) { log.info("Key : " +
-		 * header.getName() + " ,Value : " + header.getValue()); } }
-		 */
-
-        HttpEntity entity = response.getEntity();
-
-        if (entity != null) {
-            InputStream esearchStream = entity.getContent();
-			/*
-			 * StringWriter writer = new StringWriter(); IOUtils.copy(esearchStream, writer,
-			 * "UTF-8"); log.info(writer.toString());
-			 */
-            //SAXParserFactory.newInstance().newSAXParser().parse(esearchStream, pubmedESearchHandler);
-			JsonNode json = objectMapper.readTree(esearchStream).get("esearchresult");
-			if(json != null) {
-				eSearchResult = objectMapper.treeToValue(json, PubmedESearchResult.class);
-			}
+        pubMedMetrics.recordIdentifierLookup(idType.name().toLowerCase(), ids.size() - missing.size(), missing.size());
+        if (!identifierESearchFallback || missing.isEmpty()) {
+            return pmids;
+        }
+        List<Callable<Void>> searches = new ArrayList<>();
+        for (int from = 0; from < missing.size(); from += IDENTIFIERS_PER_ESEARCH) {
+            List<String> group = missing.subList(from, Math.min(from + IDENTIFIERS_PER_ESEARCH, missing.size()));
+            searches.add(RequestContext.wrap(() -> {
+                fetchByIdentifiers(idType, group);
+                return null;
+            }));
+        }
+        RequestContext context = RequestContext.current();
+        try {
+            // Past the deadline, invokeAll cancels the searches that are still running.
+            List<Future<Void>> futures = context == null || !context.hasDeadline() ? executor().invokeAll(searches)
+                    : executor().invokeAll(searches, context.remainingMillis(), TimeUnit.MILLISECONDS);
+            for (Future<Void> search : futures) {
+                if (search.isCancelled()) {
+                    throw new DeadlineExceededException(context.getRequestId());
+                }
+                search.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while looking up identifiers");
+        } catch (ExecutionException e) {
+            if (CircuitOpenException.causeOf(e) == null) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+            // Identifiers found before the circuit opened are in the index, the others are left unresolved.
+            RequestContext.markStale(0);
+            pubMedMetrics.recordStaleResponse("circuit-open");
+        }
+        for (String id : missing) {
+            pmids.put(id, identifierIndex.find(idType, id));
+        }
+        return pmids;
+    }
+
+    private void fetchByIdentifiers(IdType idType, List<String> ids) throws Exception {
+        String tag = idType == IdType.DOI ? "[doi]" : "[pmcid]";
+        StringBuilder term = new StringBuilder();
+        for (String id : ids) {
+            term.append(term.length() == 0 ? "" : " OR ").append('"').append(IdentifierIndex.normalize(idType, id)).append('"').append(tag);
+        }
+        PubmedXmlQuery pubmedXmlQuery = new PubmedXmlQuery(URLEncoder.encode(term.toString(), "UTF-8"));
+        pubmedXmlQuery.setEutilsBaseUrl(eutilsTransport.getBaseUrl());
+        pubmedXmlQuery.setUseHistory("n");
+        List<String> idList = eSearchClient.search(pubmedXmlQuery, "identifiers").getIdList();
+        if (idList == null) {
+            return;
+        }
+        Retryer<List<PubMedArticle>> retryer = eFetchRetryer();
+        for (int from = 0; from < idList.size(); from += MAX_EFETCH_IDS) {
+            List<String> pmids = idList.subList(from, Math.min(from + MAX_EFETCH_IDS, idList.size()));
+            identifierIndex.indexAll(eFetchWindow(retryer, pubmedXmlQuery.buildEFetchQuery(pmids), "pmids=" + pmids.size()).call());
         }
-        return eSearchResult;
+    }
+
+    private Retryer<List<PubMedArticle>> eFetchRetryer() {
+        return RetryerBuilder.<List<PubMedArticle>>newBuilder()
+                .retryIfResult(Predicates.<List<PubMedArticle>>isNull())
+                // An open circuit fails every attempt at once, waiting for it is left to the caller.
+                .retryIfException(e -> (e instanceof IOException || e instanceof RuntimeException)
+                        && !(e instanceof CircuitOpenException))
+                // Neither wait nor retry past the deadline of the request.
+                .withWaitStrategy(attempt -> Math.min(FIBONACCI_WAIT.computeSleepTime(attempt), RequestContext.currentRemainingMillis()))
+                .withStopStrategy(attempt -> STOP_AFTER_ATTEMPTS.shouldStop(attempt) || RequestContext.isCurrentCancelled())
+                .withRetryListener(pubMedMetrics.retryListener())
+                .withRetryListener(new RetryListener() {
+                    @Override
+                    public <V> void onRetry(Attempt<V> attempt) {
+                        if (attempt.hasException()) {
+                            RequestContext.event("efetch.attempt.failed", "attempt=" + attempt.getAttemptNumber()
+                                    + " cause=" + attempt.getExceptionCause().getClass().getSimpleName());
+                        }
+                    }
+                })
+                .build();
+    }
+
+    private Callable<List<PubMedArticle>> eFetchWindow(Retryer<List<PubMedArticle>> retryer, String eFetchUrl, String window) {
+        // The parser engines use a new handler for every document, a failed attempt leaves nothing behind.
+        RetryerCallable<List<PubMedArticle>> retryerCallable = retryer.wrap(() -> eFetchHedger.call(() -> new PubMedUriParserCallable(
+                pubMedArticleParser, new InputSource(eFetchUrl), pubMedMetrics, eutilsTransport).call()));
+        return RequestContext.wrap(() -> {
+            try (Span span = RequestContext.span("efetch.window", window)) {
+                try {
+                    return retryerCallable.call();
+                } catch (ExecutionException | RetryException e) {
+                    span.fail(e);
+                    throw e;
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds the articles of the ESearch result that are in the local article store to {@code pubMedArticles}.
+     *
+     * @return the PMIDs that still have to be fetched, or {@code null} if the whole result has to be fetched because
+     * the store is disabled, ESearch did not list every PMID or too many of them are missing from the store
+     */
+    private List<String> takeFromLocalStore(PubmedESearchResult eSearchResult, List<PubMedArticle> pubMedArticles) {
+        List<String> idList = eSearchResult.getIdList();
+        if (!localArticleStore.isEnabled() || idList == null || idList.size() != eSearchResult.getCount()) {
+            return null;
+        }
+        List<PubMedArticle> stored = new ArrayList<>();
+        List<String> missingPmids = new ArrayList<>();
+        try (Span span = RequestContext.span("store.lookup", "pmids=" + idList.size())) {
+            for (String pmid : idList) {
+                PubMedArticle pubMedArticle = localArticleStore.get(Long.parseLong(pmid));
+                if (pubMedArticle != null) {
+                    stored.add(pubMedArticle);
+                } else {
+                    missingPmids.add(pmid);
+                }
+            }
+        }
+        pubMedMetrics.recordStoreLookup(stored.size(), missingPmids.size());
+        log.info("Found {} of {} PMIDs in the local article store.", stored.size(), idList.size());
+        if (missingPmids.size() > MAX_EFETCH_IDS) {
+            return null;
+        }
+        pubMedArticles.addAll(stored);
+        return missingPmids;
+    }
+
+    protected PubmedESearchResult getNumberOfPubMedArticles(String query) throws IOException {
+        return eSearchClient.search(new PubmedXmlQuery(query), "retrieve");
     }
 }
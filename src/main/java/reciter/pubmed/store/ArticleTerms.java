@@ -0,0 +1,241 @@
+package reciter.pubmed.store;
+
+import reciter.model.pubmed.MedlineCitation;
+import reciter.model.pubmed.MedlineCitationArticle;
+import reciter.model.pubmed.MedlineCitationArticleAuthor;
+import reciter.model.pubmed.MedlineCitationDate;
+import reciter.model.pubmed.MedlineCitationJournal;
+import reciter.model.pubmed.MedlineCitationJournalISSN;
+import reciter.model.pubmed.MedlineCitationJournalIssue;
+import reciter.model.pubmed.MedlineCitationMeshHeading;
+import reciter.model.pubmed.PubMedArticle;
+import reciter.model.pubmed.PubMedData;
+import reciter.model.pubmed.PubMedPubDate;
+
+import java.text.Normalizer;
+import java.time.Month;
+import java.time.format.TextStyle;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The normalized index terms and the dates of one article, used both to index it and to check that a stored article
+ * still matches a query.
+ */
+final class ArticleTerms {
+
+    enum Field {
+        AUTHOR, DOI, JOURNAL, MESH
+    }
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^a-z0-9]+");
+    private static final Pattern MEDLINE_DATE_YEAR = Pattern.compile("\\b\\d{4}\\b");
+    private static final Pattern MEDLINE_DATE_MONTH = Pattern.compile("\\b[A-Za-z]{3}\\b");
+
+    private final Map<Field, Set<String>> terms = new EnumMap<>(Field.class);
+    private final int publicationDate;
+    private final int electronicDate;
+    private final int entryDate;
+
+    private ArticleTerms(int publicationDate, int electronicDate, int entryDate) {
+        this.publicationDate = publicationDate;
+        this.electronicDate = electronicDate;
+        this.entryDate = entryDate;
+    }
+
+    static ArticleTerms of(PubMedArticle pubMedArticle) {
+        MedlineCitation medlineCitation = pubMedArticle.getMedlinecitation();
+        MedlineCitationArticle article = medlineCitation.getArticle();
+        MedlineCitationJournal journal = article == null ? null : article.getJournal();
+        ArticleTerms articleTerms = new ArticleTerms(journal == null || journal.getJournalissue() == null
+                ? 0 : date(journal.getJournalissue()), article == null ? 0 : date(article.getArticledate()),
+                entryDate(pubMedArticle));
+        if (article != null) {
+            if (article.getAuthorlist() != null) {
+                for (MedlineCitationArticleAuthor author : article.getAuthorlist()) {
+                    articleTerms.addAuthor(author);
+                }
+            }
+            if (article.getElocationid() != null) {
+                articleTerms.add(Field.DOI, doi(article.getElocationid().getElocationid()));
+            }
+        }
+        if (journal != null) {
+            articleTerms.add(Field.JOURNAL, normalize(journal.getTitle()));
+            articleTerms.add(Field.JOURNAL, normalize(journal.getIsoAbbreviation()));
+            if (journal.getIssn() != null) {
+                for (MedlineCitationJournalISSN issn : journal.getIssn()) {
+                    articleTerms.add(Field.JOURNAL, normalize(issn.getIssn()));
+                }
+            }
+        }
+        if (medlineCitation.getMeshheadinglist() != null) {
+            for (MedlineCitationMeshHeading meshHeading : medlineCitation.getMeshheadinglist()) {
+                if (meshHeading.getDescriptorname() != null) {
+                    articleTerms.add(Field.MESH, normalize(meshHeading.getDescriptorname().getDescriptorname()));
+                }
+            }
+        }
+        return articleTerms;
+    }
+
+    /**
+     * Indexes an author as {@code smith}, {@code smith j}, {@code smith ja}, {@code smith john} and
+     * {@code smith john a}, so that a query for the last name with the first initials or the first names matches
+     * like PubMed's author search does.
+     */
+    private void addAuthor(MedlineCitationArticleAuthor author) {
+        String lastName = normalize(author.getLastname());
+        if (lastName.isEmpty()) {
+            return;
+        }
+        add(Field.AUTHOR, lastName);
+        String initials = normalize(author.getInitials()).replace(" ", "");
+        for (int i = 1; i <= initials.length(); i++) {
+            add(Field.AUTHOR, lastName + ' ' + initials.substring(0, i));
+        }
+        String foreName = normalize(author.getForename());
+        int end = 0;
+        while (end < foreName.length()) {
+            int space = foreName.indexOf(' ', end + 1);
+            end = space < 0 ? foreName.length() : space;
+            add(Field.AUTHOR, lastName + ' ' + foreName.substring(0, end));
+        }
+    }
+
+    private void add(Field field, String term) {
+        if (term != null && !term.isEmpty()) {
+            terms.computeIfAbsent(field, key -> new HashSet<>()).add(term);
+        }
+    }
+
+    Map<Field, Set<String>> getTerms() {
+        return terms;
+    }
+
+    boolean contains(Field field, String term) {
+        Set<String> values = terms.get(field);
+        return values != null && values.contains(term);
+    }
+
+    /**
+     * @return the print publication date of the journal issue as {@code yyyyMMdd}, with a missing month or day
+     * counted as the first, or 0
+     */
+    int getPublicationDate() {
+        return publicationDate;
+    }
+
+    /**
+     * @return the electronic publication date, the {@code ArticleDate}, as {@code yyyyMMdd}, or 0
+     */
+    int getElectronicDate() {
+        return electronicDate;
+    }
+
+    /**
+     * @return the date the article was added to PubMed, its {@code [edat]}, as {@code yyyyMMdd}, or 0
+     */
+    int getEntryDate() {
+        return entryDate;
+    }
+
+    /**
+     * @return the {@code entrez} date of the article's history, or its {@code pubmed} date without one, as
+     * {@code yyyyMMdd}, or 0
+     */
+    static int entryDate(PubMedArticle pubMedArticle) {
+        PubMedData pubMedData = pubMedArticle.getPubmeddata();
+        if (pubMedData == null || pubMedData.getHistory() == null || pubMedData.getHistory().getPubmedPubDate() == null) {
+            return 0;
+        }
+        int pubmedDate = 0;
+        for (PubMedPubDate pubMedPubDate : pubMedData.getHistory().getPubmedPubDate()) {
+            if ("entrez".equalsIgnoreCase(pubMedPubDate.getPubStatus())) {
+                return date(pubMedPubDate.getPubMedPubDate());
+            }
+            if ("pubmed".equalsIgnoreCase(pubMedPubDate.getPubStatus())) {
+                pubmedDate = date(pubMedPubDate.getPubMedPubDate());
+            }
+        }
+        return pubmedDate;
+    }
+
+    /**
+     * @return {@code value} in lower case without diacritics, every run of other characters than letters and
+     * digits replaced by a single space
+     */
+    static String normalize(String value) {
+        if (value == null) {
+            return "";
+        }
+        String ascii = DIACRITICS.matcher(Normalizer.normalize(value, Normalizer.Form.NFD)).replaceAll("");
+        return SEPARATORS.matcher(ascii.toLowerCase(Locale.ROOT)).replaceAll(" ").trim();
+    }
+
+    static String doi(String value) {
+        return value == null ? null : value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return the date of the issue, or the year and month of its {@code MedlineDate}, e.g. {@code 2013 May-Jun}
+     * or {@code 1998 Spring}, when it has no year of its own
+     */
+    private static int date(MedlineCitationJournalIssue journalIssue) {
+        int date = date(journalIssue.getPubdate());
+        if (date != 0 || journalIssue.getMedlineDate() == null) {
+            return date;
+        }
+        Matcher year = MEDLINE_DATE_YEAR.matcher(journalIssue.getMedlineDate());
+        if (!year.find()) {
+            return 0;
+        }
+        Matcher month = MEDLINE_DATE_MONTH.matcher(journalIssue.getMedlineDate());
+        int monthValue = month.find() ? month(month.group()) : 0;
+        return Integer.parseInt(year.group()) * 10000 + (monthValue >= 1 && monthValue <= 12 ? monthValue : 1) * 100 + 1;
+    }
+
+    private static int date(MedlineCitationDate date) {
+        if (date == null) {
+            return 0;
+        }
+        int year = number(date.getYear());
+        if (year <= 0) {
+            return 0;
+        }
+        int month = month(date.getMonth());
+        int day = number(date.getDay());
+        return year * 10000 + (month >= 1 && month <= 12 ? month : 1) * 100 + (day >= 1 && day <= 31 ? day : 1);
+    }
+
+    private static int month(String month) {
+        if (month == null) {
+            return 0;
+        }
+        String trimmed = month.trim();
+        for (Month candidate : Month.values()) {
+            if (candidate.getDisplayName(TextStyle.SHORT, Locale.ENGLISH).equalsIgnoreCase(trimmed)) {
+                return candidate.getValue();
+            }
+        }
+        return number(trimmed);
+    }
+
+    private static int number(String value) {
+        if (value == null) {
+            return 0;
+        }
+        String trimmed = value.trim();
+        int end = 0;
+        while (end < trimmed.length() && end < 4 && Character.isDigit(trimmed.charAt(end))) {
+            end++;
+        }
+        return end == 0 ? 0 : Integer.parseInt(trimmed.substring(0, end));
+    }
+}
@@ -0,0 +1,217 @@
+package reciter.pubmed.store;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.xml.sax.SAXException;
+import reciter.model.pubmed.PubMedArticle;
+import reciter.pubmed.callable.InlineMarkupEscapingReader;
+import reciter.pubmed.xmlparser.PubMedArticleParser;
+import reciter.pubmed.xmlparser.PubMedArticleSink;
+import reciter.pubmed.xmlparser.VocabularyInterner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Imports the {@code pubmed*.xml.gz} files of the PubMed baseline and daily updates, as downloaded from
+ * ftp.ncbi.nlm.nih.gov/pubmed, into the {@link LocalArticleStore}. Files are imported in parallel, each one streamed
+ * through the gzip decoder into a SAX parse whose sink writes to the store, so no file is ever held in memory. A
+ * file is marked as imported once all of its articles are stored, and skipped by later imports. Once every file in
+ * the directory is imported, the store's watermark moves to the latest entry date of their articles, which is when
+ * the newest file was produced.
+ */
+@Slf4j
+@Component
+public class BaselineImporter {
+
+    private static final Pattern FILE_NAME = Pattern.compile("pubmed(\\d*)n(\\d+)\\.xml\\.gz");
+    private static final int FILES_PER_YEAR = 100_000;
+    private static final int FILE_BUFFER_SIZE = 1024 * 1024;
+    private static final int INFLATER_BUFFER_SIZE = 256 * 1024;
+
+    private final LocalArticleStore localArticleStore;
+    private final String importDir;
+    private final int threads;
+    private final PubMedArticleParser pubMedArticleParser;
+
+    @Autowired
+    public BaselineImporter(LocalArticleStore localArticleStore,
+                            @Value("${pubmed.store.import-dir:}") String importDir,
+                            @Value("${pubmed.store.import-threads:0}") int threads,
+                            VocabularyInterner vocabularyInterner) {
+        this.localArticleStore = localArticleStore;
+        this.importDir = importDir;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.pubMedArticleParser = PubMedArticleParser.of(PubMedArticleParser.SAX, this.threads, vocabularyInterner);
+    }
+
+    BaselineImporter(LocalArticleStore localArticleStore, String importDir, int threads) {
+        this(localArticleStore, importDir, threads, new VocabularyInterner(VocabularyInterner.DEFAULT_CAPACITY));
+    }
+
+    /**
+     * Imports the files in {@code pubmed.store.import-dir} in the background once the application is up.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void importOnStartup() {
+        if (importDir.isEmpty() || !localArticleStore.isEnabled()) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                importConfiguredDirectory();
+            } catch (IOException e) {
+                log.error("Unable to import the PubMed files in {}", importDir, e);
+            }
+        }, "baseline-import");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Imports the files in {@code pubmed.store.import-dir} that have not been imported yet.
+     */
+    public ImportResult importConfiguredDirectory() throws IOException {
+        if (importDir.isEmpty()) {
+            throw new IllegalStateException("pubmed.store.import-dir is not set");
+        }
+        return importDirectory(new File(importDir));
+    }
+
+    /**
+     * Imports the {@code pubmed*.xml.gz} files in {@code directory} that have not been imported yet.
+     */
+    public synchronized ImportResult importDirectory(File directory) throws IOException {
+        if (!localArticleStore.isEnabled()) {
+            throw new IllegalStateException("pubmed.store.dir is not set");
+        }
+        File[] files = directory.listFiles((dir, name) -> FILE_NAME.matcher(name).matches());
+        if (files == null) {
+            throw new IOException("Unable to list " + directory);
+        }
+        Arrays.sort(files);
+        ImportResult result = new ImportResult();
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> imports = new ArrayList<>();
+            for (File file : files) {
+                if (localArticleStore.isImported(file.getName())) {
+                    continue;
+                }
+                imports.add(executor.submit(() -> importFile(file, result)));
+            }
+            int latestEntryDate = 0;
+            for (Future<Integer> future : imports) {
+                latestEntryDate = Math.max(latestEntryDate, future.get());
+            }
+            localArticleStore.advanceWatermark(latestEntryDate);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while importing " + directory, e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        result.elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        log.info("Imported {} files with {} articles and {} deleted citations from {} in {} ms, highest PMID {}",
+                result.getFiles(), result.getArticles(), result.getDeletedCitations(), directory,
+                result.elapsedMillis, localArticleStore.getMaxPmid());
+        return result;
+    }
+
+    /**
+     * @return the latest entry date of the articles in {@code file}
+     */
+    private int importFile(File file, ImportResult result) throws IOException, SAXException {
+        int sequence = sequenceOf(file.getName());
+        AtomicInteger articles = new AtomicInteger();
+        AtomicInteger latestEntryDate = new AtomicInteger();
+        PubMedArticleSink sink = new PubMedArticleSink() {
+            @Override
+            public void accept(PubMedArticle pubMedArticle) {
+                localArticleStore.put(pubMedArticle, sequence);
+                articles.incrementAndGet();
+                latestEntryDate.accumulateAndGet(ArticleTerms.entryDate(pubMedArticle), Math::max);
+            }
+
+            @Override
+            public void deleteCitation(long pmid) {
+                localArticleStore.delete(pmid, sequence);
+                result.deletedCitations.incrementAndGet();
+            }
+        };
+        // A gzip stream cannot be decoded from a memory mapping any faster than from large sequential reads.
+        // Inline markup in titles and abstracts is escaped as on the EFetch path, so both store the same text.
+        try (InputStream in = new GZIPInputStream(
+                new BufferedInputStream(new FileInputStream(file), FILE_BUFFER_SIZE), INFLATER_BUFFER_SIZE);
+             Reader reader = new InlineMarkupEscapingReader(
+                     new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), FILE_BUFFER_SIZE))) {
+            pubMedArticleParser.parse(reader, sink);
+        }
+        localArticleStore.markImported(file.getName(), sequence);
+        result.files.incrementAndGet();
+        result.articles.addAndGet(articles.get());
+        log.info("Imported {} articles from {}", articles.get(), file.getName());
+        return latestEntryDate.get();
+    }
+
+    /**
+     * @return the year and file number of {@code pubmed24n1219.xml.gz} as {@code 2401219}. Update files continue the
+     * numbering of the baseline, and the next year's baseline starts again at 1, so the year comes first.
+     */
+    static int sequenceOf(String fileName) {
+        Matcher matcher = FILE_NAME.matcher(fileName);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Not a PubMed baseline or update file: " + fileName);
+        }
+        int year = matcher.group(1).isEmpty() ? 0 : Integer.parseInt(matcher.group(1));
+        return year * FILES_PER_YEAR + Integer.parseInt(matcher.group(2));
+    }
+
+    public static class ImportResult {
+
+        private final AtomicInteger files = new AtomicInteger();
+        private final AtomicLong articles = new AtomicLong();
+        private final AtomicLong deletedCitations = new AtomicLong();
+        @Getter
+        private long elapsedMillis;
+
+        public int getFiles() {
+            return files.get();
+        }
+
+        public long getArticles() {
+            return articles.get();
+        }
+
+        public long getDeletedCitations() {
+            return deletedCitations.get();
+        }
+    }
+}
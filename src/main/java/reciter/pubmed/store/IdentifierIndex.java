@@ -0,0 +1,122 @@
+package reciter.pubmed.store;
+
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reciter.model.pubmed.MedlineCitationArticle;
+import reciter.model.pubmed.PubMedArticle;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Maps DOIs and PMCIDs to PMIDs. Every article retrieved from EFetch or imported into the {@link LocalArticleStore}
+ * is added as it is parsed. With the store enabled the mapping is kept in the store file and covers everything
+ * imported; without it the most recent {@code pubmed.identifiers.max-entries} identifiers are kept in memory.
+ * DOIs are taken from the {@code ELocationID} of an article, PMCIDs from its {@code ArticleIdList}.
+ */
+@Slf4j
+@Component
+public class IdentifierIndex {
+
+    public enum IdType {
+        DOI, PMCID
+    }
+
+    private static final String[] DOI_PREFIXES = {"https://doi.org/", "http://doi.org/", "https://dx.doi.org/", "http://dx.doi.org/", "doi:"};
+
+    private final LocalArticleStore localArticleStore;
+    private final Map<IdType, Map<String, Long>> pmids = new EnumMap<>(IdType.class);
+
+    @Autowired
+    public IdentifierIndex(LocalArticleStore localArticleStore,
+                           @Value("${pubmed.identifiers.max-entries:1000000}") long maxEntries) {
+        this.localArticleStore = localArticleStore;
+        for (IdType idType : IdType.values()) {
+            pmids.put(idType, localArticleStore.isEnabled()
+                    ? localArticleStore.openMap(idType.name().toLowerCase(Locale.ROOT))
+                    : CacheBuilder.newBuilder().maximumSize(maxEntries).<String, Long>build().asMap());
+        }
+        if (localArticleStore.isEnabled()) {
+            localArticleStore.addListener(this::index);
+        }
+    }
+
+    /**
+     * Indexes a store that was imported before identifiers were kept with it.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildOnStartup() {
+        if (!localArticleStore.isEnabled() || localArticleStore.size() == 0 || !pmids.get(IdType.DOI).isEmpty()) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            long start = System.nanoTime();
+            localArticleStore.forEach(this::index);
+            log.info("Indexed {} DOIs and {} PMCIDs of the local article store in {} ms", pmids.get(IdType.DOI).size(),
+                    pmids.get(IdType.PMCID).size(), (System.nanoTime() - start) / 1_000_000);
+        }, "identifier-index-build");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void index(PubMedArticle pubMedArticle) {
+        long pmid = pubMedArticle.getMedlinecitation().getMedlinecitationpmid().getPmid();
+        MedlineCitationArticle article = pubMedArticle.getMedlinecitation().getArticle();
+        if (article != null && article.getElocationid() != null) {
+            put(IdType.DOI, article.getElocationid().getElocationid(), pmid);
+        }
+        if (pubMedArticle.getPubmeddata() != null && pubMedArticle.getPubmeddata().getArticleIdList() != null) {
+            put(IdType.PMCID, pubMedArticle.getPubmeddata().getArticleIdList().getPmc(), pmid);
+        }
+    }
+
+    public void indexAll(List<PubMedArticle> pubMedArticles) {
+        for (PubMedArticle pubMedArticle : pubMedArticles) {
+            index(pubMedArticle);
+        }
+    }
+
+    /**
+     * @return the PMID of the article with the identifier, or {@code null} if no such article has been indexed
+     */
+    public Long find(IdType idType, String id) {
+        String normalized = normalize(idType, id);
+        return normalized == null ? null : pmids.get(idType).get(normalized);
+    }
+
+    private void put(IdType idType, String id, long pmid) {
+        String normalized = normalize(idType, id);
+        if (normalized != null) {
+            pmids.get(idType).put(normalized, pmid);
+        }
+    }
+
+    /**
+     * @return a DOI in lower case without a resolver prefix, or a PMCID in upper case with its {@code PMC} prefix;
+     * {@code null} for a blank identifier
+     */
+    public static String normalize(IdType idType, String id) {
+        if (id == null || id.trim().isEmpty()) {
+            return null;
+        }
+        String trimmed = id.trim();
+        if (idType == IdType.DOI) {
+            String doi = trimmed.toLowerCase(Locale.ROOT);
+            for (String prefix : DOI_PREFIXES) {
+                if (doi.startsWith(prefix)) {
+                    return doi.substring(prefix.length());
+                }
+            }
+            return doi;
+        }
+        String pmcid = trimmed.toUpperCase(Locale.ROOT);
+        return pmcid.startsWith("PMC") ? pmcid : "PMC" + pmcid;
+    }
+}
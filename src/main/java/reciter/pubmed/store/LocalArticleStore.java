@@ -0,0 +1,213 @@
+package reciter.pubmed.store;
+
+import lombok.extern.slf4j.Slf4j;
+import org.h2.mvstore.Cursor;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reciter.model.pubmed.PubMedArticle;
+import reciter.pubmed.cache.CompactPubMedArticle;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Articles imported from the PubMed baseline and update files, keyed by PMID and kept in an MVStore file under
+ * {@code pubmed.store.dir}. Every article is stored as its {@link CompactPubMedArticle} encoding behind the sequence
+ * number of the file it came from, so that files imported out of order cannot overwrite a later revision with an
+ * earlier one. Deleted citations are kept as a sequence number without an article. The store is disabled when no
+ * directory is configured.
+ */
+@Slf4j
+@Component
+public class LocalArticleStore {
+
+    private static final String STORE_FILE = "articles.mv.db";
+    private static final String MAX_PMID = "maxPmid";
+    private static final String WATERMARK = "watermark";
+
+    private final MVStore store;
+    private final MVMap<Long, byte[]> articles;
+    private final MVMap<String, Integer> importedFiles;
+    private final MVMap<String, Long> meta;
+    private final AtomicLong maxPmid = new AtomicLong();
+    private volatile int watermark;
+    private final List<Consumer<PubMedArticle>> listeners = new CopyOnWriteArrayList<>();
+
+    @Autowired
+    public LocalArticleStore(@Value("${pubmed.store.dir:}") String dir) {
+        if (dir.isEmpty()) {
+            store = null;
+            articles = null;
+            importedFiles = null;
+            meta = null;
+            return;
+        }
+        File directory = new File(dir);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Unable to create the article store directory " + directory);
+        }
+        store = new MVStore.Builder()
+                .fileName(new File(directory, STORE_FILE).getPath())
+                .compress()
+                .open();
+        articles = store.openMap("articles");
+        importedFiles = store.openMap("importedFiles");
+        meta = store.openMap("meta");
+        maxPmid.set(meta.getOrDefault(MAX_PMID, 0L));
+        watermark = meta.getOrDefault(WATERMARK, 0L).intValue();
+        log.info("Opened the local article store in {} with {} PMIDs from {} files, highest PMID {}, current to {}",
+                directory, articles.sizeAsLong(), importedFiles.size(), maxPmid.get(), watermark);
+    }
+
+    public boolean isEnabled() {
+        return store != null;
+    }
+
+    /**
+     * @return the article, or {@code null} if it was never imported or has been deleted
+     */
+    public PubMedArticle get(long pmid) {
+        byte[] value = articles.get(pmid);
+        return value == null || value.length == Integer.BYTES ? null : decode(value);
+    }
+
+    /**
+     * Stores {@code pubMedArticle} unless a file with a higher sequence number already stored or deleted it.
+     *
+     * @return whether the article was stored
+     */
+    public boolean put(PubMedArticle pubMedArticle, int sequence) {
+        long pmid = pubMedArticle.getMedlinecitation().getMedlinecitationpmid().getPmid();
+        byte[] encoded = CompactPubMedArticle.encode(pubMedArticle).toByteArray();
+        byte[] value = ByteBuffer.allocate(Integer.BYTES + encoded.length).putInt(sequence).put(encoded).array();
+        if (!write(pmid, value, sequence)) {
+            return false;
+        }
+        maxPmid.accumulateAndGet(pmid, Math::max);
+        for (Consumer<PubMedArticle> listener : listeners) {
+            listener.accept(pubMedArticle);
+        }
+        return true;
+    }
+
+    /**
+     * Calls {@code listener} with every article stored from now on.
+     */
+    public void addListener(Consumer<PubMedArticle> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Decodes every stored article in PMID order, skipping deleted ones.
+     */
+    public void forEach(Consumer<PubMedArticle> action) {
+        Cursor<Long, byte[]> cursor = articles.cursor(null);
+        while (cursor.hasNext()) {
+            cursor.next();
+            byte[] value = cursor.getValue();
+            if (value.length > Integer.BYTES) {
+                action.accept(decode(value));
+            }
+        }
+    }
+
+    /**
+     * Removes the article with {@code pmid} unless a file with a higher sequence number stored it again.
+     *
+     * @return whether the deletion was recorded
+     */
+    public boolean delete(long pmid, int sequence) {
+        return write(pmid, ByteBuffer.allocate(Integer.BYTES).putInt(sequence).array(), sequence);
+    }
+
+    private boolean write(long pmid, byte[] value, int sequence) {
+        while (true) {
+            byte[] existing = articles.putIfAbsent(pmid, value);
+            if (existing == null) {
+                return true;
+            }
+            if (ByteBuffer.wrap(existing).getInt() > sequence) {
+                return false;
+            }
+            if (articles.replace(pmid, existing, value)) {
+                return true;
+            }
+        }
+    }
+
+    public boolean isImported(String fileName) {
+        return importedFiles.containsKey(fileName);
+    }
+
+    /**
+     * Records that every article of {@code fileName} is stored and commits the store.
+     */
+    public void markImported(String fileName, int sequence) {
+        importedFiles.put(fileName, sequence);
+        meta.put(MAX_PMID, maxPmid.get());
+        store.commit();
+    }
+
+    /**
+     * Records that the store holds every article added to PubMed up to {@code entryDate}, as {@code yyyyMMdd}.
+     */
+    public synchronized void advanceWatermark(int entryDate) {
+        if (entryDate > watermark) {
+            watermark = entryDate;
+            meta.put(WATERMARK, (long) entryDate);
+            store.commit();
+        }
+    }
+
+    /**
+     * @return the latest entry date of the imported articles as {@code yyyyMMdd}, or 0 before the first import.
+     * Articles added to PubMed after it, or revised after it, may be missing from the store.
+     */
+    public int getWatermark() {
+        return watermark;
+    }
+
+    /**
+     * @return the highest PMID imported so far. PMIDs above it were added to PubMed after the last import.
+     */
+    public long getMaxPmid() {
+        return maxPmid.get();
+    }
+
+    public int getImportedFileCount() {
+        return importedFiles.size();
+    }
+
+    /**
+     * @return number of stored PMIDs, including deleted ones
+     */
+    public long size() {
+        return articles.sizeAsLong();
+    }
+
+    /**
+     * Opens another map in the store file, for data kept alongside the articles.
+     */
+    <K, V> MVMap<K, V> openMap(String name) {
+        return store.openMap(name);
+    }
+
+    @PreDestroy
+    public void close() {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    private static PubMedArticle decode(byte[] value) {
+        return CompactPubMedArticle.materialize(value, Integer.BYTES, value.length - Integer.BYTES);
+    }
+}
@@ -0,0 +1,413 @@
+package reciter.pubmed.store;
+
+import reciter.pubmed.store.ArticleTerms.Field;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * The subset of the PubMed query syntax that {@link LocalQueryEngine} answers: author {@code [au]}, DOI
+ * {@code [doi]} or a bare DOI, journal {@code [ta]} and MeSH heading {@code [mh:noexp]} terms, publication date
+ * {@code [dp]} and entry date {@code [edat]} terms and ranges, combined with {@code AND}, {@code OR} and parentheses. This covers what
+ * {@code PubMedQuery.toString()} builds. Anything else, e.g. {@code NOT}, affiliations or exploded MeSH terms,
+ * makes {@link #parse(String)} return {@code null} so that the query goes to ESearch.
+ */
+abstract class LocalQuery {
+
+    private static final Pattern BARE_DOI = Pattern.compile("10\\.\\d{4,9}/\\S+");
+
+    /**
+     * The date of an article that a {@link DateRange} applies to.
+     */
+    enum DateField {
+
+        /**
+         * {@code [dp]}, matched by the print or the electronic publication date as PubMed does.
+         */
+        PUBLICATION,
+
+        /**
+         * {@code [edat]}, the date the article was added to PubMed.
+         */
+        ENTRY
+    }
+
+    /**
+     * Looks up the PMIDs of one term.
+     */
+    interface Index {
+
+        int[] postings(Field field, String term);
+    }
+
+    /**
+     * @return the sorted PMIDs of the articles that may match, or {@code null} if this query does not restrict them
+     * through an index, e.g. a date range on its own
+     */
+    abstract int[] candidates(Index index);
+
+    /**
+     * Checks a candidate against the query, so that an article revised or deleted after it was indexed is not
+     * returned for its earlier terms.
+     */
+    abstract boolean matches(ArticleTerms articleTerms);
+
+    /**
+     * @return the latest entry date as {@code yyyyMMdd} that a matching article can have, or
+     * {@link Integer#MAX_VALUE} if the query does not bound it. A publication date does not bound it, as articles
+     * are often added to PubMed long after they were published.
+     */
+    abstract int latestEntryDate();
+
+    /**
+     * @return the parsed query, or {@code null} if it uses syntax that is not supported locally
+     */
+    static LocalQuery parse(String query) {
+        try {
+            Parser parser = new Parser(query);
+            LocalQuery parsed = parser.or();
+            parser.skipWhitespace();
+            return parser.position == query.length() ? parsed : null;
+        } catch (UnsupportedSyntaxException e) {
+            return null;
+        }
+    }
+
+    static class Term extends LocalQuery {
+
+        private final Field field;
+        private final String term;
+
+        Term(Field field, String term) {
+            this.field = field;
+            this.term = term;
+        }
+
+        @Override
+        int[] candidates(Index index) {
+            return index.postings(field, term);
+        }
+
+        @Override
+        boolean matches(ArticleTerms articleTerms) {
+            return articleTerms.contains(field, term);
+        }
+
+        @Override
+        int latestEntryDate() {
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    static class DateRange extends LocalQuery {
+
+        private final DateField field;
+        private final int from;
+        private final int to;
+
+        DateRange(DateField field, int from, int to) {
+            this.field = field;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        int[] candidates(Index index) {
+            return null;
+        }
+
+        @Override
+        boolean matches(ArticleTerms articleTerms) {
+            if (field == DateField.ENTRY) {
+                return contains(articleTerms.getEntryDate());
+            }
+            return contains(articleTerms.getPublicationDate()) || contains(articleTerms.getElectronicDate());
+        }
+
+        private boolean contains(int date) {
+            return date != 0 && date >= from && date <= to;
+        }
+
+        @Override
+        int latestEntryDate() {
+            return field == DateField.ENTRY ? to : Integer.MAX_VALUE;
+        }
+    }
+
+    static class And extends LocalQuery {
+
+        private final List<LocalQuery> operands;
+
+        And(List<LocalQuery> operands) {
+            this.operands = operands;
+        }
+
+        @Override
+        int[] candidates(Index index) {
+            int[] candidates = null;
+            for (LocalQuery operand : operands) {
+                int[] operandCandidates = operand.candidates(index);
+                if (operandCandidates != null) {
+                    candidates = candidates == null ? operandCandidates : PostingList.intersect(candidates, operandCandidates);
+                }
+            }
+            return candidates;
+        }
+
+        @Override
+        boolean matches(ArticleTerms articleTerms) {
+            return operands.stream().allMatch(operand -> operand.matches(articleTerms));
+        }
+
+        @Override
+        int latestEntryDate() {
+            return operands.stream().mapToInt(LocalQuery::latestEntryDate).min().getAsInt();
+        }
+    }
+
+    static class Or extends LocalQuery {
+
+        private final List<LocalQuery> operands;
+
+        Or(List<LocalQuery> operands) {
+            this.operands = operands;
+        }
+
+        @Override
+        int[] candidates(Index index) {
+            int[] candidates = new int[0];
+            for (LocalQuery operand : operands) {
+                int[] operandCandidates = operand.candidates(index);
+                if (operandCandidates == null) {
+                    return null;
+                }
+                candidates = PostingList.union(candidates, operandCandidates);
+            }
+            return candidates;
+        }
+
+        @Override
+        boolean matches(ArticleTerms articleTerms) {
+            return operands.stream().anyMatch(operand -> operand.matches(articleTerms));
+        }
+
+        @Override
+        int latestEntryDate() {
+            return operands.stream().mapToInt(LocalQuery::latestEntryDate).max().getAsInt();
+        }
+    }
+
+    private static class UnsupportedSyntaxException extends Exception {
+
+        UnsupportedSyntaxException() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * A recursive descent parser. PubMed operators are upper case; terms next to each other without an operator
+     * are combined with {@code AND} as PubMed does.
+     */
+    private static class Parser {
+
+        private final String query;
+        private int position;
+
+        Parser(String query) {
+            this.query = query;
+        }
+
+        LocalQuery or() throws UnsupportedSyntaxException {
+            List<LocalQuery> operands = new ArrayList<>();
+            operands.add(and());
+            while (operator("OR")) {
+                operands.add(and());
+            }
+            return operands.size() == 1 ? operands.get(0) : new Or(operands);
+        }
+
+        private LocalQuery and() throws UnsupportedSyntaxException {
+            List<LocalQuery> operands = new ArrayList<>();
+            operands.add(primary());
+            while (true) {
+                if (operator("NOT")) {
+                    throw new UnsupportedSyntaxException();
+                }
+                if (!operator("AND")) {
+                    skipWhitespace();
+                    if (position == query.length() || query.charAt(position) == ')' || lookingAt("OR ") || lookingAt("OR(")) {
+                        break;
+                    }
+                }
+                operands.add(primary());
+            }
+            return operands.size() == 1 ? operands.get(0) : new And(operands);
+        }
+
+        private LocalQuery primary() throws UnsupportedSyntaxException {
+            skipWhitespace();
+            if (position == query.length()) {
+                throw new UnsupportedSyntaxException();
+            }
+            if (query.charAt(position) == '(') {
+                position++;
+                LocalQuery group = or();
+                skipWhitespace();
+                if (position == query.length() || query.charAt(position) != ')') {
+                    throw new UnsupportedSyntaxException();
+                }
+                position++;
+                return group;
+            }
+            String value = value();
+            String tag = tag();
+            if (tag == null) {
+                if (BARE_DOI.matcher(value).matches()) {
+                    return new Term(Field.DOI, ArticleTerms.doi(value));
+                }
+                throw new UnsupportedSyntaxException();
+            }
+            switch (tag) {
+                case "au":
+                case "author":
+                    return new Term(Field.AUTHOR, ArticleTerms.normalize(value));
+                case "doi":
+                case "lid":
+                    return new Term(Field.DOI, ArticleTerms.doi(value));
+                case "ta":
+                case "journal":
+                    return new Term(Field.JOURNAL, ArticleTerms.normalize(value));
+                case "mh:noexp":
+                case "mesh:noexp":
+                    return new Term(Field.MESH, ArticleTerms.normalize(value));
+                default:
+                    DateField dateField = dateField(tag);
+                    if (dateField == null) {
+                        throw new UnsupportedSyntaxException();
+                    }
+                    return dateRange(value, dateField);
+            }
+        }
+
+        /**
+         * Reads a quoted value, or an unquoted one up to its tag, an operator or the closing parenthesis of its
+         * group. Parentheses within a value, as in many DOIs, are kept.
+         */
+        private String value() throws UnsupportedSyntaxException {
+            skipWhitespace();
+            if (query.charAt(position) == '"') {
+                int end = query.indexOf('"', position + 1);
+                if (end < 0) {
+                    throw new UnsupportedSyntaxException();
+                }
+                String value = query.substring(position + 1, end);
+                position = end + 1;
+                return value;
+            }
+            int start = position;
+            int depth = 0;
+            while (position < query.length()) {
+                char c = query.charAt(position);
+                if (c == '[' || (c == ')' && depth == 0)) {
+                    break;
+                }
+                if (c == ' ' && (lookingAt(" AND ") || lookingAt(" OR ") || lookingAt(" NOT "))) {
+                    break;
+                }
+                if (c == '(') {
+                    depth++;
+                } else if (c == ')') {
+                    depth--;
+                }
+                position++;
+            }
+            String value = query.substring(start, position).trim();
+            if (value.isEmpty()) {
+                throw new UnsupportedSyntaxException();
+            }
+            return value;
+        }
+
+        private String tag() throws UnsupportedSyntaxException {
+            skipWhitespace();
+            if (position == query.length() || query.charAt(position) != '[') {
+                return null;
+            }
+            int end = query.indexOf(']', position);
+            if (end < 0) {
+                throw new UnsupportedSyntaxException();
+            }
+            String tag = query.substring(position + 1, end).trim().toLowerCase(Locale.ROOT);
+            position = end + 1;
+            return tag;
+        }
+
+        private static DateField dateField(String tag) {
+            switch (tag) {
+                case "dp":
+                case "pdat":
+                    return DateField.PUBLICATION;
+                case "edat":
+                    return DateField.ENTRY;
+                default:
+                    return null;
+            }
+        }
+
+        /**
+         * Parses {@code 2010/01/01[dp]:2020/12/31[dp]} after its first value, or a single date such as
+         * {@code 2015[dp]} which stands for the whole year. Both ends must have the same tag.
+         */
+        private LocalQuery dateRange(String from, DateField field) throws UnsupportedSyntaxException {
+            String to = from;
+            if (position < query.length() && query.charAt(position) == ':') {
+                position++;
+                to = value();
+                String tag = tag();
+                if (tag == null || dateField(tag) != field) {
+                    throw new UnsupportedSyntaxException();
+                }
+            }
+            return new DateRange(field, date(from, false), date(to, true));
+        }
+
+        private static int date(String value, boolean end) throws UnsupportedSyntaxException {
+            String[] parts = value.trim().split("/");
+            try {
+                int year = Integer.parseInt(parts[0]);
+                int month = parts.length > 1 ? Integer.parseInt(parts[1]) : (end ? 12 : 1);
+                int day = parts.length > 2 ? Integer.parseInt(parts[2]) : (end ? 31 : 1);
+                if (parts.length > 3 || month < 1 || month > 12 || day < 1 || day > 31) {
+                    throw new UnsupportedSyntaxException();
+                }
+                return year * 10000 + month * 100 + day;
+            } catch (NumberFormatException e) {
+                throw new UnsupportedSyntaxException();
+            }
+        }
+
+        private boolean operator(String operator) {
+            skipWhitespace();
+            if (lookingAt(operator) && position + operator.length() < query.length()) {
+                char next = query.charAt(position + operator.length());
+                if (next == ' ' || next == '(') {
+                    position += operator.length();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean lookingAt(String text) {
+            return query.startsWith(text, position);
+        }
+
+        void skipWhitespace() {
+            while (position < query.length() && Character.isWhitespace(query.charAt(position))) {
+                position++;
+            }
+        }
+    }
+}
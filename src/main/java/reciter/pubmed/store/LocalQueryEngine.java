@@ -0,0 +1,152 @@
+package reciter.pubmed.store;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reciter.metrics.PubMedMetrics;
+import reciter.model.pubmed.PubMedArticle;
+import reciter.pubmed.store.ArticleTerms.Field;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Answers queries from the {@link LocalArticleStore} through in-memory inverted indexes of author names, DOIs,
+ * journals and MeSH headings. The indexes are built from the store in the background on startup and kept up to date
+ * as articles are imported; until they are built, and for queries that {@link LocalQuery} does not support, the
+ * query methods return {@code null} and the caller goes to ESearch. The store lacks whatever was added to PubMed
+ * after its last import, whatever its publication date, so a query is only answered if an {@code [edat]} range
+ * ends by the store's watermark. A query bounded only by {@code [dp]}, or not at all, goes to ESearch as well.
+ * <p>
+ * The indexes hold PMIDs as ints. The terms of an article that is deleted or revised stay in them, so every
+ * candidate is read from the store and checked against the query again.
+ */
+@Slf4j
+@Component
+public class LocalQueryEngine {
+
+    private final boolean enabled;
+    private final LocalArticleStore localArticleStore;
+    private final PubMedMetrics pubMedMetrics;
+    private final Map<Field, Map<String, PostingList>> indexes = new EnumMap<>(Field.class);
+    private volatile boolean ready;
+    private volatile boolean overflowed;
+
+    @Autowired
+    public LocalQueryEngine(@Value("${pubmed.store.local-query:false}") boolean enabled,
+                            LocalArticleStore localArticleStore,
+                            PubMedMetrics pubMedMetrics) {
+        this.enabled = enabled && localArticleStore.isEnabled();
+        this.localArticleStore = localArticleStore;
+        this.pubMedMetrics = pubMedMetrics;
+        for (Field field : Field.values()) {
+            indexes.put(field, new ConcurrentHashMap<>());
+        }
+        if (this.enabled) {
+            localArticleStore.addListener(this::index);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildOnStartup() {
+        if (!enabled) {
+            return;
+        }
+        Thread thread = new Thread(this::build, "local-index-build");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Indexes every article in the store. Articles stored meanwhile are indexed by the store listener.
+     */
+    public void build() {
+        long start = System.nanoTime();
+        long[] articles = new long[1];
+        localArticleStore.forEach(pubMedArticle -> {
+            index(pubMedArticle);
+            articles[0]++;
+        });
+        ready = true;
+        log.info("Indexed {} articles of the local article store in {} ms: {} author, {} DOI, {} journal and {} MeSH terms",
+                articles[0], (System.nanoTime() - start) / 1_000_000, indexes.get(Field.AUTHOR).size(),
+                indexes.get(Field.DOI).size(), indexes.get(Field.JOURNAL).size(), indexes.get(Field.MESH).size());
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * @return the matching articles in descending PMID order, or {@code null} if the query has to go to ESearch
+     */
+    public List<PubMedArticle> search(String query) {
+        LocalQuery localQuery = plan(query);
+        return localQuery == null ? null : search(localQuery);
+    }
+
+    /**
+     * @return the number of matching articles, or {@code null} if the query has to go to ESearch
+     */
+    public Integer count(String query) {
+        LocalQuery localQuery = plan(query);
+        return localQuery == null ? null : search(localQuery).size();
+    }
+
+    private List<PubMedArticle> search(LocalQuery localQuery) {
+        List<PubMedArticle> pubMedArticles = new ArrayList<>();
+        int[] candidates = localQuery.candidates(this::postings);
+        for (int i = candidates.length - 1; i >= 0; i--) {
+            PubMedArticle pubMedArticle = localArticleStore.get(candidates[i]);
+            if (pubMedArticle != null && localQuery.matches(ArticleTerms.of(pubMedArticle))) {
+                pubMedArticles.add(pubMedArticle);
+            }
+        }
+        return pubMedArticles;
+    }
+
+    private LocalQuery plan(String query) {
+        if (!ready || overflowed) {
+            return null;
+        }
+        LocalQuery localQuery = LocalQuery.parse(query);
+        // A query without an indexed term, such as a date range alone, would have to scan the whole store.
+        boolean answered = localQuery != null && localQuery.candidates((field, term) -> new int[0]) != null
+                && localQuery.latestEntryDate() <= localArticleStore.getWatermark();
+        pubMedMetrics.recordLocalQuery(answered);
+        return answered ? localQuery : null;
+    }
+
+    private void index(PubMedArticle pubMedArticle) {
+        long pmidValue = pubMedArticle.getMedlinecitation().getMedlinecitationpmid().getPmid();
+        int pmid;
+        try {
+            pmid = Math.toIntExact(pmidValue);
+        } catch (ArithmeticException e) {
+            // Answering without the article would leave it out of the results unnoticed.
+            if (!overflowed) {
+                log.error("PMID {} does not fit the local indexes, all queries now go to ESearch", pmidValue);
+                overflowed = true;
+            }
+            return;
+        }
+        for (Map.Entry<Field, Set<String>> terms : ArticleTerms.of(pubMedArticle).getTerms().entrySet()) {
+            Map<String, PostingList> index = indexes.get(terms.getKey());
+            for (String term : terms.getValue()) {
+                index.computeIfAbsent(term, key -> new PostingList()).add(pmid);
+            }
+        }
+    }
+
+    private int[] postings(Field field, String term) {
+        PostingList postingList = indexes.get(field).get(term);
+        return postingList == null ? new int[0] : postingList.toArray();
+    }
+}
@@ -0,0 +1,154 @@
+package reciter.pubmed.store;
+
+import java.util.Arrays;
+
+/**
+ * The PMIDs of one index term, sorted and stored as variable length encoded gaps, which takes one or two bytes for
+ * most PMIDs of a common term. PMIDs added in ascending order are appended directly; the others are buffered and
+ * merged in once enough of them have accumulated or the list is read.
+ */
+final class PostingList {
+
+    private static final int MAX_PENDING = 64;
+
+    private byte[] encoded = new byte[4];
+    private int length;
+    private int size;
+    private int last;
+    private int[] pending;
+    private int pendingSize;
+
+    synchronized void add(int pmid) {
+        if (pmid > last && pendingSize == 0) {
+            append(pmid);
+            return;
+        }
+        if (pmid == last) {
+            return;
+        }
+        if (pending == null) {
+            pending = new int[MAX_PENDING];
+        }
+        pending[pendingSize++] = pmid;
+        if (pendingSize == MAX_PENDING) {
+            merge();
+        }
+    }
+
+    /**
+     * @return the PMIDs in ascending order, without duplicates
+     */
+    synchronized int[] toArray() {
+        if (pendingSize > 0) {
+            merge();
+        }
+        return decode();
+    }
+
+    synchronized int size() {
+        if (pendingSize > 0) {
+            merge();
+        }
+        return size;
+    }
+
+    /**
+     * @return number of bytes of the encoded PMIDs
+     */
+    synchronized int getEncodedSize() {
+        return length;
+    }
+
+    private void merge() {
+        int[] added = Arrays.copyOf(pending, pendingSize);
+        Arrays.sort(added);
+        int[] merged = union(decode(), added);
+        length = 0;
+        size = 0;
+        last = 0;
+        pendingSize = 0;
+        for (int pmid : merged) {
+            append(pmid);
+        }
+        if (encoded.length > length + length / 2 + 4) {
+            encoded = Arrays.copyOf(encoded, length + 4);
+        }
+    }
+
+    private void append(int pmid) {
+        int gap = pmid - last;
+        if (length + 5 > encoded.length) {
+            encoded = Arrays.copyOf(encoded, Math.max(length + 5, encoded.length + (encoded.length >> 1)));
+        }
+        while ((gap & ~0x7F) != 0) {
+            encoded[length++] = (byte) ((gap & 0x7F) | 0x80);
+            gap >>>= 7;
+        }
+        encoded[length++] = (byte) gap;
+        last = pmid;
+        size++;
+    }
+
+    private int[] decode() {
+        int[] pmids = new int[size];
+        int position = 0;
+        int value = 0;
+        for (int i = 0; i < size; i++) {
+            int gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = encoded[position++];
+                gap |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            value += gap;
+            pmids[i] = value;
+        }
+        return pmids;
+    }
+
+    /**
+     * @return the PMIDs in either of the sorted arrays, sorted and without duplicates
+     */
+    static int[] union(int[] a, int[] b) {
+        int[] union = new int[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < a.length || j < b.length) {
+            int next;
+            if (j == b.length || (i < a.length && a[i] <= b[j])) {
+                next = a[i++];
+            } else {
+                next = b[j++];
+            }
+            if (n == 0 || union[n - 1] != next) {
+                union[n++] = next;
+            }
+        }
+        return n == union.length ? union : Arrays.copyOf(union, n);
+    }
+
+    /**
+     * @return the PMIDs in both of the sorted arrays
+     */
+    static int[] intersect(int[] a, int[] b) {
+        int[] intersection = new int[Math.min(a.length, b.length)];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                intersection[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return n == intersection.length ? intersection : Arrays.copyOf(intersection, n);
+    }
+}
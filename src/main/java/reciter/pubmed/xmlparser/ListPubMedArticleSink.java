@@ -0,0 +1,31 @@
+package reciter.pubmed.xmlparser;
+
+import reciter.model.pubmed.PubMedArticle;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the articles of a document into a list.
+ */
+public class ListPubMedArticleSink implements PubMedArticleSink {
+
+    private List<PubMedArticle> pubMedArticles;
+
+    @Override
+    public void startArticleSet() {
+        pubMedArticles = new ArrayList<>();
+    }
+
+    @Override
+    public void accept(PubMedArticle pubMedArticle) {
+        pubMedArticles.add(pubMedArticle);
+    }
+
+    /**
+     * @return the articles read so far, {@code null} if the document has no {@code PubmedArticleSet}
+     */
+    public List<PubMedArticle> getPubMedArticles() {
+        return pubMedArticles;
+    }
+}
@@ -0,0 +1,176 @@
+package reciter.pubmed.xmlparser;
+
+import org.xml.sax.SAXException;
+import reciter.model.pubmed.PubMedArticle;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Splits a {@code PubmedArticleSet} on article boundaries while it is being read and parses every chunk of
+ * {@code chunkSize} articles as a document of its own on a {@link ForkJoinPool}. Chunks are handed to the sink in
+ * document order, so the result is the same as that of the delegate parsing the whole document.
+ */
+public class ParallelPubMedArticleParser implements PubMedArticleParser {
+
+    private static final String ARTICLE_SET = "<PubmedArticleSet";
+    private static final String ARTICLE_SET_END = "</PubmedArticleSet>";
+    private static final String END_TAG_PREFIX = "</Pubmed";
+    private static final String[] ARTICLE_ENDS = {"</PubmedArticle>", "</PubmedBookArticle>"};
+    private static final int LONGEST_ARTICLE_END = "</PubmedBookArticle>".length();
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final PubMedArticleParser delegate;
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    /**
+     * @param chunkSize number of articles parsed by one task
+     */
+    public ParallelPubMedArticleParser(PubMedArticleParser delegate, ForkJoinPool pool, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive, was " + chunkSize);
+        }
+        this.delegate = delegate;
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public void parse(Reader reader, PubMedArticleSink pubMedArticleSink) throws IOException, SAXException {
+        Deque<ChunkTask> tasks = new ArrayDeque<>();
+        try {
+            String unsplit = split(reader, tasks, pubMedArticleSink);
+            if (unsplit != null) {
+                delegate.parse(new StringReader(unsplit), pubMedArticleSink);
+                return;
+            }
+            while (!tasks.isEmpty()) {
+                deliver(tasks.poll(), pubMedArticleSink);
+            }
+        } finally {
+            tasks.forEach(task -> task.cancel(false));
+        }
+    }
+
+    /**
+     * Submits a task for every chunk read from {@code reader}, handing the articles of chunks that are done to the
+     * sink in the meantime.
+     *
+     * @return the whole document if it is not a {@code PubmedArticleSet}, otherwise {@code null}
+     */
+    private String split(Reader reader, Deque<ChunkTask> tasks, PubMedArticleSink pubMedArticleSink) throws IOException, SAXException {
+        StringBuilder pending = new StringBuilder(BUFFER_SIZE);
+        char[] buffer = new char[BUFFER_SIZE];
+        boolean inArticleSet = false;
+        int articles = 0;
+        int scanFrom = 0;
+        int n;
+        while ((n = reader.read(buffer)) != -1) {
+            pending.append(buffer, 0, n);
+            if (!inArticleSet) {
+                int start = pending.indexOf(ARTICLE_SET);
+                int end = start < 0 ? -1 : pending.indexOf(">", start);
+                if (end < 0) {
+                    continue;
+                }
+                // The prolog and DOCTYPE are dropped, every chunk declares its own article set.
+                pending.delete(0, end + 1);
+                inArticleSet = true;
+                pubMedArticleSink.startArticleSet();
+            }
+            int found;
+            while ((found = indexOfArticleEnd(pending, scanFrom)) >= 0) {
+                scanFrom = found;
+                if (++articles == chunkSize) {
+                    submit(tasks, pending.substring(0, found));
+                    pending.delete(0, found);
+                    articles = 0;
+                    scanFrom = 0;
+                }
+            }
+            scanFrom = Math.max(scanFrom, pending.length() - LONGEST_ARTICLE_END + 1);
+            while (!tasks.isEmpty() && tasks.peek().isDone()) {
+                deliver(tasks.poll(), pubMedArticleSink);
+            }
+        }
+        if (!inArticleSet) {
+            return pending.toString();
+        }
+        int end = pending.lastIndexOf(ARTICLE_SET_END);
+        if (end < 0) {
+            throw new SAXException("Premature end of PubmedArticleSet");
+        }
+        if (articles > 0) {
+            submit(tasks, pending.substring(0, end));
+        }
+        return null;
+    }
+
+    private static void deliver(ChunkTask task, PubMedArticleSink pubMedArticleSink) throws IOException, SAXException {
+        List<PubMedArticle> chunk = task.join();
+        if (task.failure instanceof IOException) {
+            throw (IOException) task.failure;
+        }
+        if (task.failure instanceof SAXException) {
+            throw (SAXException) task.failure;
+        }
+        if (chunk != null) {
+            for (PubMedArticle pubMedArticle : chunk) {
+                pubMedArticleSink.accept(pubMedArticle);
+            }
+        }
+    }
+
+    /**
+     * @return the index after the first article end tag at or after {@code from}, or -1
+     */
+    private static int indexOfArticleEnd(StringBuilder text, int from) {
+        int index = from;
+        while ((index = text.indexOf(END_TAG_PREFIX, index)) >= 0) {
+            for (String articleEnd : ARTICLE_ENDS) {
+                int end = index + articleEnd.length();
+                if (end <= text.length() && articleEnd.contentEquals(text.subSequence(index, end))) {
+                    return end;
+                }
+            }
+            index += END_TAG_PREFIX.length();
+        }
+        return -1;
+    }
+
+    private void submit(Deque<ChunkTask> tasks, String articles) {
+        ChunkTask task = new ChunkTask("<PubmedArticleSet>" + articles + ARTICLE_SET_END);
+        tasks.add(task);
+        pool.execute(task);
+    }
+
+    /**
+     * Keeps checked parse failures so that they reach the caller unwrapped.
+     */
+    private class ChunkTask extends RecursiveTask<List<PubMedArticle>> {
+
+        private final String document;
+        private Exception failure;
+
+        ChunkTask(String document) {
+            this.document = document;
+        }
+
+        @Override
+        protected List<PubMedArticle> compute() {
+            try {
+                return delegate.parse(new StringReader(document));
+            } catch (IOException | SAXException e) {
+                failure = e;
+                return null;
+            }
+        }
+    }
+}
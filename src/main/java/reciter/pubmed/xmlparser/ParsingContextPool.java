@@ -0,0 +1,47 @@
+package reciter.pubmed.xmlparser;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Keeps up to {@code maxIdle} parsers or handlers between documents, so that a busy service does not build new ones
+ * for every EFetch window. Borrowing never blocks: an empty pool creates a new object, a full pool drops the
+ * returned one. Objects must be reset before they are released.
+ */
+public class ParsingContextPool<T> {
+
+    private final Supplier<T> factory;
+    private final BlockingQueue<T> idle;
+    private final AtomicLong created = new AtomicLong();
+
+    public ParsingContextPool(Supplier<T> factory, int maxIdle) {
+        this.factory = factory;
+        this.idle = new ArrayBlockingQueue<>(Math.max(maxIdle, 1));
+    }
+
+    public T borrow() {
+        T context = idle.poll();
+        if (context == null) {
+            created.incrementAndGet();
+            context = factory.get();
+        }
+        return context;
+    }
+
+    public void release(T context) {
+        idle.offer(context);
+    }
+
+    /**
+     * @return number of objects created since the pool was built
+     */
+    public long getCreated() {
+        return created.get();
+    }
+
+    public int getIdle() {
+        return idle.size();
+    }
+}
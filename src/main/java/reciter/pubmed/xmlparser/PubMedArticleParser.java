@@ -0,0 +1,68 @@
+package reciter.pubmed.xmlparser;
+
+import org.xml.sax.SAXException;
+import reciter.model.pubmed.PubMedArticle;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * Turns an EFetch {@code PubmedArticleSet} document into {@link PubMedArticle}s. Implementations are thread safe.
+ * Malformed XML is reported as {@link SAXException} by every engine, failures of the underlying stream as
+ * {@link IOException}.
+ */
+public interface PubMedArticleParser {
+
+    String SAX = "sax";
+    String STAX = "stax";
+
+    /**
+     * Parsers and handlers kept between documents by each engine.
+     */
+    int DEFAULT_POOL_SIZE = 16;
+
+    /**
+     * Hands every article to {@code pubMedArticleSink} as soon as it has been read, in document order.
+     */
+    void parse(Reader reader, PubMedArticleSink pubMedArticleSink) throws IOException, SAXException;
+
+    /**
+     * @return all articles of the document, {@code null} if it has no {@code PubmedArticleSet}
+     */
+    default List<PubMedArticle> parse(Reader reader) throws IOException, SAXException {
+        ListPubMedArticleSink listSink = new ListPubMedArticleSink();
+        parse(reader, listSink);
+        return listSink.getPubMedArticles();
+    }
+
+    /**
+     * @param engine {@value #SAX} or {@value #STAX}, see {@code pubmed.parser.engine}
+     */
+    static PubMedArticleParser of(String engine) {
+        return of(engine, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * A parser sharing repeated values between the articles of its own documents only.
+     *
+     * @param poolSize parsers and handlers kept between documents, see {@code pubmed.parser.pool-size}
+     */
+    static PubMedArticleParser of(String engine, int poolSize) {
+        return of(engine, poolSize, new VocabularyInterner(VocabularyInterner.DEFAULT_CAPACITY));
+    }
+
+    /**
+     * @param vocabularyInterner shares repeated values between the articles, usually the application's one
+     */
+    static PubMedArticleParser of(String engine, int poolSize, VocabularyInterner vocabularyInterner) {
+        switch (engine.toLowerCase()) {
+            case SAX:
+                return new SaxPubMedArticleParser(poolSize, vocabularyInterner);
+            case STAX:
+                return new StaxPubMedArticleParser(poolSize, vocabularyInterner);
+            default:
+                throw new IllegalArgumentException("Unknown parser engine " + engine + ", expected " + SAX + " or " + STAX);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package reciter.pubmed.xmlparser;
+
+import org.xml.sax.SAXException;
+import reciter.model.pubmed.PubMedArticle;
+
+/**
+ * Receives articles from a {@link PubmedEFetchHandler} as soon as their {@code </PubmedArticle>} tag is read, in
+ * document order and on the parsing thread.
+ */
+@FunctionalInterface
+public interface PubMedArticleSink {
+
+    /**
+     * Called when the {@code PubmedArticleSet} element starts.
+     */
+    default void startArticleSet() throws SAXException {
+    }
+
+    /**
+     * @throws SAXException to stop parsing the rest of the document
+     */
+    void accept(PubMedArticle pubMedArticle) throws SAXException;
+
+    /**
+     * Called for every PMID listed in a {@code DeleteCitation} element of an update file. Not called by
+     * {@link ParallelPubMedArticleParser}, which only splits out articles.
+     */
+    default void deleteCitation(long pmid) throws SAXException {
+    }
+}
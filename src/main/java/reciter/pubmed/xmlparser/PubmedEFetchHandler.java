@@ -51,6 +51,7 @@ import reciter.model.pubmed.PubMedData;
 import reciter.model.pubmed.PubMedPubDate;
 
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.time.temporal.ChronoField;
 import java.time.temporal.TemporalAccessor;
 import java.util.ArrayList;
@@ -66,6 +67,9 @@ import java.util.regex.Pattern;
  */
 public class PubmedEFetchHandler extends DefaultHandler {
 
+    private static final int CHARS_CAPACITY = 1024;
+    private static final int MAX_RETAINED_CHARS_CAPACITY = 64 * 1024;
+
     private boolean bPubmedArticleSet;
     private boolean bPubmedArticle;
     private boolean bMedlineCitation;
@@ -152,13 +156,166 @@ public class PubmedEFetchHandler extends DefaultHandler {
     private boolean bCommentsCorrectionsRefSource;
     private boolean bCommentsCorrectionsPmidVersion;
     private boolean bCommentsCorrectionsPmid;
+    private boolean bDeleteCitation;
+    private boolean bDeleteCitationPmid;
+
+    // Cited works carry their own ArticleIdList and Title, which must not be read as those of the article.
+    private int referenceListDepth;
 
-    private List<PubMedArticle> pubmedArticles;
+    private PubMedArticleSink pubMedArticleSink;
+    private ListPubMedArticleSink listSink;
     private PubMedArticle pubmedArticle;
-    private StringBuilder chars = new StringBuilder();
-    
+    private StringBuilder chars = new StringBuilder(CHARS_CAPACITY);
+    private final VocabularyInterner vocabularyInterner;
+
+    /**
+     * Collects the articles into the list returned by {@link #getPubmedArticles()}.
+     */
+    public PubmedEFetchHandler() {
+        this(VocabularyInterner.NONE);
+    }
+
+    /**
+     * Collects the articles, sharing repeated values through {@code vocabularyInterner}.
+     */
+    public PubmedEFetchHandler(VocabularyInterner vocabularyInterner) {
+        this.vocabularyInterner = vocabularyInterner;
+        reset();
+    }
+
+    /**
+     * Hands every article to {@code pubMedArticleSink} when it ends instead of collecting them.
+     */
+    public PubmedEFetchHandler(PubMedArticleSink pubMedArticleSink) {
+        this.vocabularyInterner = VocabularyInterner.NONE;
+        reset(pubMedArticleSink);
+    }
+
+    /**
+     * Prepares the handler for the next document, collecting its articles into a new list. Must be called before
+     * a handler is used again, also after a parse that failed half way through an article.
+     */
+    public void reset() {
+        reset(new ListPubMedArticleSink());
+    }
+
+    /**
+     * Prepares the handler for the next document, handing its articles to {@code pubMedArticleSink}.
+     */
+    public void reset(PubMedArticleSink pubMedArticleSink) {
+        this.pubMedArticleSink = pubMedArticleSink;
+        this.listSink = pubMedArticleSink instanceof ListPubMedArticleSink ? (ListPubMedArticleSink) pubMedArticleSink : null;
+        pubmedArticle = null;
+        referenceListDepth = 0;
+        // A long abstract grows the buffer, do not keep that much memory around in a pooled handler.
+        if (chars.capacity() > MAX_RETAINED_CHARS_CAPACITY) {
+            chars = new StringBuilder(CHARS_CAPACITY);
+        } else {
+            chars.setLength(0);
+        }
+        bPubmedArticleSet = false;
+        bPubmedArticle = false;
+        bMedlineCitation = false;
+        bPMID = false;
+        bPMCID = false;
+        bDateCreated = false;
+        bDateCreatedYear = false;
+        bDateCreatedMonth = false;
+        bDateCreatedDay = false;
+        bDateCompleted = false;
+        bDateCompletedYear = false;
+        bDateCompletedMonth = false;
+        bDateCompletedDay = false;
+        bArticle = false;
+        bJournal = false;
+        bISSN = false;
+        bJournalIssue = false;
+        bVolume = false;
+        bIssue = false;
+        bPubDate = false;
+        bMedlineDate = false;
+        bPubDateYear = false;
+        bPubDateMonth = false;
+        bPubDateDay = false;
+        bJournalTitle = false;
+        bJournalISOAbbreviation = false;
+        bArticleTitle = false;
+        bArticleDate = false;
+        bArticleDateYear = false;
+        bArticleDateMonth = false;
+        bArticleDateDay = false;
+        bPagination = false;
+        bMedlinePgn = false;
+        bELocationID = false;
+        bAbstract = false;
+        bAbstractText = false;
+        bCopyrightInformation = false;
+        bAuthorList = false;
+        bAuthor = false;
+        bAuthorLastName = false;
+        bAuthorForeName = false;
+        bAuthorInitials = false;
+        bAffiliationInfo = false;
+        bAffiliation = false;
+        bPublicationTypeList = false;
+        bPublicationType = false;
+        bMedlineJournalInfo = false;
+        bCountry = false;
+        bMedlineTA = false;
+        bNlmUniqueID = false;
+        bISSNLinking = false;
+        bCitationSubset = false;
+        bMeshHeadingList = false;
+        bMeshHeading = false;
+        bDescriptorName = false;
+        bMajorTopicYN = false;
+        bQualifierName = false;
+        bKeywordList = false;
+        bKeyword = false;
+        bPubmedData = false;
+        bHistory = false;
+        bPubMedPubDate = false;
+        bPubMedPubDateYear = false;
+        bPubMedPubDateMonth = false;
+        bPubMedPubDateDay = false;
+        bPubMedPubDateHour = false;
+        bPubMedPubDateMinute = false;
+        bPublicationStatus = false;
+        bArticleIdList = false;
+        bArticleId = false;
+        bArticleIdPubMed = false;
+        bArticleIdPii = false;
+        bArticleIdDoi = false;
+        bArticleIdPmc = false;
+        bGrantList = false;
+        bGrant = false;
+        bGrantId = false;
+        bGrantAcronym = false;
+        bGrantAgency = false;
+        bGrantCountry = false;
+        bCommentsCorrectionsList = false;
+        bCommentsCorrections = false;
+        bCommentsCorrectionsRefType = false;
+        bCommentsCorrectionsRefSource = false;
+        bCommentsCorrectionsPmidVersion = false;
+        bCommentsCorrectionsPmid = false;
+        bDeleteCitation = false;
+        bDeleteCitationPmid = false;
+    }
+
+    /**
+     * @return the text of the element that just ended, shared with earlier occurrences of the same value. For
+     * values that repeat across articles: names, journals, dates, MeSH terms, grants.
+     */
+    private String vocabulary() {
+        return vocabularyInterner.intern(chars);
+    }
+
+    /**
+     * @return the parsed articles, or {@code null} if they went to another {@link PubMedArticleSink}
+     */
     public List<PubMedArticle> getPubmedArticles() {
-        return pubmedArticles;
+        return listSink == null ? null : listSink.getPubMedArticles();
     }
 
     private MedlineCitationYNEnum getMedlineCitationYNEnum(Attributes attributes) {
@@ -216,12 +373,17 @@ public class PubmedEFetchHandler extends DefaultHandler {
 			if(matcher.find()) {
 				month = matcher.group();
 				DateTimeFormatter parser = DateTimeFormatter.ofPattern("MMM").withLocale(Locale.ENGLISH);
-				TemporalAccessor accessor = parser.parse(month);
-				int monthNumber = accessor.get(ChronoField.MONTH_OF_YEAR);
-				if(monthNumber != 0 && monthNumber < 10) {
-					month = "0" + String.valueOf(monthNumber);
-				} else {
-					month = String.valueOf(monthNumber);
+				try {
+					TemporalAccessor accessor = parser.parse(month);
+					int monthNumber = accessor.get(ChronoField.MONTH_OF_YEAR);
+					if(monthNumber != 0 && monthNumber < 10) {
+						month = "0" + String.valueOf(monthNumber);
+					} else {
+						month = String.valueOf(monthNumber);
+					}
+				} catch (DateTimeParseException e) {
+					// A season such as "Spr" or "Win", or a word that is not a month.
+					month = null;
 				}
 				
 			}
@@ -249,10 +411,24 @@ public class PubmedEFetchHandler extends DefaultHandler {
     @Override
     public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
 
+        if (referenceListDepth > 0 || qName.equalsIgnoreCase("ReferenceList")) {
+            if (qName.equalsIgnoreCase("ReferenceList")) {
+                referenceListDepth++;
+            }
+            return;
+        }
+
         chars.setLength(0);
 
         if (qName.equalsIgnoreCase("PubmedArticleSet")) {
-            pubmedArticles = new ArrayList<>(); // create a new list of PubmedArticle.
+            pubMedArticleSink.startArticleSet();
+        }
+        // Update files end with the PMIDs of citations removed from PubMed.
+        if (qName.equalsIgnoreCase("DeleteCitation")) {
+            bDeleteCitation = true;
+        }
+        if (bDeleteCitation && qName.equalsIgnoreCase("PMID")) {
+            bDeleteCitationPmid = true;
         }
         if (qName.equalsIgnoreCase("PubmedArticle")) {
             pubmedArticle = PubMedArticle.builder().build(); // create a new PubmedArticle.
@@ -576,6 +752,19 @@ public class PubmedEFetchHandler extends DefaultHandler {
 
     @Override
     public void endElement(String uri, String localName, String qName) throws SAXException {
+        if (referenceListDepth > 0) {
+            if (qName.equalsIgnoreCase("ReferenceList")) {
+                referenceListDepth--;
+            }
+            return;
+        }
+        if (bDeleteCitationPmid) {
+            pubMedArticleSink.deleteCitation(Long.parseLong(chars.toString().trim()));
+            bDeleteCitationPmid = false;
+        }
+        if (qName.equalsIgnoreCase("DeleteCitation")) {
+            bDeleteCitation = false;
+        }
         //This check was introduced for articles which are of book type returning  <PubmedBookArticle> tag
         if (pubmedArticle != null) {
             // PMID
@@ -603,7 +792,7 @@ public class PubmedEFetchHandler extends DefaultHandler {
 
             // Author last name.
             if (bAuthorLastName) {
-                String authorLastName = chars.toString();
+                String authorLastName = vocabulary();
                 int lastInsertedIndex = pubmedArticle.getMedlinecitation().getArticle().getAuthorlist().size() - 1;
                 pubmedArticle.getMedlinecitation().getArticle().getAuthorlist().get(lastInsertedIndex).setLastname(authorLastName);
                 bAuthorLastName = false;
@@ -611,7 +800,7 @@ public class PubmedEFetchHandler extends DefaultHandler {
 
             // Author fore name.
             if (bAuthorForeName) {
-                String authorForeName = chars.toString();
+                String authorForeName = vocabulary();
                 int lastInsertedIndex = pubmedArticle.getMedlinecitation().getArticle().getAuthorlist().size() - 1;
                 pubmedArticle.getMedlinecitation().getArticle().getAuthorlist().get(lastInsertedIndex).setForename(authorForeName);
                 bAuthorForeName = false;
@@ -619,7 +808,7 @@ public class PubmedEFetchHandler extends DefaultHandler {
 
             // Author middle initials.
             if (bAuthorInitials) {
-                String authorInitials = chars.toString();
+                String authorInitials = vocabulary();
                 int lastInsertedIndex = pubmedArticle.getMedlinecitation().getArticle().getAuthorlist().size() - 1;
                 pubmedArticle.getMedlinecitation().getArticle().getAuthorlist().get(lastInsertedIndex).setInitials(authorInitials);
                 bAuthorInitials = false;
@@ -627,21 +816,21 @@ public class PubmedEFetchHandler extends DefaultHandler {
 
             // Author affiliations.
             if (bAffiliation) {
-                String affiliation = chars.toString();
+                String affiliation = vocabulary();
                 int lastInsertedIndex = pubmedArticle.getMedlinecitation().getArticle().getAuthorlist().size() - 1;
                 pubmedArticle.getMedlinecitation().getArticle().getAuthorlist().get(lastInsertedIndex).setAffiliation(affiliation);
                 bAffiliation = false;
             }
             
             if(bISSN) {
-            	String issn = chars.toString();
+            	String issn = vocabulary();
             	int lastInsertedIndex = pubmedArticle.getMedlinecitation().getArticle().getJournal().getIssn().size() - 1;
             	pubmedArticle.getMedlinecitation().getArticle().getJournal().getIssn().get(lastInsertedIndex).setIssn(issn);
             	bISSN = false;
             }
             
             if(bISSNLinking) {
-            	String lissn = chars.toString();
+            	String lissn = vocabulary();
             	int lastInsertedIndex = pubmedArticle.getMedlinecitation().getArticle().getJournal().getIssn().size() - 1;
             	pubmedArticle.getMedlinecitation().getArticle().getJournal().getIssn().get(lastInsertedIndex).setIssn(lissn);
             	bISSNLinking = false;
@@ -649,42 +838,42 @@ public class PubmedEFetchHandler extends DefaultHandler {
 
             // Journal Volume
             if (bVolume) {
-                String volume = chars.toString();
+                String volume = vocabulary();
                 pubmedArticle.getMedlinecitation().getArticle().getJournal().getJournalissue().setVolume(volume);
                 bVolume = false;
             }
 
             // Journal issue
             if (bIssue) {
-                String issue = chars.toString();
+                String issue = vocabulary();
                 pubmedArticle.getMedlinecitation().getArticle().getJournal().getJournalissue().setIssue(issue);
                 bIssue = false;
             }
 
             // Journal title
             if (bArticle && bJournalTitle) {
-                String journalTitle = chars.toString();
+                String journalTitle = vocabulary();
                 pubmedArticle.getMedlinecitation().getArticle().getJournal().setTitle(journalTitle);
                 bJournalTitle = false;
             }
 
             // Journal ISO abbreviation.
             if (bJournalISOAbbreviation) {
-                String isoAbbr = chars.toString();
+                String isoAbbr = vocabulary();
                 pubmedArticle.getMedlinecitation().getArticle().getJournal().setIsoAbbreviation(isoAbbr);
                 bJournalISOAbbreviation = false;
             }
 
             // Journal Year.
             if (bPubDate && bPubDateYear) {
-                String pubDateYear = chars.toString();
+                String pubDateYear = vocabulary();
                 pubmedArticle.getMedlinecitation().getArticle().getJournal().getJournalissue().getPubdate().setYear(pubDateYear);
                 //bPubDate = false;
                 bPubDateYear = false;
             }
             
             if (bPubDate && bPubDateMonth) {
-                String pubDateMonth = chars.toString();
+                String pubDateMonth = vocabulary();
                 if(pubDateMonth.trim().length() == 3) {
                 	DateTimeFormatter parser = DateTimeFormatter.ofPattern("MMM").withLocale(Locale.ENGLISH);
         			TemporalAccessor accessor = parser.parse(pubDateMonth);
@@ -701,7 +890,7 @@ public class PubmedEFetchHandler extends DefaultHandler {
             }
             
             if (bPubDate && bPubDateDay) {
-                String pubDateDay = chars.toString();
+                String pubDateDay = vocabulary();
                 pubmedArticle.getMedlinecitation().getArticle().getJournal().getJournalissue().getPubdate().setDay(pubDateDay);
                 //bPubDate = false;
                 bPubDateDay = false;
@@ -740,7 +929,7 @@ public class PubmedEFetchHandler extends DefaultHandler {
             //Publication Type
             if (bPublicationTypeList && bPublicationType) {
                 MedlineCitationPublicationType publicationType = MedlineCitationPublicationType.builder().build();
-                publicationType.setPublicationtype(chars.toString());
+                publicationType.setPublicationtype(vocabulary());
                 pubmedArticle.getMedlinecitation().getArticle().getPublicationtypelist().add(publicationType);
                 bPublicationType = false;
             }
@@ -771,14 +960,14 @@ public class PubmedEFetchHandler extends DefaultHandler {
             // Keyword.
             if (bKeywordList && bKeyword) {
                 MedlineCitationKeyword keyword = MedlineCitationKeyword.builder().build();
-                keyword.setKeyword(chars.toString());
+                keyword.setKeyword(vocabulary());
                 pubmedArticle.getMedlinecitation().getKeywordlist().getKeywordlist().add(keyword);
                 bKeyword = false;
             }
 
             // MeSH descriptor name.
             if (bDescriptorName) {
-                String descriptorName = chars.toString();
+                String descriptorName = vocabulary();
                 int lastInsertedIndex = pubmedArticle.getMedlinecitation().getMeshheadinglist().size() - 1;
                 pubmedArticle.getMedlinecitation().getMeshheadinglist().get(lastInsertedIndex).getDescriptorname().setDescriptorname(descriptorName); // set descriptor name for MeSH.
                 bDescriptorName = false;
@@ -786,7 +975,7 @@ public class PubmedEFetchHandler extends DefaultHandler {
 
             // MeSH qualifier name.
             if (bQualifierName) {
-                String qualifierName = chars.toString();
+                String qualifierName = vocabulary();
                 int lastInsertedMeshHeadingIndex = pubmedArticle.getMedlinecitation().getMeshheadinglist().size() - 1;
                 MedlineCitationMeshHeading meshHeading = pubmedArticle.getMedlinecitation().getMeshheadinglist().get(lastInsertedMeshHeadingIndex);
                 int lastInsertedQualifierNameIndex = meshHeading.getQualifiernamelist().size() - 1;
@@ -796,9 +985,9 @@ public class PubmedEFetchHandler extends DefaultHandler {
                 bQualifierName = false;
             }
             
-            // End of PubmedArticle tag. Add the PubmedArticle to the pubmedArticleList.
+            // End of PubmedArticle tag. Hand the PubmedArticle to the sink.
             if (qName.equalsIgnoreCase("PubmedArticle")) {
-                pubmedArticles.add(pubmedArticle);
+                pubMedArticleSink.accept(pubmedArticle);
             }
             
             // End of Article tag.
@@ -824,21 +1013,21 @@ public class PubmedEFetchHandler extends DefaultHandler {
             }
 
             if (bGrant && bGrantAcronym) {
-                String grantAcronym = chars.toString();
+                String grantAcronym = vocabulary();
                 int lastInsertedIndex = pubmedArticle.getMedlinecitation().getArticle().getGrantlist().size() - 1;
                 pubmedArticle.getMedlinecitation().getArticle().getGrantlist().get(lastInsertedIndex).setAcronym(grantAcronym);
                 bGrantAcronym = false;
             }
 
             if (bGrant && bGrantAgency) {
-                String grantAgency = chars.toString();
+                String grantAgency = vocabulary();
                 int lastInsertedIndex = pubmedArticle.getMedlinecitation().getArticle().getGrantlist().size() - 1;
                 pubmedArticle.getMedlinecitation().getArticle().getGrantlist().get(lastInsertedIndex).setAgency(grantAgency);
                 bGrantAgency = false;
             }
 
             if (bGrant && bGrantCountry) {
-                String grantCountry = chars.toString();
+                String grantCountry = vocabulary();
                 int lastInsertedIndex = pubmedArticle.getMedlinecitation().getArticle().getGrantlist().size() - 1;
                 pubmedArticle.getMedlinecitation().getArticle().getGrantlist().get(lastInsertedIndex).setCountry(grantCountry);
                 bGrantCountry = false;
@@ -877,19 +1066,19 @@ public class PubmedEFetchHandler extends DefaultHandler {
             
             //End of <ArticleDate> tag
             if(bArticleDate && qName.equalsIgnoreCase("Year")) {
-            	String articleDateYear = chars.toString();
+            	String articleDateYear = vocabulary();
             	pubmedArticle.getMedlinecitation().getArticle().getArticledate().setYear(articleDateYear);
             	bArticleDateYear = false;
             }
             
             if(bArticleDate && qName.equalsIgnoreCase("Month")) {
-            	String articleDateMonth = chars.toString();
+            	String articleDateMonth = vocabulary();
             	pubmedArticle.getMedlinecitation().getArticle().getArticledate().setMonth(articleDateMonth);
             	bArticleDateMonth = false;
             }
             
             if(bArticleDate && qName.equalsIgnoreCase("Day")) {
-            	String articleDateDay = chars.toString();
+            	String articleDateDay = vocabulary();
             	pubmedArticle.getMedlinecitation().getArticle().getArticledate().setDay(articleDateDay);
             	bArticleDateDay = false;
             }
@@ -899,21 +1088,21 @@ public class PubmedEFetchHandler extends DefaultHandler {
             }
             
             if(bPubMedPubDate && bPubMedPubDateYear) {
-            	String pubmedPubDateYear = chars.toString();
+            	String pubmedPubDateYear = vocabulary();
                 int lastInsertedIndex = pubmedArticle.getPubmeddata().getHistory().getPubmedPubDate().size() - 1;
                 pubmedArticle.getPubmeddata().getHistory().getPubmedPubDate().get(lastInsertedIndex).getPubMedPubDate().setYear(pubmedPubDateYear);
                 bPubMedPubDateYear = false;
             }
             
             if(bPubMedPubDate && bPubMedPubDateMonth) {
-            	String pubmedPubDateMonth = chars.toString();
+            	String pubmedPubDateMonth = vocabulary();
                 int lastInsertedIndex = pubmedArticle.getPubmeddata().getHistory().getPubmedPubDate().size() - 1;
                 pubmedArticle.getPubmeddata().getHistory().getPubmedPubDate().get(lastInsertedIndex).getPubMedPubDate().setMonth(pubmedPubDateMonth);
                 bPubMedPubDateMonth = false;
             }
             
             if(bPubMedPubDate && bPubMedPubDateDay) {
-            	String pubmedPubDateDay = chars.toString();
+            	String pubmedPubDateDay = vocabulary();
                 int lastInsertedIndex = pubmedArticle.getPubmeddata().getHistory().getPubmedPubDate().size() - 1;
                 pubmedArticle.getPubmeddata().getHistory().getPubmedPubDate().get(lastInsertedIndex).getPubMedPubDate().setDay(pubmedPubDateDay);
                 bPubMedPubDateDay = false;
@@ -960,7 +1149,14 @@ public class PubmedEFetchHandler extends DefaultHandler {
 
     @Override
     public void characters(char[] ch, int start, int length) throws SAXException {
+        if (referenceListDepth > 0) {
+            return;
+        }
     	
+        if (bDeleteCitationPmid) {
+            chars.append(ch, start, length);
+        }
+
         if (bMedlineCitation && bPMID) {
             chars.append(ch, start, length);
         }
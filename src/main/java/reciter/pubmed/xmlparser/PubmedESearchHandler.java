@@ -2,35 +2,16 @@ package reciter.pubmed.xmlparser;
 
 import lombok.extern.slf4j.Slf4j;
 
-import org.apache.commons.io.IOUtils;
-import org.apache.http.Header;
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.NameValuePair;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.params.ClientPNames;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.message.BasicNameValuePair;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
+import reciter.pubmed.client.ESearchClient;
 import reciter.pubmed.model.PubmedESearchResult;
 import reciter.pubmed.querybuilder.PubmedXmlQuery;
 
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParserFactory;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.StringWriter;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * A SAX handler for parsing the ESearch query from PubMed.
@@ -46,8 +27,6 @@ public class PubmedESearchHandler extends DefaultHandler {
     private boolean bCount;
     private int numCountEncounteredSoFar = 0;
     
-    private static ObjectMapper objectMapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-
     private StringBuilder chars = new StringBuilder();
 
     /**
@@ -75,73 +54,10 @@ public class PubmedESearchHandler extends DefaultHandler {
         }*/
         PubmedXmlQuery pubmedXmlQuery = new PubmedXmlQuery(eSearchUrl);
         pubmedXmlQuery.setRetMax(1);
-        String fullUrl = pubmedXmlQuery.buildESearchQuery(); // build eSearch query.
-        log.info("ESearch Query=[" + fullUrl + "]");
-        if(pubmedXmlQuery.getApiKey() != null &&
-       		  !pubmedXmlQuery.getApiKey().isEmpty()) {
-        	fullUrl = PubmedXmlQuery.ESEARCH_BASE_URL + "?api_key=" + pubmedXmlQuery.getApiKey();
-	      } else {
-	      	fullUrl = PubmedXmlQuery.ESEARCH_BASE_URL;
-	      }
-
         try {
-            HttpClient httpClient = HttpClients.createDefault();
-            HttpPost httppost = new HttpPost(fullUrl);
-            //httppost.setHeader(HttpHeaders.ACCEPT, "application/xml");
-            // Request parameters and other properties.
-            List<NameValuePair> params = new ArrayList<NameValuePair>();
-            params.add(new BasicNameValuePair("db", pubmedXmlQuery.getDb()));
-            params.add(new BasicNameValuePair("retmax", String.valueOf(pubmedXmlQuery.getRetMax())));
-            params.add(new BasicNameValuePair("usehistory", pubmedXmlQuery.getUseHistory()));
-            params.add(new BasicNameValuePair("term", java.net.URLDecoder.decode(pubmedXmlQuery.getTerm(), "UTF-8")));
-            params.add(new BasicNameValuePair("retmode", pubmedXmlQuery.getRetMode()));
-            params.add(new BasicNameValuePair("retstart", String.valueOf(pubmedXmlQuery.getRetStart())));
-            httppost.setEntity(new UrlEncodedFormEntity(params));
-            httppost.setHeader("Content-Type", "application/x-www-form-urlencoded");
-            httppost.getParams().setParameter(ClientPNames.COOKIE_POLICY, "standard");
-            //Execute and get the response.
-            
-            HttpResponse response = httpClient.execute(httppost);
-            Header[] headerRateLimitRemaining = response.getHeaders("X-RateLimit-Remaining");
-            Header[] headerRetryAfter = response.getHeaders("Retry-After");
-            
-            if(headerRateLimitRemaining != null && headerRateLimitRemaining.length > 0 && headerRateLimitRemaining[0] != null && Integer.parseInt(headerRateLimitRemaining[0].getValue()) == 0) {
-            	if(headerRetryAfter != null && headerRetryAfter.length > 0 && headerRetryAfter[0] != null) {
-            		try {
-            			Thread.sleep(Long.parseLong(headerRetryAfter[0].getValue()) * 1000L);
-            		} catch (InterruptedException e) {
-            			log.error("InterruptedException", e);
-            		}
-            		response = httpClient.execute(httppost);
-            	}
-            }
-            
-			/*
-			 * Header[] headers = response.getAllHeaders(); for (Header header : headers) {
-			 * if(header.getName().equalsIgnoreCase("X-RateLimit-Limit") ||
-			 * header.getName().equalsIgnoreCase("X-RateLimit-Remaining") ||
-			 * header.getName().equalsIgnoreCase("Retry-After")) { log.info("Key : " +
-			 * header.getName() + " ,Value : " + header.getValue()); } }
-			 */
-
-            HttpEntity entity = response.getEntity();
-
-            if (entity != null) {
-                InputStream esearchStream = entity.getContent();
-				/*
-				 * StringWriter writer = new StringWriter(); IOUtils.copy(esearchStream, writer,
-				 * "UTF-8"); log.info(writer.toString());
-				 */
-                //String sanitizedStream = IOUtils.toString(esearchStream).trim().replaceFirst("^([\\W]+)<","<");
-                //log.info(sanitizedStream);
-                //SAXParserFactory.newInstance().newSAXParser().parse(esearchStream, webEnvHandler);
-    			JsonNode json = objectMapper.readTree(esearchStream).get("esearchresult");
-    			if(json != null) {
-    				eSearchResult = objectMapper.treeToValue(json, PubmedESearchResult.class);
-    			}
-            }
+            eSearchResult = ESearchClient.standalone().search(pubmedXmlQuery, "handler");
         } catch (IOException e) {
-            log.error("Error parsing XML file for query=[" + eSearchUrl + "], full url=[" + fullUrl + "]", e);
+            log.error("Error in ESearch for query=[" + eSearchUrl + "]", e);
         }
 
         return eSearchResult;
@@ -0,0 +1,77 @@
+package reciter.pubmed.xmlparser;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Pushes the document through a {@link PubmedEFetchHandler}. Parsers and handlers are borrowed from a
+ * {@link ParsingContextPool} for one document and reset before they are returned; a pair whose parse failed is
+ * dropped instead.
+ */
+public class SaxPubMedArticleParser implements PubMedArticleParser {
+
+    static final String LOAD_EXTERNAL_DTD = "http://apache.org/xml/features/nonvalidating/load-external-dtd";
+
+    private final SAXParserFactory saxParserFactory;
+    private final VocabularyInterner vocabularyInterner;
+    private final ParsingContextPool<SaxContext> pool;
+
+    public SaxPubMedArticleParser() {
+        this(DEFAULT_POOL_SIZE);
+    }
+
+    public SaxPubMedArticleParser(int poolSize) {
+        this(poolSize, new VocabularyInterner(VocabularyInterner.DEFAULT_CAPACITY));
+    }
+
+    public SaxPubMedArticleParser(int poolSize, VocabularyInterner vocabularyInterner) {
+        this.vocabularyInterner = vocabularyInterner;
+        saxParserFactory = SAXParserFactory.newInstance();
+        try {
+            // EFetch documents reference the PubMed DTD on dtd.nlm.nih.gov. Nothing the handler reads depends on it.
+            saxParserFactory.setFeature(LOAD_EXTERNAL_DTD, false);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IllegalStateException(e);
+        }
+        pool = new ParsingContextPool<>(this::newContext, poolSize);
+    }
+
+    @Override
+    public void parse(Reader reader, PubMedArticleSink pubMedArticleSink) throws IOException, SAXException {
+        SaxContext context = pool.borrow();
+        context.handler.reset(pubMedArticleSink);
+        context.saxParser.parse(new InputSource(reader), context.handler);
+        context.saxParser.reset();
+        context.handler.reset();
+        pool.release(context);
+    }
+
+    ParsingContextPool<SaxContext> getPool() {
+        return pool;
+    }
+
+    private SaxContext newContext() {
+        try {
+            return new SaxContext(saxParserFactory.newSAXParser(), new PubmedEFetchHandler(vocabularyInterner));
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static class SaxContext {
+
+        private final SAXParser saxParser;
+        private final PubmedEFetchHandler handler;
+
+        SaxContext(SAXParser saxParser, PubmedEFetchHandler handler) {
+            this.saxParser = saxParser;
+            this.handler = handler;
+        }
+    }
+}
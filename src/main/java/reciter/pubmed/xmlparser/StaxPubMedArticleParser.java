@@ -0,0 +1,123 @@
+package reciter.pubmed.xmlparser;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Pulls the document with an {@link XMLStreamReader} and feeds the elements to a {@link PubmedEFetchHandler}, so
+ * that both engines map articles with the same code. Subtrees the handler has no use for are skipped without
+ * building attributes or dispatching their events. Handlers are pooled, stream readers are made per document.
+ */
+public class StaxPubMedArticleParser implements PubMedArticleParser {
+
+    /**
+     * Elements of {@code MedlineCitation} and {@code PubmedData} that contain nothing the handler reads.
+     */
+    static final Set<String> SKIPPED_ELEMENTS = new HashSet<>(Arrays.asList(
+            "ChemicalList", "DataBankList", "SupplMeshList", "GeneSymbolList", "CitationSubset", "GeneralNote",
+            "OtherID", "NumberOfReferences", "PersonalNameSubjectList", "SpaceFlightMission", "ReferenceList"));
+
+    private final XMLInputFactory xmlInputFactory;
+    private final ParsingContextPool<PubmedEFetchHandler> pool;
+
+    public StaxPubMedArticleParser() {
+        this(DEFAULT_POOL_SIZE);
+    }
+
+    public StaxPubMedArticleParser(int poolSize) {
+        this(poolSize, new VocabularyInterner(VocabularyInterner.DEFAULT_CAPACITY));
+    }
+
+    public StaxPubMedArticleParser(int poolSize, VocabularyInterner vocabularyInterner) {
+        pool = new ParsingContextPool<>(() -> new PubmedEFetchHandler(vocabularyInterner), poolSize);
+        xmlInputFactory = XMLInputFactory.newInstance();
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    @Override
+    public void parse(Reader reader, PubMedArticleSink pubMedArticleSink) throws IOException, SAXException {
+        PubmedEFetchHandler handler = pool.borrow();
+        handler.reset(pubMedArticleSink);
+        AttributesImpl attributes = new AttributesImpl();
+        XMLStreamReader xml = null;
+        try {
+            xml = xmlInputFactory.createXMLStreamReader(reader);
+            handler.startDocument();
+            while (xml.hasNext()) {
+                switch (xml.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        String name = qName(xml);
+                        if (SKIPPED_ELEMENTS.contains(name)) {
+                            skipElement(xml);
+                            break;
+                        }
+                        attributes.clear();
+                        for (int i = 0; i < xml.getAttributeCount(); i++) {
+                            String attributeName = xml.getAttributeLocalName(i);
+                            attributes.addAttribute("", attributeName, attributeName, "CDATA", xml.getAttributeValue(i));
+                        }
+                        handler.startElement("", xml.getLocalName(), name, attributes);
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        handler.endElement("", xml.getLocalName(), qName(xml));
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        handler.characters(xml.getTextCharacters(), xml.getTextStart(), xml.getTextLength());
+                        break;
+                    default:
+                        break;
+                }
+            }
+            handler.endDocument();
+        } catch (XMLStreamException e) {
+            if (e.getNestedException() instanceof IOException) {
+                throw (IOException) e.getNestedException();
+            }
+            throw new SAXException(e.getMessage(), e);
+        } finally {
+            // Unlike a SAX parser, the handler can always be reset, also after a failed parse.
+            handler.reset();
+            pool.release(handler);
+            if (xml != null) {
+                try {
+                    xml.close();
+                } catch (XMLStreamException e) {
+                    // The reader is closed by the caller.
+                }
+            }
+        }
+    }
+
+    private static String qName(XMLStreamReader xml) {
+        String prefix = xml.getPrefix();
+        return prefix == null || prefix.isEmpty() ? xml.getLocalName() : prefix + ":" + xml.getLocalName();
+    }
+
+    /**
+     * Advances to the end tag of the element whose start tag was just read.
+     */
+    private static void skipElement(XMLStreamReader xml) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+}
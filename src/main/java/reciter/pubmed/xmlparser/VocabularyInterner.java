@@ -0,0 +1,70 @@
+package reciter.pubmed.xmlparser;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock free table that lets articles share one {@link String} per distinct journal title, MeSH term,
+ * author name, affiliation and the like. Strings are looked up by their characters, so a value seen before costs no
+ * allocation at all. The table is direct mapped: a colliding value replaces the previous one, which then is simply
+ * no longer shared. Nothing is ever interned in the JVM string pool. The application has one, sized by
+ * {@code pubmed.parser.intern-table-size}, that its parsers hand to their handlers.
+ */
+@Component
+public class VocabularyInterner {
+
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    /**
+     * Longer values, abstracts for instance, are rarely repeated and not worth a slot.
+     */
+    static final int MAX_LENGTH = 1024;
+
+    /**
+     * Shares nothing, for handlers that were not given a table.
+     */
+    public static final VocabularyInterner NONE = new VocabularyInterner(0);
+
+    private final AtomicReferenceArray<String> table;
+    private final int mask;
+
+    /**
+     * @param capacity number of slots, rounded up to a power of two; 0 turns interning off
+     */
+    @Autowired
+    public VocabularyInterner(@Value("${pubmed.parser.intern-table-size:65536}") int capacity) {
+        int size = capacity <= 0 ? 0 : Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        this.table = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    public int capacity() {
+        return table.length();
+    }
+
+    /**
+     * @return a string equal to {@code chars}, shared with earlier calls when possible
+     */
+    public String intern(CharSequence chars) {
+        int length = chars.length();
+        if (table.length() == 0 || length > MAX_LENGTH) {
+            return chars.toString();
+        }
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + chars.charAt(i);
+        }
+        // Same hash as String.hashCode(), spread so that short values do not crowd the low slots.
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        String existing = table.get(slot);
+        if (existing != null && existing.length() == length && existing.hashCode() == hash && existing.contentEquals(chars)) {
+            return existing;
+        }
+        String value = chars.toString();
+        table.lazySet(slot, value);
+        return value;
+    }
+}
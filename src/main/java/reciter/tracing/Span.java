@@ -0,0 +1,82 @@
+package reciter.tracing;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A timed stage of a {@link Trace}. Spans are closed with try-with-resources:
+ * <pre>
+ * try (Span span = RequestContext.span("esearch")) {
+ *     ...
+ * }
+ * </pre>
+ */
+@Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class Span implements AutoCloseable {
+
+    private static final Span NOOP = new Span(null, "noop", null);
+
+    @JsonIgnore
+    private final Trace trace;
+    private final String name;
+    private final String detail;
+    private final String thread;
+    @JsonIgnore
+    private final long startNanos;
+    @JsonIgnore
+    private volatile long durationNanos = -1;
+    private volatile String error;
+
+    Span(Trace trace, String name, String detail) {
+        this.trace = trace;
+        this.name = name;
+        this.detail = detail;
+        this.thread = Thread.currentThread().getName();
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * @return a span that belongs to no trace. Used when code runs outside of a request.
+     */
+    public static Span noop() {
+        return NOOP;
+    }
+
+    /**
+     * @return milliseconds between the start of the trace and the start of this span.
+     */
+    public double getOffsetMillis() {
+        return trace == null ? 0 : (startNanos - trace.getStartNanos()) / 1e6;
+    }
+
+    public double getDurationMillis() {
+        return durationNanos < 0 ? -1 : durationNanos / 1e6;
+    }
+
+    @JsonIgnore
+    public long getDuration(TimeUnit unit) {
+        return unit.convert(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Marks the span as failed. The span still has to be closed.
+     */
+    public void fail(Throwable t) {
+        if (trace == null) {
+            return;
+        }
+        this.error = t.getClass().getSimpleName() + ": " + t.getMessage();
+    }
+
+    @Override
+    public void close() {
+        if (trace != null && durationNanos < 0) {
+            durationNanos = System.nanoTime() - startNanos;
+            trace.add(this);
+        }
+    }
+}
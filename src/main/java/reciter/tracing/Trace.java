@@ -0,0 +1,92 @@
+package reciter.tracing;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The timeline of one HTTP request: an id plus the {@link Span}s recorded by the controller, the retrieval
+ * service and the EFetch callables while serving it. At most {@value #MAX_SPANS} spans are kept; later ones are only
+ * counted.
+ */
+@Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class Trace {
+
+    static final int MAX_SPANS = 1000;
+
+    private final String id;
+    private final String name;
+    private final Date started = new Date();
+    @JsonIgnore
+    private final long startNanos = System.nanoTime();
+    @JsonIgnore
+    private volatile long durationNanos = -1;
+    private volatile int status;
+    @Getter(AccessLevel.NONE)
+    private final List<Span> spans = new ArrayList<>();
+    @Getter(AccessLevel.NONE)
+    private int droppedSpans;
+
+    public Trace(String id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    public Span startSpan(String name, String detail) {
+        return new Span(this, name, detail);
+    }
+
+    /**
+     * Records a point in time, e.g. a retry decision, as a span without duration.
+     */
+    public void event(String name, String detail) {
+        startSpan(name, detail).close();
+    }
+
+    void add(Span span) {
+        synchronized (spans) {
+            if (spans.size() < MAX_SPANS) {
+                spans.add(span);
+            } else {
+                droppedSpans++;
+            }
+        }
+    }
+
+    public void finish(int status) {
+        this.status = status;
+        this.durationNanos = System.nanoTime() - startNanos;
+    }
+
+    public double getDurationMillis() {
+        return durationNanos < 0 ? -1 : durationNanos / 1e6;
+    }
+
+    /**
+     * @return number of spans closed after {@value #MAX_SPANS} were recorded.
+     */
+    public int getDroppedSpans() {
+        synchronized (spans) {
+            return droppedSpans;
+        }
+    }
+
+    /**
+     * @return the closed spans ordered by their start time.
+     */
+    public List<Span> getSpans() {
+        List<Span> copy;
+        synchronized (spans) {
+            copy = new ArrayList<>(spans);
+        }
+        copy.sort(Comparator.comparingLong(Span::getStartNanos));
+        return copy;
+    }
+}
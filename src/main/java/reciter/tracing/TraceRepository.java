@@ -0,0 +1,56 @@
+package reciter.tracing;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the most recently finished traces in memory so that slow requests can be inspected after the fact.
+ */
+@Component
+public class TraceRepository {
+
+    private final int capacity;
+    private final Deque<Trace> traces;
+
+    public TraceRepository(@Value("${pubmed.tracing.capacity:500}") int capacity) {
+        this.capacity = capacity;
+        this.traces = new ArrayDeque<>(capacity);
+    }
+
+    public synchronized void add(Trace trace) {
+        if (traces.size() == capacity) {
+            traces.removeFirst();
+        }
+        traces.addLast(trace);
+    }
+
+    /**
+     * @return up to {@code limit} of the retained traces, slowest first.
+     */
+    public List<Trace> slowest(int limit) {
+        List<Trace> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(traces);
+        }
+        return snapshot.stream()
+                .sorted(Comparator.comparingDouble(Trace::getDurationMillis).reversed())
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    public synchronized Trace find(String id) {
+        for (Trace trace : traces) {
+            if (trace.getId().equals(id)) {
+                return trace;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,132 @@
+package reciter.tracing;
+
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import reciter.context.RequestContext;
+import reciter.context.RequestContext.Lane;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * Assigns every retrieval request an id, echoes it in the {@value #REQUEST_ID_HEADER} response header and
+ * records its {@link Trace} in the {@link TraceRepository} once the response is complete. The client is taken from
+ * the {@value #CLIENT_ID_HEADER} header, or the remote address without one, and the lane from the
+ * {@value #LANE_HEADER} header; without one, batch endpoints go to the bulk lane. A deadline in milliseconds may be
+ * given with the {@value #TIMEOUT_HEADER} header or the {@value #TIMEOUT_PARAMETER} parameter, otherwise
+ * {@code pubmed.request.default-timeout-ms} applies if set.
+ */
+@Component
+@Order(TracingFilter.ORDER)
+public class TracingFilter extends OncePerRequestFilter {
+
+    public static final int ORDER = Ordered.HIGHEST_PRECEDENCE + 100;
+    public static final String REQUEST_ID_HEADER = "X-Request-Id";
+    public static final String CLIENT_ID_HEADER = "X-Client-Id";
+    public static final String LANE_HEADER = "X-Request-Lane";
+    public static final String TIMEOUT_HEADER = "X-Request-Timeout-Ms";
+    public static final String TIMEOUT_PARAMETER = "timeoutMs";
+
+    /**
+     * Request ids a client may supply. Anything else, e.g. a line break that would forge log lines, is replaced.
+     */
+    private static final Pattern REQUEST_ID = Pattern.compile("[A-Za-z0-9._-]{1,64}");
+
+    @Autowired
+    private TraceRepository traceRepository;
+
+    @Value("${pubmed.request.default-timeout-ms:0}")
+    private long defaultTimeoutMillis;
+
+    /**
+     * @return whether {@code request} is served with requests to NCBI
+     */
+    public static boolean isTraced(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return path.startsWith("/pubmed/query") || path.startsWith("/pubmed/lookup-ids");
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !isTraced(request);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String requestId = requestId(request.getHeader(REQUEST_ID_HEADER));
+        Trace trace = new Trace(requestId, request.getMethod() + " " + request.getRequestURI());
+        response.setHeader(REQUEST_ID_HEADER, requestId);
+        long timeoutMillis;
+        try {
+            timeoutMillis = timeoutMillis(request);
+        } catch (NumberFormatException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "The timeout must be a positive number of milliseconds");
+            return;
+        }
+        RequestContext context = new RequestContext(requestId, trace, clientId(request), lane(request));
+        if (timeoutMillis > 0) {
+            context.setTimeout(timeoutMillis);
+        }
+        RequestContext.bind(context);
+        MDC.put("requestId", requestId);
+        int status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+        try {
+            filterChain.doFilter(request, response);
+            status = response.getStatus();
+        } finally {
+            // An exception escaping the chain is turned into an error response only after this filter returns.
+            trace.finish(status);
+            traceRepository.add(trace);
+            context.finish();
+            MDC.remove("requestId");
+            RequestContext.unbind();
+        }
+    }
+
+    /**
+     * @return {@code supplied} if it is a valid request id, otherwise a new random one.
+     */
+    static String requestId(String supplied) {
+        return supplied != null && REQUEST_ID.matcher(supplied).matches() ? supplied : UUID.randomUUID().toString();
+    }
+
+    private long timeoutMillis(HttpServletRequest request) {
+        String timeout = request.getHeader(TIMEOUT_HEADER);
+        if (timeout == null || timeout.trim().isEmpty()) {
+            timeout = request.getParameter(TIMEOUT_PARAMETER);
+        }
+        if (timeout == null || timeout.trim().isEmpty()) {
+            return defaultTimeoutMillis;
+        }
+        long timeoutMillis = Long.parseLong(timeout.trim());
+        if (timeoutMillis <= 0) {
+            throw new NumberFormatException(timeout);
+        }
+        return timeoutMillis;
+    }
+
+    private static String clientId(HttpServletRequest request) {
+        String clientId = request.getHeader(CLIENT_ID_HEADER);
+        return clientId == null || clientId.trim().isEmpty() ? request.getRemoteAddr() : clientId.trim();
+    }
+
+    private static Lane lane(HttpServletRequest request) {
+        String lane = request.getHeader(LANE_HEADER);
+        if (lane != null && !lane.trim().isEmpty()) {
+            return "bulk".equalsIgnoreCase(lane.trim()) ? Lane.BULK : Lane.INTERACTIVE;
+        }
+        String path = request.getRequestURI();
+        return path.contains("-batch") || path.contains("/lookup-ids") ? Lane.BULK : Lane.INTERACTIVE;
+    }
+}
@@ -0,0 +1,84 @@
+package reciter.format;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.xml.sax.InputSource;
+import reciter.model.pubmed.PubMedArticle;
+import reciter.pubmed.callable.PubMedUriParserCallable;
+import reciter.pubmed.xmlparser.PubmedEFetchHandler;
+
+import javax.xml.parsers.SAXParserFactory;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Compares payload size and encode/decode time of a ReCiter sized result list in JSON, Smile and CBOR.
+ */
+@Slf4j
+public class ResponseFormatBenchmarkTest {
+
+    private static final String[] FIXTURES = {"28356292", "31746150", "31967741"};
+    private static final int ARTICLES = 2000;
+    private static final int ITERATIONS = 5;
+
+    private final List<PubMedArticle> pubMedArticles = new ArrayList<>();
+
+    @BeforeClass
+    public void setup() throws Exception {
+        SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
+        saxParserFactory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        List<PubMedArticle> fixtures = new ArrayList<>();
+        for (String pmid : FIXTURES) {
+            InputSource inputSource = new InputSource(new FileInputStream("src/test/resources/pubmed/callable/" + pmid + ".xml"));
+            fixtures.addAll(new PubMedUriParserCallable(new PubmedEFetchHandler(), saxParserFactory.newSAXParser(), inputSource).call());
+        }
+        for (int i = 0; i < ARTICLES; i++) {
+            pubMedArticles.add(fixtures.get(i % fixtures.size()));
+        }
+    }
+
+    @Test
+    public void testBinaryFormatsAreSmallerAndRoundTrip() throws IOException {
+        ObjectMapper json = Jackson2ObjectMapperBuilder.json().build();
+        String expected = json.writeValueAsString(pubMedArticles);
+
+        int jsonSize = measure("json", json);
+        int smileSize = measure("smile", ResponseFormatConfig.smileObjectMapper());
+        int cborSize = measure("cbor", ResponseFormatConfig.cborObjectMapper());
+
+        assertTrue(smileSize < jsonSize, "Smile " + smileSize + " bytes, JSON " + jsonSize + " bytes");
+        assertTrue(cborSize < jsonSize, "CBOR " + cborSize + " bytes, JSON " + jsonSize + " bytes");
+        assertEquals(json.writeValueAsString(roundTrip(ResponseFormatConfig.smileObjectMapper())), expected);
+        assertEquals(json.writeValueAsString(roundTrip(ResponseFormatConfig.cborObjectMapper())), expected);
+    }
+
+    private int measure(String format, ObjectMapper objectMapper) throws IOException {
+        byte[] payload = objectMapper.writeValueAsBytes(pubMedArticles);
+        long bestWrite = Long.MAX_VALUE;
+        long bestRead = Long.MAX_VALUE;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            payload = objectMapper.writeValueAsBytes(pubMedArticles);
+            bestWrite = Math.min(bestWrite, System.nanoTime() - start);
+            start = System.nanoTime();
+            objectMapper.readValue(payload, new TypeReference<List<PubMedArticle>>() {});
+            bestRead = Math.min(bestRead, System.nanoTime() - start);
+        }
+        log.info("{} articles as {}: {} bytes, serialize {} ms, deserialize {} ms", ARTICLES, format, payload.length,
+                bestWrite / 1_000_000, bestRead / 1_000_000);
+        return payload.length;
+    }
+
+    private List<PubMedArticle> roundTrip(ObjectMapper objectMapper) throws IOException {
+        return objectMapper.readValue(objectMapper.writeValueAsBytes(pubMedArticles), new TypeReference<List<PubMedArticle>>() {});
+    }
+}
@@ -0,0 +1,284 @@
+package reciter.load;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.apache.commons.io.FileUtils;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.LoggerFactory;
+import reciter.pubmed.model.PubMedQuery;
+import reciter.tracing.TracingFilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays a mix of {@link PubMedQuery} bodies against a running instance with a fixed number of concurrent clients
+ * and reports throughput, latency percentiles, errors and the instance's heap and GC activity, the latter scraped
+ * from {@code /pubmed/metrics}. Run it with {@code mvn -Pload-test test-compile exec:java}; settings are system
+ * properties:
+ * <ul>
+ * <li>{@code load.target} - base URL of the instance, default {@code http://localhost:5000}</li>
+ * <li>{@code load.queries} - JSONL file with one {@link PubMedQuery} per line, default {@code src/test/resources/load/queries.jsonl}</li>
+ * <li>{@code load.endpoint} - {@code query-complex} (POST the body), {@code query} (GET {@code /pubmed/query/{query}}) or {@code mixed}</li>
+ * <li>{@code load.concurrency} - number of clients, default 8</li>
+ * <li>{@code load.warmup-seconds} and {@code load.duration-seconds} - default 10 and 60, only the latter is measured</li>
+ * <li>{@code load.accept} - {@code Accept} header, default {@code application/json}</li>
+ * <li>{@code load.report} - optional file the report is also written to as JSON</li>
+ * </ul>
+ */
+public class LoadGenerator {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private final String target;
+    private final String endpoint;
+    private final String accept;
+    private final int concurrency;
+    private final List<PubMedQuery> queries;
+    private final CloseableHttpClient httpClient;
+
+    private final AtomicInteger next = new AtomicInteger();
+    private final List<Long> latencies = new ArrayList<>();
+    private final Map<String, AtomicLong> outcomes = new ConcurrentHashMap<>();
+    private final AtomicLong responseBytes = new AtomicLong();
+    private final List<Double> heapSamples = new ArrayList<>();
+    private volatile boolean measuring;
+
+    public LoadGenerator(String target, String endpoint, String accept, int concurrency, List<PubMedQuery> queries) {
+        this.target = target.endsWith("/") ? target.substring(0, target.length() - 1) : target;
+        this.endpoint = endpoint;
+        this.accept = accept;
+        this.concurrency = concurrency;
+        this.queries = queries;
+        this.httpClient = HttpClients.custom()
+                .setMaxConnPerRoute(concurrency + 1)
+                .setMaxConnTotal(concurrency + 1)
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        // Without a logback configuration on the test classpath HttpClient logs every byte on the wire.
+        ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.INFO);
+        List<PubMedQuery> queries = readQueries(new File(System.getProperty("load.queries", "src/test/resources/load/queries.jsonl")));
+        LoadGenerator loadGenerator = new LoadGenerator(
+                System.getProperty("load.target", "http://localhost:5000"),
+                System.getProperty("load.endpoint", "query-complex"),
+                System.getProperty("load.accept", "application/json"),
+                Integer.getInteger("load.concurrency", 8),
+                queries);
+        Map<String, Object> report = loadGenerator.run(Integer.getInteger("load.warmup-seconds", 10),
+                Integer.getInteger("load.duration-seconds", 60));
+        String json = objectMapper.writeValueAsString(report);
+        System.out.println(json);
+        String reportFile = System.getProperty("load.report");
+        if (reportFile != null && !reportFile.isEmpty()) {
+            FileUtils.writeStringToFile(new File(reportFile), json, StandardCharsets.UTF_8);
+        }
+        loadGenerator.httpClient.close();
+    }
+
+    static List<PubMedQuery> readQueries(File file) throws IOException {
+        List<PubMedQuery> queries = new ArrayList<>();
+        for (String line : FileUtils.readLines(file, StandardCharsets.UTF_8)) {
+            if (!line.trim().isEmpty()) {
+                queries.add(objectMapper.readValue(line, PubMedQuery.class));
+            }
+        }
+        if (queries.isEmpty()) {
+            throw new IllegalArgumentException("No queries in " + file);
+        }
+        return queries;
+    }
+
+    public Map<String, Object> run(int warmupSeconds, int durationSeconds) throws Exception {
+        long warmupEnd = System.currentTimeMillis() + warmupSeconds * 1000L;
+        long end = warmupEnd + durationSeconds * 1000L;
+        CountDownLatch done = new CountDownLatch(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            Thread client = new Thread(() -> {
+                try {
+                    clientLoop(Thread.currentThread().getName(), end);
+                } finally {
+                    done.countDown();
+                }
+            }, "load-client-" + i);
+            client.setDaemon(true);
+            client.start();
+        }
+
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        Thread.sleep(Math.max(0, warmupEnd - System.currentTimeMillis()));
+        Map<String, Double> metricsBefore = scrapeMetrics();
+        measuring = true;
+        long start = System.nanoTime();
+        sampler.scheduleAtFixedRate(() -> {
+            Double heap = scrapeMetrics().get("heap.used");
+            if (heap != null) {
+                synchronized (heapSamples) {
+                    heapSamples.add(heap);
+                }
+            }
+        }, 0, 1, TimeUnit.SECONDS);
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        measuring = false;
+        sampler.shutdownNow();
+        Map<String, Double> metricsAfter = scrapeMetrics();
+        return report(elapsed, metricsBefore, metricsAfter);
+    }
+
+    private void clientLoop(String clientId, long end) {
+        while (System.currentTimeMillis() < end) {
+            int index = next.getAndIncrement();
+            PubMedQuery query = queries.get(Math.floorMod(index, queries.size()));
+            boolean get = "query".equals(endpoint) || ("mixed".equals(endpoint) && index % 2 == 0);
+            long start = System.nanoTime();
+            String outcome;
+            long bytes = 0;
+            try (CloseableHttpResponse response = httpClient.execute(request(clientId, query, get))) {
+                bytes = response.getEntity() == null ? 0 : EntityUtils.toByteArray(response.getEntity()).length;
+                outcome = String.valueOf(response.getStatusLine().getStatusCode());
+            } catch (IOException e) {
+                outcome = e.getClass().getSimpleName();
+            }
+            long latency = System.nanoTime() - start;
+            if (measuring) {
+                synchronized (latencies) {
+                    latencies.add(latency);
+                }
+                outcomes.computeIfAbsent(outcome, key -> new AtomicLong()).incrementAndGet();
+                responseBytes.addAndGet(bytes);
+            }
+        }
+    }
+
+    private HttpUriRequest request(String clientId, PubMedQuery query, boolean get) throws IOException {
+        HttpUriRequest request;
+        if (get) {
+            request = new HttpGet(target + "/pubmed/query/" + URLEncoder.encode(query.toString(), "UTF-8").replace("+", "%20"));
+        } else {
+            HttpPost post = new HttpPost(target + "/pubmed/query-complex/");
+            post.setEntity(new StringEntity(objectMapper.writeValueAsString(query), ContentType.APPLICATION_JSON));
+            request = post;
+        }
+        request.setHeader("Accept", accept);
+        request.setHeader(TracingFilter.CLIENT_ID_HEADER, clientId);
+        return request;
+    }
+
+    private Map<String, Object> report(long elapsedNanos, Map<String, Double> before, Map<String, Double> after) {
+        long[] sorted;
+        synchronized (latencies) {
+            sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+        }
+        Arrays.sort(sorted);
+        double seconds = elapsedNanos / 1e9;
+        long requests = sorted.length;
+        long errors = outcomes.entrySet().stream()
+                .filter(outcome -> !outcome.getKey().startsWith("2"))
+                .mapToLong(outcome -> outcome.getValue().get())
+                .sum();
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("target", target);
+        report.put("endpoint", endpoint);
+        report.put("concurrency", concurrency);
+        report.put("durationSeconds", seconds);
+        report.put("requests", requests);
+        report.put("requestsPerSecond", requests / seconds);
+        report.put("errorRate", requests == 0 ? 0 : (double) errors / requests);
+        Map<String, Long> outcomeCounts = new TreeMap<>();
+        outcomes.forEach((outcome, count) -> outcomeCounts.put(outcome, count.get()));
+        report.put("outcomes", outcomeCounts);
+        Map<String, Double> latency = new LinkedHashMap<>();
+        for (double percentile : new double[]{50, 90, 99, 99.9}) {
+            latency.put("p" + (percentile == Math.rint(percentile) ? String.valueOf((int) percentile) : String.valueOf(percentile)),
+                    millis(percentile(sorted, percentile)));
+        }
+        latency.put("max", millis(sorted.length == 0 ? 0 : sorted[sorted.length - 1]));
+        report.put("latencyMillis", latency);
+        report.put("responseBytesPerRequest", requests == 0 ? 0 : responseBytes.get() / requests);
+
+        Map<String, Object> jvm = new LinkedHashMap<>();
+        synchronized (heapSamples) {
+            jvm.put("heapUsedMaxBytes", heapSamples.stream().mapToDouble(Double::doubleValue).max().orElse(Double.NaN));
+            jvm.put("heapUsedMeanBytes", heapSamples.stream().mapToDouble(Double::doubleValue).average().orElse(Double.NaN));
+        }
+        jvm.put("heapMaxBytes", after.getOrDefault("heap.max", Double.NaN));
+        jvm.put("gcPauses", delta(before, after, "gc.pause.count"));
+        jvm.put("gcPauseSeconds", delta(before, after, "gc.pause.sum"));
+        jvm.put("allocatedBytesPerRequest", requests == 0 ? Double.NaN : delta(before, after, "gc.allocated") / requests);
+        report.put("server", jvm);
+        return report;
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static double delta(Map<String, Double> before, Map<String, Double> after, String key) {
+        return after.getOrDefault(key, Double.NaN) - before.getOrDefault(key, Double.NaN);
+    }
+
+    /**
+     * Sums the JVM meters of the instance's Prometheus output. Returns an empty map if it cannot be scraped.
+     */
+    private Map<String, Double> scrapeMetrics() {
+        Map<String, Double> metrics = new ConcurrentHashMap<>();
+        try (CloseableHttpResponse response = httpClient.execute(new HttpGet(target + "/pubmed/metrics"))) {
+            for (String line : EntityUtils.toString(response.getEntity()).split("\n")) {
+                if (line.startsWith("#") || line.isEmpty()) {
+                    continue;
+                }
+                double value = Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1));
+                if (line.startsWith("jvm_memory_used_bytes{") && line.contains("area=\"heap\"")) {
+                    metrics.merge("heap.used", value, Double::sum);
+                } else if (line.startsWith("jvm_memory_max_bytes{") && line.contains("area=\"heap\"") && value > 0) {
+                    metrics.merge("heap.max", value, Double::sum);
+                } else if (line.startsWith("jvm_gc_pause_seconds_count{")) {
+                    metrics.merge("gc.pause.count", value, Double::sum);
+                } else if (line.startsWith("jvm_gc_pause_seconds_sum{")) {
+                    metrics.merge("gc.pause.sum", value, Double::sum);
+                } else if (line.startsWith("jvm_gc_memory_allocated_bytes_total{")) {
+                    metrics.merge("gc.allocated", value, Double::sum);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Unable to scrape " + target + "/pubmed/metrics: " + e);
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,48 @@
+package reciter.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+public class PubMedMetricsTest {
+
+    /**
+     * Test that a parsed document is one sample of the parse timer however many articles it held.
+     */
+    @Test
+    public void testParseTimeIsRecordedPerDocument() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        PubMedMetrics metrics = new PubMedMetrics(registry);
+        metrics.recordParseTime(TimeUnit.MILLISECONDS.toNanos(300), 10_000);
+        metrics.recordParseTime(TimeUnit.MILLISECONDS.toNanos(100), 2_000);
+        metrics.recordParseTime(TimeUnit.MILLISECONDS.toNanos(5), 0);
+
+        Timer documents = registry.find("pubmed.parse.document").timer();
+        assertEquals(documents.count(), 2);
+        DistributionSummary articles = registry.find("pubmed.parse.articles").summary();
+        assertEquals(articles.count(), 2);
+        assertEquals(articles.totalAmount(), 12_000.0);
+        assertEquals(documents.totalTime(TimeUnit.MICROSECONDS) / articles.totalAmount(), 400_000.0 / 12_000.0, 1e-9);
+    }
+
+    /**
+     * Test that meters tagged at the call site are registered once and then reused.
+     */
+    @Test
+    public void testTaggedMetersAreReused() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        PubMedMetrics metrics = new PubMedMetrics(registry);
+        assertSame(metrics.eSearchLatency("count"), metrics.eSearchLatency("count"));
+        metrics.recordUpstreamCall(PubMedMetrics.EFETCH, true);
+        metrics.recordUpstreamCall(PubMedMetrics.EFETCH, true);
+        metrics.recordUpstreamCall(PubMedMetrics.EFETCH, false);
+        assertEquals(registry.find("pubmed.upstream.requests").tag("outcome", "success").counter().count(), 2.0);
+        assertEquals(registry.find("pubmed.upstream.requests").tag("outcome", "error").counter().count(), 1.0);
+    }
+}
@@ -0,0 +1,32 @@
+package reciter.metrics;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+public class RecentOutcomesTest {
+
+    /**
+     * Test that only outcomes inside the window count towards the error rate.
+     */
+    @Test
+    public void testErrorRateForgetsOldOutcomes() {
+        RecentOutcomes recentOutcomes = new RecentOutcomes(10);
+        long now = 1_000_000L;
+        recentOutcomes.record(false, now);
+        recentOutcomes.record(false, now);
+        recentOutcomes.record(true, now + 5_000L);
+        recentOutcomes.record(true, now + 5_000L);
+        assertEquals(recentOutcomes.errorRate(now + 5_000L), 0.5);
+        assertEquals(recentOutcomes.total(now + 5_000L), 4);
+
+        // The failures are more than ten seconds old now.
+        assertEquals(recentOutcomes.errorRate(now + 12_000L), 0.0);
+        assertEquals(recentOutcomes.total(now + 12_000L), 2);
+
+        // A bucket that is reused for a later second starts from zero.
+        recentOutcomes.record(false, now + 20_000L);
+        assertEquals(recentOutcomes.total(now + 20_000L), 1);
+        assertEquals(recentOutcomes.errorRate(now + 20_000L), 1.0);
+    }
+}
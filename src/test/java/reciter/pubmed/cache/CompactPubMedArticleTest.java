@@ -0,0 +1,66 @@
+package reciter.pubmed.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.openjdk.jol.info.GraphLayout;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import reciter.model.pubmed.PubMedArticle;
+import reciter.pubmed.xmlparser.PubMedArticleParser;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Compares the heap held by parsed articles with that of their compact encoding.
+ */
+@Slf4j
+public class CompactPubMedArticleTest {
+
+    private static final Pattern ARTICLE = Pattern.compile("<PubmedArticle>.*?</PubmedArticle>", Pattern.DOTALL);
+    private static final int ARTICLES = 2000;
+
+    private final ObjectMapper json = Jackson2ObjectMapperBuilder.json().build();
+    private List<PubMedArticle> pubMedArticles;
+
+    @BeforeClass
+    public void setup() throws Exception {
+        List<String> articles = new ArrayList<>();
+        for (String pmid : new String[] {"28356292", "31746150", "31967741"}) {
+            String xml = new String(Files.readAllBytes(Paths.get("src/test/resources/pubmed/callable/" + pmid + ".xml")), StandardCharsets.UTF_8);
+            Matcher matcher = ARTICLE.matcher(xml);
+            while (matcher.find()) {
+                articles.add(matcher.group());
+            }
+        }
+        StringBuilder xml = new StringBuilder("<PubmedArticleSet>");
+        for (int i = 0; i < ARTICLES; i++) {
+            xml.append(articles.get(i % articles.size()));
+        }
+        // Parsed rather than copied, so that every article is an object graph of its own as in a real response.
+        pubMedArticles = PubMedArticleParser.of(PubMedArticleParser.SAX).parse(new StringReader(xml.append("</PubmedArticleSet>").toString()));
+    }
+
+    @Test
+    public void testCompactFormIsSmallerAndRoundTrips() throws Exception {
+        List<CompactPubMedArticle> compact = CompactPubMedArticle.encode(pubMedArticles);
+
+        long objectGraphBytes = GraphLayout.parseInstance(pubMedArticles).totalSize();
+        long compactBytes = GraphLayout.parseInstance(compact).totalSize();
+        log.info("{} articles: {} bytes per article as objects, {} bytes per article compact", ARTICLES,
+                objectGraphBytes / ARTICLES, compactBytes / ARTICLES);
+
+        assertTrue(compactBytes < objectGraphBytes, compactBytes + " compact bytes, " + objectGraphBytes + " object bytes");
+        assertEquals(json.writeValueAsString(CompactPubMedArticle.materialize(compact)), json.writeValueAsString(pubMedArticles));
+    }
+}
@@ -0,0 +1,90 @@
+package reciter.pubmed.cache;
+
+import com.google.common.base.Ticker;
+import org.testng.annotations.Test;
+import reciter.metrics.PubMedMetrics;
+import reciter.model.pubmed.PubMedArticle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class PubMedArticleCacheTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return now.get();
+        }
+    };
+
+    /**
+     * Test that a result goes from fresh to revalidatable to stale, and is only looked up until the stale retention
+     * ends.
+     */
+    @Test
+    public void testFreshnessWindows() {
+        PubMedArticleCache cache = new PubMedArticleCache(true, 10, 20, 60, 1000, true, 1, PubMedMetrics.noop(), ticker);
+        cache.put("query", Collections.<PubMedArticle>emptyList());
+        assertNotNull(cache.get("query"));
+        assertTrue(cache.lookup("query").isFresh());
+
+        now.addAndGet(TimeUnit.MINUTES.toNanos(15));
+        assertNull(cache.get("query"));
+        assertTrue(cache.lookup("query").isRevalidatable());
+
+        now.addAndGet(TimeUnit.MINUTES.toNanos(15));
+        PubMedArticleCache.Hit hit = cache.lookup("query");
+        assertFalse(hit.isFresh());
+        assertFalse(hit.isRevalidatable());
+        assertEquals(hit.getAgeMillis(), TimeUnit.MINUTES.toMillis(30));
+
+        now.addAndGet(TimeUnit.MINUTES.toNanos(45));
+        assertNull(cache.lookup("query"));
+        cache.close();
+    }
+
+    /**
+     * Test that concurrent refreshes of one query are coalesced into one load whose result replaces the entry.
+     */
+    @Test
+    public void testRefreshesAreCoalesced() throws Exception {
+        PubMedArticleCache cache = new PubMedArticleCache(true, 10, 20, 60, 1000, false, 2, PubMedMetrics.noop(), ticker);
+        cache.put("query", Collections.<PubMedArticle>emptyList());
+        now.addAndGet(TimeUnit.MINUTES.toNanos(15));
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch loaded = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        List<PubMedArticle> refreshed = new ArrayList<>();
+        refreshed.add(new PubMedArticle());
+
+        for (int i = 0; i < 5; i++) {
+            cache.refreshAsync("query", () -> {
+                loads.incrementAndGet();
+                release.await();
+                loaded.countDown();
+                return refreshed;
+            });
+        }
+        release.countDown();
+        assertTrue(loaded.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 100 && cache.get("query") == null; i++) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(loads.get(), 1);
+        assertEquals(cache.get("query").size(), 1);
+        cache.close();
+    }
+}
@@ -0,0 +1,36 @@
+package reciter.pubmed.callable;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import static org.testng.Assert.assertEquals;
+
+public class InlineMarkupEscapingReaderTest {
+
+    /**
+     * Test that inline markup is escaped and every other tag, including ones that only start like it, is kept.
+     */
+    @Test
+    public void testEscapesInlineMarkupOnly() throws IOException {
+        String xml = "<ArticleTitle><i>Responses</i> of Na<sup>+</sup> <sub>2</sub><b>x</b></ArticleTitle>"
+                + "<isbn>1</isbn><b ><summary/><</sub";
+        String expected = "<ArticleTitle>&lt;i&gt;Responses&lt;/i&gt; of Na&lt;sup&gt;+&lt;/sup&gt; "
+                + "&lt;sub&gt;2&lt;/sub&gt;&lt;b&gt;x&lt;/b&gt;</ArticleTitle><isbn>1</isbn><b ><summary/><</sub";
+        // A one character buffer makes every tag straddle read() calls.
+        assertEquals(readAll(new InlineMarkupEscapingReader(new StringReader(xml)), 1), expected);
+        assertEquals(readAll(new InlineMarkupEscapingReader(new StringReader(xml)), 8192), expected);
+    }
+
+    private static String readAll(Reader reader, int bufferSize) throws IOException {
+        StringBuilder result = new StringBuilder();
+        char[] buffer = new char[bufferSize];
+        int n;
+        while ((n = reader.read(buffer, 0, buffer.length)) != -1) {
+            result.append(buffer, 0, n);
+        }
+        return result.toString();
+    }
+}
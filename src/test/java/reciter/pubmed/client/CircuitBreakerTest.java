@@ -0,0 +1,73 @@
+package reciter.pubmed.client;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.testng.annotations.Test;
+import reciter.metrics.PubMedMetrics;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class CircuitBreakerTest {
+
+    /**
+     * Test that the circuit opens on failures and slow calls, refuses requests while open, and closes after a
+     * successful probe.
+     */
+    @Test
+    public void testOpensAndRecovers() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        CircuitBreaker breaker = new CircuitBreaker(true, 0.5, 1000, 10, 30, 1, new PubMedMetrics(registry));
+        for (int i = 0; i < 5; i++) {
+            breaker.acquire();
+            breaker.onSuccess(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        for (int i = 0; i < 4; i++) {
+            breaker.acquire();
+            breaker.onFailure();
+        }
+        breaker.acquire();
+        breaker.onSuccess(TimeUnit.SECONDS.toNanos(2));
+        assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+        assertEquals(registry.find("pubmed.circuit.state").gauge().value(), 2.0);
+
+        try {
+            breaker.acquire();
+            fail("let a request through while open");
+        } catch (CircuitOpenException e) {
+            assertTrue(e.getRetryAfterMillis() > 0 && e.getRetryAfterMillis() <= 1000);
+        }
+        assertEquals(registry.find("pubmed.circuit.rejected").counter().count(), 1.0);
+
+        Thread.sleep(1100);
+        breaker.acquire();
+        try {
+            breaker.acquire();
+            fail("let a second probe through");
+        } catch (CircuitOpenException expected) {
+        }
+        breaker.onSuccess(TimeUnit.MILLISECONDS.toNanos(10));
+        assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+        breaker.acquire();
+    }
+
+    /**
+     * Test that a failed probe opens the circuit again, and a cancelled one lets another request probe.
+     */
+    @Test
+    public void testFailedProbeReopens() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(true, 0.5, 1000, 1, 30, 1, PubMedMetrics.noop());
+        breaker.acquire();
+        breaker.onFailure();
+        Thread.sleep(1100);
+
+        breaker.acquire();
+        breaker.onCancelled();
+        breaker.acquire();
+        breaker.onFailure();
+
+        assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+    }
+}
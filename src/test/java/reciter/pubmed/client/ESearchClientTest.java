@@ -0,0 +1,42 @@
+package reciter.pubmed.client;
+
+import org.testng.annotations.Test;
+import reciter.pubmed.model.PubmedESearchResult;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class ESearchClientTest {
+
+    /**
+     * Test that the result is read wherever it appears, ignoring the PMID list and unknown fields.
+     */
+    @Test
+    public void testDecodesESearchResult() throws IOException {
+        PubmedESearchResult eSearchResult = decode("{\"header\":{\"type\":\"esearch\",\"version\":\"0.3\"},"
+                + "\"esearchresult\":{\"count\":\"1234\",\"retmax\":\"20\",\"retstart\":\"0\",\"querykey\":\"1\","
+                + "\"webenv\":\"MCID_1\",\"idlist\":[\"31967741\",\"31746150\"],\"translationset\":[],"
+                + "\"querytranslation\":\"kukafka r[au]\"}}");
+
+        assertEquals(eSearchResult.getCount(), 1234);
+        assertEquals(eSearchResult.getRetMax(), 20);
+        assertEquals(eSearchResult.getQueryKey(), 1);
+        assertEquals(eSearchResult.getWebenv(), "MCID_1");
+    }
+
+    @Test
+    public void testMissingESearchResultGivesEmptyResult() throws IOException {
+        PubmedESearchResult eSearchResult = decode("{\"header\":{\"type\":\"esearch\"},\"error\":\"API rate limit exceeded\"}");
+
+        assertEquals(eSearchResult.getCount(), 0);
+        assertNull(eSearchResult.getWebenv());
+    }
+
+    private static PubmedESearchResult decode(String json) throws IOException {
+        return ESearchClient.decode(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+}
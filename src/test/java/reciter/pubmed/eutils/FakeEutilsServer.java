@@ -0,0 +1,459 @@
+package reciter.pubmed.eutils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An in-process stand-in for the E-utilities that answers {@code esearch.fcgi} with JSON and {@code efetch.fcgi}
+ * with PubMed XML from a fixture corpus. Latency, NCBI's rate limit headers, {@code 429} responses, truncated
+ * bodies and malformed articles can be switched on to exercise the retrieval pipeline offline.
+ *
+ * <p>Point the service at it with {@code pubmed.eutils.base-url=}{@link #getBaseUrl()}. {@link #main(String[])}
+ * runs it standalone for load tests.
+ */
+@Slf4j
+public class FakeEutilsServer implements AutoCloseable {
+
+    private static final Pattern ARTICLE = Pattern.compile("<PubmedArticle>.*?</PubmedArticle>", Pattern.DOTALL);
+    private static final Pattern PMID = Pattern.compile("<PMID Version=\"1\">(\\d+)</PMID>");
+    private static final Pattern IDENTIFIER_TERM = Pattern.compile("\"?([^\"\\[]+)\"?\\[(doi|pmcid)\\]");
+    private static final Pattern DATE_RANGE_TERM = Pattern.compile("\\((.*)\\) AND \\((\\d{4}/\\d{2}/\\d{2})\\[DP\\]:(\\d{4}/\\d{2}/\\d{2})\\[DP\\]\\)");
+    private static final Pattern PUB_DATE = Pattern.compile("<PubDate>\\s*<Year>(\\d{4})</Year>\\s*(?:<Month>(\\w+)</Month>\\s*)?(?:<Day>(\\d+)</Day>\\s*)?</PubDate>");
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("yyyy/MM/dd");
+    private static final long FIRST_SYNTHETIC_PMID = 90000000L;
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, String> articles = Collections.synchronizedMap(new HashMap<>());
+    private final List<String> pmids = Collections.synchronizedList(new ArrayList<>());
+    private final Map<String, List<String>> queries = new ConcurrentHashMap<>();
+    private final Map<String, List<String>> webEnvs = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+    private final Random random;
+
+    private volatile long minLatencyMillis;
+    private volatile long maxLatencyMillis;
+    private volatile int rateLimit = 10;
+    private volatile double tooManyRequestsRate;
+    private volatile double truncatedBodyRate;
+    private volatile double malformedArticleRate;
+
+    private long windowSecond;
+    private int windowRequests;
+
+    public FakeEutilsServer(int port, long seed) throws IOException {
+        this.random = new Random(seed);
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 256);
+        this.server.createContext("/entrez/eutils/esearch.fcgi", exchange -> handle(exchange, "esearch"));
+        this.server.createContext("/entrez/eutils/efetch.fcgi", exchange -> handle(exchange, "efetch"));
+        this.server.setExecutor(executor);
+    }
+
+    /**
+     * Runs a server on the given port (default 8089) with the test fixtures replicated to the given number of
+     * articles (default 2000) and NCBI's rate limit for requests with an API key.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8089;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        FakeEutilsServer server = new FakeEutilsServer(port, System.nanoTime());
+        server.loadFixtures(new File("src/test/resources/pubmed/callable")).replicate(size).start();
+        log.info("Serving {} articles at {}", size, server.getBaseUrl());
+    }
+
+    public FakeEutilsServer start() {
+        server.start();
+        return this;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/entrez/eutils/";
+    }
+
+    /**
+     * Adds every {@code PubmedArticle} of the EFetch XML files in {@code directory} to the corpus.
+     */
+    public FakeEutilsServer loadFixtures(File directory) throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".xml"));
+        if (files == null) {
+            throw new IOException("No fixtures in " + directory);
+        }
+        for (File file : files) {
+            Matcher matcher = ARTICLE.matcher(FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+            while (matcher.find()) {
+                addArticle(matcher.group());
+            }
+        }
+        return this;
+    }
+
+    public FakeEutilsServer addArticle(String articleXml) {
+        Matcher matcher = PMID.matcher(articleXml);
+        if (!matcher.find()) {
+            throw new IllegalArgumentException("Article without PMID");
+        }
+        if (articles.put(matcher.group(1), articleXml) == null) {
+            pmids.add(matcher.group(1));
+        }
+        return this;
+    }
+
+    /**
+     * Grows the corpus to {@code size} articles with copies of the loaded ones under new PMIDs.
+     */
+    public FakeEutilsServer replicate(int size) {
+        List<String> originals = new ArrayList<>(pmids);
+        for (int i = pmids.size(); i < size; i++) {
+            String original = articles.get(originals.get(i % originals.size()));
+            addArticle(PMID.matcher(original).replaceFirst("<PMID Version=\"1\">" + (FIRST_SYNTHETIC_PMID + i) + "</PMID>"));
+        }
+        return this;
+    }
+
+    /**
+     * Gives the articles publication dates spread evenly over {@code days} days from {@code first}, in the order
+     * they were added.
+     */
+    public FakeEutilsServer spreadPublicationDates(LocalDate first, int days) {
+        List<String> corpus = getPmids();
+        for (int i = 0; i < corpus.size(); i++) {
+            LocalDate date = first.plusDays((long) i * days / corpus.size());
+            articles.put(corpus.get(i), PUB_DATE.matcher(articles.get(corpus.get(i))).replaceFirst("<PubDate><Year>"
+                    + date.getYear() + "</Year><Month>" + date.getMonthValue() + "</Month><Day>" + date.getDayOfMonth() + "</Day></PubDate>"));
+        }
+        return this;
+    }
+
+    /**
+     * Makes ESearch return {@code resultPmids} for {@code term}. Terms without a result return the whole corpus.
+     */
+    public FakeEutilsServer addQuery(String term, List<String> resultPmids) {
+        queries.put(term, new ArrayList<>(resultPmids));
+        return this;
+    }
+
+    /**
+     * @return the PMIDs of the articles carrying a DOI or PMCID, which replicated articles share
+     */
+    public List<String> getPmidsWithIdentifier(String id) {
+        String element = ">" + id.toLowerCase(Locale.ROOT) + "<";
+        List<String> result = new ArrayList<>();
+        for (String pmid : getPmids()) {
+            if (articles.get(pmid).toLowerCase(Locale.ROOT).contains(element)) {
+                result.add(pmid);
+            }
+        }
+        return result;
+    }
+
+    public List<String> getPmids() {
+        synchronized (pmids) {
+            return new ArrayList<>(pmids);
+        }
+    }
+
+    /**
+     * Writes {@code articlePmids} as a gzip compressed file in the layout of the PubMed baseline and update files,
+     * ending with a {@code DeleteCitation} list of {@code deletedPmids}.
+     */
+    public void writeUpdateFile(File file, List<String> articlePmids, List<String> deletedPmids) throws IOException {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n")
+                .append("<!DOCTYPE PubmedArticleSet PUBLIC \"-//NLM//DTD PubMedArticle, 1st January 2024//EN\" ")
+                .append("\"https://dtd.nlm.nih.gov/ncbi/pubmed/out/pubmed_240101.dtd\">\n<PubmedArticleSet>\n");
+        for (String pmid : articlePmids) {
+            xml.append(articles.get(pmid)).append('\n');
+        }
+        if (!deletedPmids.isEmpty()) {
+            xml.append("<DeleteCitation>\n");
+            for (String pmid : deletedPmids) {
+                xml.append("<PMID Version=\"1\">").append(pmid).append("</PMID>\n");
+            }
+            xml.append("</DeleteCitation>\n");
+        }
+        xml.append("</PubmedArticleSet>\n");
+        try (OutputStream out = new GZIPOutputStream(FileUtils.openOutputStream(file))) {
+            out.write(xml.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    public FakeEutilsServer latency(long minMillis, long maxMillis) {
+        this.minLatencyMillis = minMillis;
+        this.maxLatencyMillis = maxMillis;
+        return this;
+    }
+
+    /**
+     * Requests beyond {@code requestsPerSecond} are answered with {@code 429} and {@code Retry-After: 1}.
+     * 0 only reports the limit in the {@code X-RateLimit-*} headers.
+     */
+    public FakeEutilsServer rateLimit(int requestsPerSecond) {
+        this.rateLimit = requestsPerSecond;
+        return this;
+    }
+
+    public FakeEutilsServer tooManyRequestsRate(double rate) {
+        this.tooManyRequestsRate = rate;
+        return this;
+    }
+
+    /**
+     * Fraction of EFetch responses whose connection is closed halfway through the declared body.
+     */
+    public FakeEutilsServer truncatedBodyRate(double rate) {
+        this.truncatedBodyRate = rate;
+        return this;
+    }
+
+    /**
+     * Fraction of EFetch responses in which one article has a non numeric PMID and lacks its title.
+     */
+    public FakeEutilsServer malformedArticleRate(double rate) {
+        this.malformedArticleRate = rate;
+        return this;
+    }
+
+    /**
+     * @param utility {@code esearch} or {@code efetch}
+     */
+    public int getRequestCount(String utility) {
+        AtomicInteger count = requests.get(utility);
+        return count == null ? 0 : count.get();
+    }
+
+    private void handle(HttpExchange exchange, String utility) throws IOException {
+        try {
+            requests.computeIfAbsent(utility, key -> new AtomicInteger()).incrementAndGet();
+            Map<String, String> params = params(exchange);
+            long latency = minLatencyMillis + (maxLatencyMillis > minLatencyMillis ? (long) (nextDouble() * (maxLatencyMillis - minLatencyMillis)) : 0);
+            if (latency > 0) {
+                Thread.sleep(latency);
+            }
+            int remaining = takeRateLimitPermit();
+            boolean tooManyRequests = remaining < 0 || nextDouble() < tooManyRequestsRate;
+            int limit = rateLimit > 0 ? rateLimit : 10;
+            exchange.getResponseHeaders().add("X-RateLimit-Limit", String.valueOf(limit));
+            exchange.getResponseHeaders().add("X-RateLimit-Remaining", String.valueOf(tooManyRequests ? 0 : remaining));
+            if (tooManyRequests) {
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                send(exchange, 429, "application/json", "{\"error\":\"API rate limit exceeded\",\"api-key\":\"127.0.0.1\",\"count\":\"" + (limit + 1) + "\",\"limit\":\"" + limit + "\"}", false);
+                return;
+            }
+            if ("esearch".equals(utility)) {
+                send(exchange, 200, "application/json", eSearch(params), false);
+            } else if (params.containsKey("id")) {
+                List<String> ids = Arrays.asList(params.get("id").split(","));
+                params.putIfAbsent("retmax", String.valueOf(ids.size()));
+                send(exchange, 200, "text/xml", eFetch(ids, params), nextDouble() < truncatedBodyRate);
+            } else {
+                String webEnv = params.get("WebEnv");
+                if (webEnv == null || !webEnvs.containsKey(webEnv)) {
+                    send(exchange, 400, "text/xml", "<eFetchResult><ERROR>Unable to obtain query #1</ERROR></eFetchResult>", false);
+                    return;
+                }
+                send(exchange, 200, "text/xml", eFetch(webEnvs.get(webEnv), params), nextDouble() < truncatedBodyRate);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException e) {
+            log.debug("Request failed", e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private String eSearch(Map<String, String> params) {
+        String term = params.getOrDefault("term", "");
+        List<String> result = search(term);
+        if ("count".equals(params.get("rettype"))) {
+            return "{\"header\":{\"type\":\"esearch\",\"version\":\"0.3\"},\"esearchresult\":{\"count\":\"" + result.size() + "\"}}";
+        }
+        String webEnv = "MCID_" + UUID.randomUUID().toString().replace("-", "");
+        if ("y".equals(params.get("usehistory"))) {
+            webEnvs.put(webEnv, result);
+        }
+        int retMax = Integer.parseInt(params.getOrDefault("retmax", "20"));
+        int retStart = Integer.parseInt(params.getOrDefault("retstart", "0"));
+        StringBuilder json = new StringBuilder("{\"header\":{\"type\":\"esearch\",\"version\":\"0.3\"},\"esearchresult\":{");
+        json.append("\"count\":\"").append(result.size()).append("\",");
+        json.append("\"retmax\":\"").append(Math.max(0, Math.min(retMax, result.size() - retStart))).append("\",");
+        json.append("\"retstart\":\"").append(retStart).append("\",");
+        json.append("\"querykey\":\"1\",\"webenv\":\"").append(webEnv).append("\",\"idlist\":[");
+        for (int i = retStart; i < Math.min(result.size(), retStart + retMax); i++) {
+            json.append(i > retStart ? ",\"" : "\"").append(result.get(i)).append('"');
+        }
+        json.append("],\"querytranslation\":\"").append(term.replace("\\", "\\\\").replace("\"", "\\\"")).append("\"}}");
+        return json.toString();
+    }
+
+    /**
+     * Answers a registered term, a registered term restricted to publication dates as in
+     * {@code (term) AND (2017/01/01[DP]:2017/12/31[DP])}, or a term of identifiers.
+     */
+    private List<String> search(String term) {
+        if (queries.containsKey(term)) {
+            return queries.get(term);
+        }
+        Matcher range = DATE_RANGE_TERM.matcher(term);
+        if (!range.matches()) {
+            return identifierSearch(term);
+        }
+        LocalDate from = LocalDate.parse(range.group(2), DATE);
+        LocalDate to = LocalDate.parse(range.group(3), DATE);
+        List<String> result = new ArrayList<>();
+        for (String pmid : search(range.group(1))) {
+            LocalDate date = publicationDate(articles.get(pmid));
+            if (date != null && !date.isBefore(from) && !date.isAfter(to)) {
+                result.add(pmid);
+            }
+        }
+        return result;
+    }
+
+    private static LocalDate publicationDate(String articleXml) {
+        Matcher matcher = PUB_DATE.matcher(articleXml);
+        if (!matcher.find()) {
+            return null;
+        }
+        String month = matcher.group(2) == null ? "1" : matcher.group(2);
+        return LocalDate.of(Integer.parseInt(matcher.group(1)),
+                month.matches("\\d+") ? Integer.parseInt(month) : Month.from(DateTimeFormatter.ofPattern("MMM", Locale.ENGLISH).parse(month)).getValue(),
+                matcher.group(3) == null ? 1 : Integer.parseInt(matcher.group(3)));
+    }
+
+    /**
+     * Answers a term of {@code "id"[doi]} or {@code id[pmcid]} clauses joined with {@code OR}; any other term
+     * returns the whole corpus.
+     */
+    private List<String> identifierSearch(String term) {
+        Matcher matcher = IDENTIFIER_TERM.matcher(term);
+        List<String> result = new ArrayList<>();
+        int end = 0;
+        while (matcher.find() && term.substring(end, matcher.start()).trim().matches("(OR)?")) {
+            for (String pmid : getPmidsWithIdentifier(matcher.group(1))) {
+                if (!result.contains(pmid)) {
+                    result.add(pmid);
+                }
+            }
+            end = matcher.end();
+        }
+        return end > 0 && end == term.length() ? result : getPmids();
+    }
+
+    private String eFetch(List<String> result, Map<String, String> params) {
+        int retMax = Integer.parseInt(params.getOrDefault("retmax", "20"));
+        int retStart = Integer.parseInt(params.getOrDefault("retstart", "0"));
+        int end = Math.min(result.size(), retStart + retMax);
+        int malformed = retStart < end && nextDouble() < malformedArticleRate ? retStart + random(end - retStart) : -1;
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" ?>\n<PubmedArticleSet>\n");
+        for (int i = retStart; i < end; i++) {
+            String article = articles.get(result.get(i));
+            if (i == malformed) {
+                article = PMID.matcher(article).replaceFirst("<PMID Version=\"1\">PMID$1</PMID>")
+                        .replaceFirst("(?s)<ArticleTitle>.*?</ArticleTitle>", "");
+            }
+            xml.append(article).append('\n');
+        }
+        return xml.append("</PubmedArticleSet>").toString();
+    }
+
+    private int takeRateLimitPermit() {
+        synchronized (this) {
+            long second = System.currentTimeMillis() / 1000;
+            if (second != windowSecond) {
+                windowSecond = second;
+                windowRequests = 0;
+            }
+            windowRequests++;
+            return rateLimit > 0 ? rateLimit - windowRequests : 10;
+        }
+    }
+
+    private void send(HttpExchange exchange, int status, String contentType, String body, boolean truncate) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(bytes);
+            }
+            bytes = compressed.toByteArray();
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+        }
+        exchange.getResponseHeaders().add("Content-Type", contentType + "; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        // Closing the exchange before the declared length was written drops the connection.
+        out.write(bytes, 0, truncate ? bytes.length / 2 : bytes.length);
+        out.flush();
+    }
+
+    private static Map<String, String> params(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            parse(query, params);
+        }
+        if ("POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+            byte[] body = IOUtils.toByteArray(exchange.getRequestBody());
+            parse(new String(body, StandardCharsets.UTF_8), params);
+        }
+        return params;
+    }
+
+    private static void parse(String form, Map<String, String> params) throws IOException {
+        for (String pair : form.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+    }
+
+    private double nextDouble() {
+        synchronized (random) {
+            return random.nextDouble();
+        }
+    }
+
+    private int random(int bound) {
+        synchronized (random) {
+            return random.nextInt(bound);
+        }
+    }
+}
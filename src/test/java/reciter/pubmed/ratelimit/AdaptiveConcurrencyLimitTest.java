@@ -0,0 +1,77 @@
+package reciter.pubmed.ratelimit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.testng.annotations.Test;
+import reciter.metrics.PubMedMetrics;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class AdaptiveConcurrencyLimitTest {
+
+    private static final long FLAT = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * Test that a used limit grows while latency stays flat, and is cut by a spike and by a dropped request.
+     */
+    @Test
+    public void testLimitFollowsLatency() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(true, 4, 1, 32, 2.0, new PubMedMetrics(registry));
+        for (int i = 0; i < 40; i++) {
+            fillAndRespond(limit, FLAT);
+        }
+        int grown = limit.getLimit();
+        assertTrue(grown > 4, "did not grow: " + grown);
+        assertEquals(registry.find("pubmed.upstream.concurrency.limit").gauge().value(), (double) grown);
+
+        limit.acquire();
+        limit.onResponse(FLAT * 10);
+        limit.release();
+        int afterSpike = limit.getLimit();
+        assertTrue(afterSpike < grown, "not cut by a spike: " + afterSpike);
+
+        // Decreases are at least a usual response time apart.
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(FLAT) * 3);
+        limit.onDropped();
+        assertTrue(limit.getLimit() < afterSpike, "not cut by a drop: " + limit.getLimit());
+        assertEquals(limit.getInFlight(), 0);
+    }
+
+    /**
+     * Test that callers wait for a slot once the limit is reached.
+     */
+    @Test
+    public void testAcquireBlocksAtTheLimit() throws Exception {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(true, 1, 1, 1, 2.0, PubMedMetrics.noop());
+        limit.acquire();
+        Thread waiter = new Thread(() -> {
+            try {
+                limit.acquire();
+                limit.release();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiter.start();
+        waiter.join(200);
+        assertTrue(waiter.isAlive(), "acquired beyond the limit");
+        limit.release();
+        waiter.join(5000);
+        assertTrue(!waiter.isAlive());
+        assertEquals(limit.getInFlight(), 0);
+    }
+
+    private static void fillAndRespond(AdaptiveConcurrencyLimit limit, long latencyNanos) throws InterruptedException {
+        int slots = limit.getLimit();
+        for (int i = 0; i < slots; i++) {
+            limit.acquire();
+        }
+        for (int i = 0; i < slots; i++) {
+            limit.onResponse(latencyNanos);
+            limit.release();
+        }
+    }
+}
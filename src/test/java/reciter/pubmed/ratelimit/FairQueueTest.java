@@ -0,0 +1,85 @@
+package reciter.pubmed.ratelimit;
+
+import org.testng.annotations.Test;
+import reciter.context.RequestContext.Lane;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class FairQueueTest {
+
+    /**
+     * Test that interactive clients take turns ahead of a queued bulk burst, which still gets one permit in five.
+     */
+    @Test
+    public void testSharesTurnsByLaneWeightAndClient() throws Exception {
+        FairQueue fairQueue = new FairQueue(4, 1);
+        List<String> turns = Collections.synchronizedList(new ArrayList<>());
+        fairQueue.awaitTurn(Lane.BULK, "bulk");
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            threads.add(waiter(fairQueue, Lane.BULK, "bulk", turns));
+        }
+        for (int i = 0; i < 3; i++) {
+            threads.add(waiter(fairQueue, Lane.INTERACTIVE, "ui1", turns));
+            if (i < 2) {
+                threads.add(waiter(fairQueue, Lane.INTERACTIVE, "ui2", turns));
+            }
+        }
+        fairQueue.done();
+        for (Thread thread : threads) {
+            thread.join(5000);
+            assertFalse(thread.isAlive());
+        }
+
+        assertEquals(turns, Arrays.asList("ui1", "ui2", "ui1", "ui2", "bulk", "ui1", "bulk", "bulk", "bulk", "bulk", "bulk"));
+        assertEquals(fairQueue.size(), 0);
+    }
+
+    @Test
+    public void testClientQuotas() {
+        ClientQuotas clientQuotas = new ClientQuotas(2, 3);
+
+        assertTrue(clientQuotas.tryStart("a"));
+        assertTrue(clientQuotas.tryStart("a"));
+        assertFalse(clientQuotas.tryStart("a"));
+        assertTrue(clientQuotas.tryStart("b"));
+        clientQuotas.finish("a");
+        assertEquals(clientQuotas.getInFlight("a"), 1);
+        assertTrue(clientQuotas.tryStart("a"));
+
+        assertTrue(clientQuotas.tryCount("a"));
+        assertTrue(clientQuotas.tryCount("a"));
+        assertTrue(clientQuotas.tryCount("a"));
+        assertFalse(clientQuotas.tryCount("a"));
+        assertTrue(clientQuotas.tryCount("b"));
+    }
+
+    /**
+     * Starts a thread that records its client when it gets the turn, once it is queued.
+     */
+    private static Thread waiter(FairQueue fairQueue, Lane lane, String clientId, List<String> turns) throws InterruptedException {
+        int queued = fairQueue.size();
+        Thread thread = new Thread(() -> {
+            try {
+                fairQueue.awaitTurn(lane, clientId);
+                turns.add(clientId);
+                fairQueue.done();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+        while (fairQueue.size() == queued) {
+            Thread.sleep(1);
+        }
+        return thread;
+    }
+}
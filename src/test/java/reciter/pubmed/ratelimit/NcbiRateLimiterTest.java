@@ -0,0 +1,29 @@
+package reciter.pubmed.ratelimit;
+
+import org.testng.annotations.Test;
+import reciter.metrics.PubMedMetrics;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class NcbiRateLimiterTest {
+
+    /**
+     * Test that capacity is spare only while a second's worth of permits has not been granted, and not while NCBI
+     * asks to back off.
+     */
+    @Test
+    public void testSpareCapacityFollowsGrantedPermits() throws Exception {
+        NcbiRateLimiter limiter = new NcbiRateLimiter(3, 1, 1, PubMedMetrics.noop());
+        assertTrue(limiter.hasSpareCapacity());
+        for (int i = 0; i < 3; i++) {
+            limiter.acquire();
+        }
+        assertFalse(limiter.hasSpareCapacity());
+
+        Thread.sleep(1100);
+        assertTrue(limiter.hasSpareCapacity());
+        limiter.retryAfter(5);
+        assertFalse(limiter.hasSpareCapacity());
+    }
+}
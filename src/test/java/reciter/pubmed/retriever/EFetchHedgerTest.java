@@ -0,0 +1,75 @@
+package reciter.pubmed.retriever;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.testng.annotations.Test;
+import reciter.context.RequestContext;
+import reciter.metrics.PubMedMetrics;
+import reciter.pubmed.ratelimit.NcbiRateLimiter;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class EFetchHedgerTest {
+
+    /**
+     * Test that an attempt far slower than the recent ones is answered by its hedge.
+     */
+    @Test
+    public void testSlowAttemptIsHedged() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        EFetchHedger hedger = new EFetchHedger(true, 95, 20, NcbiRateLimiter.unlimited(), new PubMedMetrics(registry));
+        try {
+            for (int i = 0; i < 30; i++) {
+                assertEquals(hedger.call(() -> {
+                    Thread.sleep(5);
+                    return "fast";
+                }), "fast");
+            }
+            assertNull(registry.find("pubmed.efetch.hedges").counter());
+            assertTrue(hedger.hedgeDelayNanos() > 0);
+
+            AtomicInteger attempts = new AtomicInteger();
+            AtomicBoolean aborted = new AtomicBoolean();
+            long start = System.currentTimeMillis();
+            String result = hedger.call(() -> {
+                if (attempts.incrementAndGet() == 1) {
+                    // Where EutilsTransport would abort its HttpGet.
+                    RequestContext.current().onCancel(() -> aborted.set(true));
+                    Thread.sleep(10_000);
+                    return "slow";
+                }
+                return "hedge";
+            });
+
+            assertEquals(result, "hedge");
+            assertTrue(System.currentTimeMillis() - start < 5_000);
+            assertEquals(count(registry, "fired"), 1.0);
+            assertEquals(count(registry, "won"), 1.0);
+            assertTrue(aborted.get(), "the request of the slow attempt was not aborted");
+        } finally {
+            hedger.close();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testFailureIsRethrown() throws Exception {
+        EFetchHedger hedger = new EFetchHedger(true, 95, 20, NcbiRateLimiter.unlimited(), PubMedMetrics.noop());
+        try {
+            hedger.call(() -> {
+                throw new IllegalStateException("malformed");
+            });
+        } finally {
+            hedger.close();
+        }
+    }
+
+    private static double count(SimpleMeterRegistry registry, String outcome) {
+        Counter counter = registry.find("pubmed.efetch.hedges").tag("outcome", outcome).counter();
+        return counter == null ? 0 : counter.count();
+    }
+}
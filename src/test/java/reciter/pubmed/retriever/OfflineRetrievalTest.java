@@ -0,0 +1,276 @@
+package reciter.pubmed.retriever;
+
+import org.apache.commons.io.FileUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.embedded.LocalServerPort;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.testng.AbstractTestNGSpringContextTests;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+import reciter.model.pubmed.PubMedArticle;
+import reciter.pubmed.eutils.FakeEutilsServer;
+import reciter.pubmed.model.IdentifierLookupRequest;
+import reciter.pubmed.model.PubMedQuery;
+import reciter.pubmed.store.BaselineImporter;
+import reciter.tracing.TracingFilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Runs queries through the whole service against a {@link FakeEutilsServer} instead of NCBI.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"pubmed.ratelimit.requests-per-second=1000", "logging.file=", "pubmed.store.dir=" + OfflineRetrievalTest.STORE_DIR,
+                "pubmed.retrieval.slice-size=400"})
+public class OfflineRetrievalTest extends AbstractTestNGSpringContextTests {
+
+    static final String STORE_DIR = "target/offline-store";
+
+    private static final FakeEutilsServer SERVER;
+
+    static {
+        FileUtils.deleteQuietly(new File(STORE_DIR));
+        try {
+            SERVER = new FakeEutilsServer(0, 42L)
+                    .loadFixtures(new File("src/test/resources/pubmed/callable"))
+                    .replicate(600)
+                    .spreadPublicationDates(LocalDate.of(2015, 1, 1), 1500)
+                    .rateLimit(0)
+                    .start();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        // The port of the server is only known now, so it is passed to the application context as a system property.
+        System.setProperty("pubmed.eutils.base-url", SERVER.getBaseUrl());
+    }
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private BaselineImporter baselineImporter;
+
+    @AfterClass(alwaysRun = true)
+    public void stopServer() {
+        SERVER.close();
+        System.clearProperty("pubmed.eutils.base-url");
+    }
+
+    /**
+     * Test that every article found by ESearch is fetched, parsed and returned once.
+     */
+    @Test
+    public void testRetrievesAllArticles() {
+        List<String> expected = SERVER.getPmids().subList(0, 300);
+        SERVER.addQuery("offline[au]", expected).latency(5, 20);
+        int eFetchRequests = SERVER.getRequestCount("efetch");
+
+        Set<String> pmids = query("offline[au]");
+
+        assertEquals(pmids, new HashSet<>(expected));
+        assertEquals(SERVER.getRequestCount("efetch") - eFetchRequests, 1);
+    }
+
+    /**
+     * Test that 429 responses, dropped connections and unparsable articles are retried until the result is complete.
+     */
+    @Test
+    public void testRecoversFromUpstreamFaults() {
+        List<String> expected = SERVER.getPmids().subList(300, 600);
+        SERVER.addQuery("faulty[au]", expected)
+                .latency(0, 0)
+                .tooManyRequestsRate(0.2)
+                .truncatedBodyRate(0.3)
+                .malformedArticleRate(0.3);
+        int eFetchRequests = SERVER.getRequestCount("efetch");
+        try {
+            Set<String> pmids = query("faulty[au]");
+            assertEquals(pmids, new HashSet<>(expected));
+            assertTrue(SERVER.getRequestCount("efetch") - eFetchRequests > 1, "no fault was injected");
+        } finally {
+            SERVER.tooManyRequestsRate(0).truncatedBodyRate(0).malformedArticleRate(0);
+        }
+    }
+
+    /**
+     * Test that imported articles come from the local store and only the rest is fetched, by PMID, in the order
+     * ESearch listed them.
+     */
+    @Test
+    public void testServesImportedArticlesFromStore() throws IOException {
+        List<String> expected = SERVER.getPmids().subList(540, 600);
+        SERVER.addQuery("imported[au]", expected).latency(0, 0);
+        File importDir = new File(STORE_DIR, "baseline");
+        SERVER.writeUpdateFile(new File(importDir, "pubmed24n0001.xml.gz"), expected.subList(10, 60), Collections.emptyList());
+        baselineImporter.importDirectory(importDir);
+        int eFetchRequests = SERVER.getRequestCount("efetch");
+
+        PubMedArticle[] pubMedArticles = restTemplate.getForObject("/pubmed/query/{query}", PubMedArticle[].class, "imported[au]");
+
+        assertEquals(Arrays.stream(pubMedArticles)
+                .map(article -> String.valueOf(article.getMedlinecitation().getMedlinecitationpmid().getPmid()))
+                .collect(Collectors.toList()), expected);
+        assertEquals(SERVER.getRequestCount("efetch") - eFetchRequests, 1);
+    }
+
+    /**
+     * Test that a result larger than a slice is retrieved in publication date ranges, each article once.
+     */
+    @Test
+    public void testSplitsLargeQueriesIntoDateSlices() {
+        SERVER.addQuery("sliced[au]", SERVER.getPmids()).latency(0, 0);
+        int eSearchRequests = SERVER.getRequestCount("esearch");
+
+        PubMedArticle[] pubMedArticles = restTemplate.getForObject("/pubmed/query/{query}", PubMedArticle[].class, "sliced[au]");
+
+        assertEquals(pmids(pubMedArticles), new HashSet<>(SERVER.getPmids()));
+        assertEquals(pubMedArticles.length, SERVER.getPmids().size());
+        assertTrue(SERVER.getRequestCount("esearch") - eSearchRequests > 3, "the query was not split");
+    }
+
+    /**
+     * Test that a request running past its deadline is answered with 504 without waiting for NCBI.
+     */
+    @Test
+    public void testAbortsRequestsPastTheirDeadline() {
+        SERVER.addQuery("deadline[au]", SERVER.getPmids().subList(0, 10)).latency(3000, 3000);
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(TracingFilter.TIMEOUT_HEADER, "300");
+        try {
+            long start = System.currentTimeMillis();
+            ResponseEntity<String> response = restTemplate.exchange("/pubmed/query/{query}", HttpMethod.GET,
+                    new HttpEntity<>(headers), String.class, "deadline[au]");
+
+            assertEquals(response.getStatusCode(), HttpStatus.GATEWAY_TIMEOUT);
+            assertTrue(System.currentTimeMillis() - start < 2000, "waited for the upstream response");
+        } finally {
+            SERVER.latency(0, 0);
+        }
+    }
+
+    /**
+     * Test that the count endpoint goes through the same ESearch client.
+     */
+    @Test
+    public void testCountsArticles() {
+        SERVER.addQuery("counted[au]", SERVER.getPmids().subList(0, 42));
+        PubMedQuery pubMedQuery = new PubMedQuery();
+        pubMedQuery.setStrategyQuery("counted[au]");
+
+        Integer count = restTemplate.postForObject("/pubmed/query-number-pubmed-articles/", pubMedQuery, Integer.class);
+
+        assertEquals(count.intValue(), 42);
+    }
+
+    /**
+     * Test that a batch of counts comes back in the order of its queries.
+     */
+    @Test
+    public void testCountsBatchInOrder() {
+        SERVER.addQuery("batch-a[au]", SERVER.getPmids().subList(0, 7));
+        SERVER.addQuery("batch-b[au]", SERVER.getPmids().subList(0, 11));
+        List<PubMedQuery> pubMedQueries = new ArrayList<>();
+        for (String term : new String[] {"batch-b[au]", "batch-a[au]", "batch-b[au]", "unregistered[au]"}) {
+            PubMedQuery pubMedQuery = new PubMedQuery();
+            pubMedQuery.setStrategyQuery(term);
+            pubMedQueries.add(pubMedQuery);
+        }
+
+        Integer[] counts = restTemplate.postForObject("/pubmed/query-number-pubmed-articles-batch/", pubMedQueries, Integer[].class);
+
+        assertEquals(counts, new Integer[] {11, 7, 11, SERVER.getPmids().size()});
+    }
+
+    /**
+     * Test that DOIs and PMCIDs unknown to the identifier index are searched for once and then answered locally.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testLooksUpIdentifiers() {
+        IdentifierLookupRequest request = new IdentifierLookupRequest();
+        request.setDois(Arrays.asList("10.1002/ACN3.50975", "https://doi.org/10.1002/mbo3.972", "10.9999/unknown"));
+        request.setPmcids(Collections.singletonList("PMC5538837"));
+
+        Map<String, Map<String, Number>> pmids = restTemplate.postForObject("/pubmed/lookup-ids/", request, Map.class);
+
+        assertTrue(SERVER.getPmidsWithIdentifier("10.1002/acn3.50975")
+                .contains(String.valueOf(pmids.get("doi").get("10.1002/ACN3.50975"))));
+        assertTrue(SERVER.getPmidsWithIdentifier("10.1002/mbo3.972")
+                .contains(String.valueOf(pmids.get("doi").get("https://doi.org/10.1002/mbo3.972"))));
+        assertTrue(pmids.get("doi").containsKey("10.9999/unknown"));
+        assertNull(pmids.get("doi").get("10.9999/unknown"));
+        assertTrue(SERVER.getPmidsWithIdentifier("PMC5538837")
+                .contains(String.valueOf(pmids.get("pmcid").get("PMC5538837"))));
+
+        int eSearchRequests = SERVER.getRequestCount("esearch");
+        request.setDois(Collections.singletonList("10.1002/acn3.50975"));
+        pmids = restTemplate.postForObject("/pubmed/lookup-ids/", request, Map.class);
+
+        assertEquals(SERVER.getRequestCount("esearch"), eSearchRequests);
+        assertEquals(pmids.get("pmcid").size(), 1);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        pmids = restTemplate.postForObject("/pubmed/lookup-ids/",
+                new HttpEntity<>("{\"doi\": null, \"pmcid\": [\"PMC5538837\"]}", headers), Map.class);
+
+        assertTrue(pmids.get("doi").isEmpty());
+        assertEquals(pmids.get("pmcid").size(), 1);
+    }
+
+    /**
+     * Test that an identifier lookup running past its deadline is answered with 504 without waiting for ESearch.
+     */
+    @Test
+    public void testAbortsIdentifierLookupsPastTheirDeadline() {
+        SERVER.latency(3000, 3000);
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(TracingFilter.TIMEOUT_HEADER, "300");
+        IdentifierLookupRequest request = new IdentifierLookupRequest();
+        request.setDois(Arrays.asList("10.9999/late-1", "10.9999/late-2"));
+        try {
+            long start = System.currentTimeMillis();
+            ResponseEntity<String> response = restTemplate.exchange("/pubmed/lookup-ids/", HttpMethod.POST,
+                    new HttpEntity<>(request, headers), String.class);
+
+            assertEquals(response.getStatusCode(), HttpStatus.GATEWAY_TIMEOUT);
+            assertTrue(System.currentTimeMillis() - start < 2000, "waited for the upstream response");
+        } finally {
+            SERVER.latency(0, 0);
+        }
+    }
+
+    private Set<String> query(String term) {
+        return pmids(restTemplate.getForObject("/pubmed/query/{query}", PubMedArticle[].class, term));
+    }
+
+    private static Set<String> pmids(PubMedArticle[] pubMedArticles) {
+        return Arrays.stream(pubMedArticles)
+                .map(article -> String.valueOf(article.getMedlinecitation().getMedlinecitationpmid().getPmid()))
+                .collect(Collectors.toSet());
+    }
+}
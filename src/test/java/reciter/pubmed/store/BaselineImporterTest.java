@@ -0,0 +1,159 @@
+package reciter.pubmed.store;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.xml.sax.InputSource;
+import reciter.model.pubmed.PubMedArticle;
+import reciter.pubmed.callable.PubMedUriParserCallable;
+import reciter.pubmed.eutils.FakeEutilsServer;
+import reciter.pubmed.xmlparser.PubmedEFetchHandler;
+
+import javax.xml.parsers.SAXParserFactory;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Imports generated baseline and update files into a store in a temporary directory.
+ */
+public class BaselineImporterTest {
+
+    private FakeEutilsServer corpus;
+    private File directory;
+    private File importDir;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        // Only used for its articles, the server is never started.
+        corpus = new FakeEutilsServer(0, 7L)
+                .loadFixtures(new File("src/test/resources/pubmed/callable"))
+                .replicate(200);
+        directory = Files.createTempDirectory("pubmed-store").toFile();
+        importDir = new File(directory, "baseline");
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void cleanup() {
+        corpus.close();
+        FileUtils.deleteQuietly(directory);
+    }
+
+    /**
+     * Test that an update file replaces and deletes articles of the baseline, whatever order the files are read in.
+     */
+    @Test
+    public void testImportsBaselineAndUpdates() throws Exception {
+        List<String> pmids = corpus.getPmids();
+        corpus.writeUpdateFile(new File(importDir, "pubmed24n0001.xml.gz"), pmids.subList(0, 120), Collections.emptyList());
+        corpus.writeUpdateFile(new File(importDir, "pubmed24n0002.xml.gz"), pmids.subList(120, 200), Collections.emptyList());
+        corpus.writeUpdateFile(new File(importDir, "pubmed24n0003.xml.gz"), pmids.subList(100, 110), pmids.subList(0, 5));
+
+        LocalArticleStore store = new LocalArticleStore(new File(directory, "store").getPath());
+        try {
+            BaselineImporter.ImportResult result = new BaselineImporter(store, "", 3).importDirectory(importDir);
+
+            assertEquals(result.getFiles(), 3);
+            assertEquals(result.getArticles(), 210);
+            assertEquals(result.getDeletedCitations(), 5);
+            assertNull(store.get(Long.parseLong(pmids.get(0))));
+            PubMedArticle pubMedArticle = store.get(Long.parseLong(pmids.get(150)));
+            assertNotNull(pubMedArticle);
+            assertEquals(String.valueOf(pubMedArticle.getMedlinecitation().getMedlinecitationpmid().getPmid()), pmids.get(150));
+            assertEquals(store.getMaxPmid(), pmids.stream().mapToLong(Long::parseLong).max().getAsLong());
+            // The latest entry date among the fixtures.
+            assertEquals(store.getWatermark(), 20200123);
+            // An earlier file read late must not overwrite a later revision.
+            assertFalse(store.put(store.get(Long.parseLong(pmids.get(105))), BaselineImporter.sequenceOf("pubmed24n0002.xml.gz")));
+            assertFalse(store.delete(Long.parseLong(pmids.get(100)), BaselineImporter.sequenceOf("pubmed24n0001.xml.gz")));
+            assertNotNull(store.get(Long.parseLong(pmids.get(100))));
+        } finally {
+            store.close();
+        }
+
+        store = new LocalArticleStore(new File(directory, "store").getPath());
+        try {
+            assertEquals(store.getImportedFileCount(), 3);
+            assertNotNull(store.get(Long.parseLong(pmids.get(199))));
+            assertEquals(new BaselineImporter(store, "", 1).importDirectory(importDir).getFiles(), 0);
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Test that the next year's baseline, numbered from 1 again, replaces the revisions and deletions of the prior
+     * year's update files.
+     */
+    @Test
+    public void testNextYearBaselineReplacesUpdates() throws Exception {
+        List<String> pmids = corpus.getPmids().subList(0, 20);
+        corpus.writeUpdateFile(new File(importDir, "pubmed24n0001.xml.gz"), pmids, Collections.emptyList());
+        corpus.writeUpdateFile(new File(importDir, "pubmed24n1500.xml.gz"), pmids.subList(5, 10), pmids.subList(0, 5));
+        LocalArticleStore store = new LocalArticleStore(new File(directory, "store").getPath());
+        try {
+            new BaselineImporter(store, "", 1).importDirectory(importDir);
+            assertNull(store.get(Long.parseLong(pmids.get(0))));
+
+            corpus.writeUpdateFile(new File(importDir, "pubmed25n0001.xml.gz"), pmids, Collections.emptyList());
+            BaselineImporter.ImportResult result = new BaselineImporter(store, "", 1).importDirectory(importDir);
+
+            assertEquals(result.getFiles(), 1);
+            for (String pmid : pmids) {
+                assertNotNull(store.get(Long.parseLong(pmid)), "not restored by the new baseline: " + pmid);
+            }
+            assertFalse(store.put(store.get(Long.parseLong(pmids.get(5))), BaselineImporter.sequenceOf("pubmed24n1500.xml.gz")));
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Test that titles and abstracts with inline markup are stored whole, as the EFetch path parses them.
+     */
+    @Test
+    public void testKeepsInlineMarkup() throws Exception {
+        File fixture = new File("src/test/resources/pubmed/callable/28356292.xml");
+        importDir.mkdirs();
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(new File(importDir, "pubmed24n0001.xml.gz")))) {
+            Files.copy(fixture.toPath(), out);
+        }
+        PubMedArticle fetched = new PubMedUriParserCallable(new PubmedEFetchHandler(),
+                SAXParserFactory.newInstance().newSAXParser(), new InputSource(new FileInputStream(fixture))).call().get(0);
+
+        LocalArticleStore store = new LocalArticleStore(new File(directory, "store").getPath());
+        try {
+            new BaselineImporter(store, "", 1).importDirectory(importDir);
+            PubMedArticle imported = store.get(28356292L);
+
+            assertEquals(imported.getMedlinecitation().getArticle().getArticletitle(),
+                    "<i>Responses</i> of <b>distal</b> nephron Na<sup>+</sup> transporters <sub>-</sub> to acute volume depletion and hyperkalemia.");
+            String abstractText = imported.getMedlinecitation().getArticle().getPublicationAbstract().getAbstractTexts().get(0).getAbstractText();
+            assertTrue(abstractText.startsWith("We assessed effects of acute volume reductions"), abstractText);
+            assertTrue(abstractText.contains("Direct block of Na<sup>+</sup> transport"), abstractText);
+            assertEquals(abstractText, fetched.getMedlinecitation().getArticle().getPublicationAbstract().getAbstractTexts().get(0).getAbstractText());
+            assertEquals(imported.getMedlinecitation().getArticle().getArticletitle(), fetched.getMedlinecitation().getArticle().getArticletitle());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testSequenceOfFileName() {
+        assertEquals(BaselineImporter.sequenceOf("pubmed24n1219.xml.gz"), 2401219);
+        assertEquals(BaselineImporter.sequenceOf("pubmed24n0001.xml.gz"), 2400001);
+        assertTrue(BaselineImporter.sequenceOf("pubmed26n0001.xml.gz") > BaselineImporter.sequenceOf("pubmed25n1500.xml.gz"));
+    }
+}
@@ -0,0 +1,74 @@
+package reciter.pubmed.store;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.Test;
+import reciter.model.pubmed.PubMedArticle;
+import reciter.pubmed.store.IdentifierIndex.IdType;
+import reciter.pubmed.xmlparser.PubMedArticleParser;
+
+import java.io.File;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class IdentifierIndexTest {
+
+    private static final Pattern ARTICLE = Pattern.compile("<PubmedArticle>.*?</PubmedArticle>", Pattern.DOTALL);
+
+    @Test
+    public void testNormalize() {
+        assertEquals(IdentifierIndex.normalize(IdType.DOI, " https://doi.org/10.1002/MBO3.972 "), "10.1002/mbo3.972");
+        assertEquals(IdentifierIndex.normalize(IdType.DOI, "doi:10.1002/mbo3.972"), "10.1002/mbo3.972");
+        assertEquals(IdentifierIndex.normalize(IdType.PMCID, "5538837"), "PMC5538837");
+        assertEquals(IdentifierIndex.normalize(IdType.PMCID, "pmc5538837"), "PMC5538837");
+        assertNull(IdentifierIndex.normalize(IdType.DOI, " "));
+    }
+
+    @Test
+    public void testIndexesParsedArticlesInMemory() throws Exception {
+        LocalArticleStore store = new LocalArticleStore("");
+        IdentifierIndex index = new IdentifierIndex(store, 100);
+
+        index.indexAll(fixtures());
+
+        assertEquals(index.find(IdType.DOI, "10.1152/AJPRENAL.00668.2016").longValue(), 28356292L);
+        assertEquals(index.find(IdType.PMCID, "5538837").longValue(), 28356292L);
+        assertNull(index.find(IdType.DOI, "10.9999/unknown"));
+    }
+
+    @Test
+    public void testIndexesStoredArticles() throws Exception {
+        File directory = Files.createTempDirectory("pubmed-identifiers").toFile();
+        LocalArticleStore store = new LocalArticleStore(directory.getPath());
+        try {
+            IdentifierIndex index = new IdentifierIndex(store, 100);
+            for (PubMedArticle pubMedArticle : fixtures()) {
+                store.put(pubMedArticle, 1);
+            }
+
+            assertEquals(index.find(IdType.DOI, "10.1002/mbo3.972").longValue(), 31746150L);
+            assertEquals(index.find(IdType.PMCID, "PMC5538837").longValue(), 28356292L);
+        } finally {
+            store.close();
+            FileUtils.deleteQuietly(directory);
+        }
+    }
+
+    private static List<PubMedArticle> fixtures() throws Exception {
+        StringBuilder xml = new StringBuilder("<PubmedArticleSet>");
+        for (String pmid : new String[] {"28356292", "31746150", "31967741"}) {
+            Matcher matcher = ARTICLE.matcher(new String(Files.readAllBytes(Paths.get("src/test/resources/pubmed/callable/" + pmid + ".xml")), StandardCharsets.UTF_8));
+            while (matcher.find()) {
+                xml.append(matcher.group());
+            }
+        }
+        return PubMedArticleParser.of(PubMedArticleParser.SAX).parse(new StringReader(xml.append("</PubmedArticleSet>").toString()));
+    }
+}
@@ -0,0 +1,217 @@
+package reciter.pubmed.store;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.xml.sax.InputSource;
+import reciter.metrics.PubMedMetrics;
+import reciter.model.pubmed.MedlineCitationDate;
+import reciter.model.pubmed.PubMedArticle;
+import reciter.pubmed.callable.PubMedUriParserCallable;
+import reciter.pubmed.eutils.FakeEutilsServer;
+import reciter.pubmed.xmlparser.PubmedEFetchHandler;
+
+import javax.xml.parsers.SAXParserFactory;
+import java.io.File;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Answers queries from a store holding three copies of each test fixture.
+ */
+public class LocalQueryEngineTest {
+
+    private File directory;
+    private LocalArticleStore store;
+    private LocalQueryEngine engine;
+
+    @BeforeClass
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("pubmed-index").toFile();
+        FakeEutilsServer corpus = new FakeEutilsServer(0, 7L)
+                .loadFixtures(new File("src/test/resources/pubmed/callable"))
+                .replicate(9);
+        try {
+            corpus.writeUpdateFile(new File(directory, "baseline/pubmed24n0001.xml.gz"), corpus.getPmids(), Collections.emptyList());
+        } finally {
+            corpus.close();
+        }
+        store = new LocalArticleStore(new File(directory, "store").getPath());
+        engine = new LocalQueryEngine(true, store, PubMedMetrics.noop());
+        new BaselineImporter(store, "", 1).importDirectory(new File(directory, "baseline"));
+        assertNull(search("Frindt G[au]"), "answered before the index was built");
+        engine.build();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void cleanup() {
+        store.close();
+        FileUtils.deleteQuietly(directory);
+    }
+
+    @Test
+    public void testAuthorQueries() {
+        assertEquals(count("Frindt G[au]").intValue(), 3);
+        assertEquals(count("Frindt[au]").intValue(), 3);
+        assertEquals(count("\"Frindt Gustavo\"[Author]").intValue(), 3);
+        assertEquals(count("Lopez L[au]").intValue(), 3);
+        assertEquals(count("Wolf N[au]").intValue(), 3);
+        assertEquals(count("Wolf NI[au]").intValue(), 3);
+        assertEquals(count("Wolf Nicole[au]").intValue(), 3);
+        assertEquals(count("Wolf NJ[au]").intValue(), 0);
+        assertEquals(count("Frindt G[au] OR Wolf N[au]").intValue(), 6);
+        assertEquals(count("Frindt G[au] AND Yang L[au]").intValue(), 3);
+        assertEquals(count("Frindt G[au] Wolf N[au]").intValue(), 0);
+
+        List<Long> pmids = search("Frindt G[au]").stream()
+                .map(article -> article.getMedlinecitation().getMedlinecitationpmid().getPmid())
+                .collect(Collectors.toList());
+        assertTrue(pmids.contains(28356292L));
+        assertTrue(pmids.get(0) > pmids.get(1) && pmids.get(1) > pmids.get(2), "not in descending order: " + pmids);
+    }
+
+    @Test
+    public void testDateRangesNarrowIndexedTerms() {
+        assertEquals(count("Frindt G[au] AND (2017/01/01[DP]:2017/12/31[DP])").intValue(), 3);
+        assertEquals(count("Frindt G[au] AND (2017/07/02[DP]:2018/12/31[DP])").intValue(), 0);
+        assertEquals(count("Lopez L[au] AND 2019[dp]").intValue(), 3);
+        assertEquals(count("(Lopez L[au] OR Frindt G[au]) AND (2019/11/01[DP]:2019/11/30[DP])").intValue(), 3);
+        assertEquals(count("Frindt G[au] AND (2017/03/31[EDAT]:2017/03/31[EDAT])").intValue(), 3);
+        assertEquals(count("Frindt G[au] AND 2018[edat]").intValue(), 0);
+    }
+
+    /**
+     * Test that {@code [dp]} matches the electronic publication date too: 28356292 was published online in March
+     * 2017 and in print in July.
+     */
+    @Test
+    public void testPublicationDateMatchesElectronicDate() {
+        assertEquals(count("Frindt G[au] AND (2017/03/01[DP]:2017/03/31[DP])").intValue(), 3);
+        assertEquals(count("Frindt G[au] AND (2017/07/01[DP]:2017/07/31[DP])").intValue(), 3);
+        assertEquals(count("Frindt G[au] AND (2017/04/01[DP]:2017/06/30[DP])").intValue(), 0);
+    }
+
+    @Test
+    public void testIdentifierJournalAndMeshQueries() {
+        assertEquals(count("10.1002/mbo3.972").intValue(), 3);
+        assertEquals(count("10.1002/MBO3.972[doi]").intValue(), 3);
+        assertEquals(count("Microbiologyopen[ta]").intValue(), 3);
+        assertEquals(count("Am. J. Physiol. Renal Physiol.[ta]").intValue(), 3);
+        assertEquals(count("Amiloride[mh:noexp]").intValue(), 3);
+    }
+
+    @Test
+    public void testUnsupportedQueriesGoToESearch() {
+        assertNull(engine.search("Frindt G[au] NOT Yang L[au]"));
+        assertNull(engine.search("(2017/01/01[DP]:2017/12/31[DP])"));
+        assertNull(engine.search("Frindt G[au] OR 2017[dp]"));
+        assertNull(engine.search("Amiloride[mh]"));
+        assertNull(engine.search("Cornell[ad]"));
+        assertNull(engine.search("kidney"));
+        assertNull(engine.search("(Frindt G[au]"));
+    }
+
+    /**
+     * Test that a query is only answered if it is bounded by an entry date up to the last import.
+     */
+    @Test
+    public void testQueriesPastTheWatermarkGoToESearch() {
+        assertEquals(store.getWatermark(), 20200123);
+        assertNull(engine.count("Frindt G[au]"));
+        assertNull(engine.search("10.1002/mbo3.972"));
+        assertNull(engine.count("Frindt G[au] AND (2017/01/01[DP]:2017/12/31[DP])"));
+        assertNull(engine.count("Frindt G[au] AND (2017/01/01[EDAT]:2020/01/24[EDAT])"));
+        assertNull(engine.count("(Frindt G[au] AND 2017[edat]) OR Lopez L[au]"));
+        assertNull(engine.count("Frindt G[au] AND (2017/01/01[EDAT]:2017/12/31[DP])"));
+        assertNotNull(engine.count("(Frindt G[au] AND 2017[edat]) OR (Lopez L[au] AND 2019[edat])"));
+    }
+
+    /**
+     * Test that an article dated only by a {@code MedlineDate} is found by its year and month.
+     */
+    @Test
+    public void testMedlineDatesAreIndexed() throws Exception {
+        String xml = FileUtils.readFileToString(new File("src/test/resources/pubmed/callable/28356292.xml"), StandardCharsets.UTF_8);
+        PubMedArticle pubMedArticle = parse(xml.replaceFirst("(?s)<PubDate>.*?</PubDate>", "<PubDate><MedlineDate>2016 Nov-Dec</MedlineDate></PubDate>"));
+        assertEquals(ArticleTerms.of(pubMedArticle).getPublicationDate(), 20161101);
+        pubMedArticle.getMedlinecitation().getArticle().getJournal().getJournalissue().setPubdate(MedlineCitationDate.builder().build());
+        assertEquals(ArticleTerms.of(pubMedArticle).getPublicationDate(), 20161101);
+        assertTrue(LocalQuery.parse("Frindt G[au] AND 2016[dp]").matches(ArticleTerms.of(pubMedArticle)));
+
+        pubMedArticle = parse(xml.replaceFirst("(?s)<PubDate>.*?</PubDate>", "<PubDate><MedlineDate>1998 Spr</MedlineDate></PubDate>"));
+        assertEquals(ArticleTerms.of(pubMedArticle).getPublicationDate(), 19980101);
+    }
+
+    @Test(dependsOnMethods = {"testAuthorQueries", "testDateRangesNarrowIndexedTerms", "testPublicationDateMatchesElectronicDate",
+            "testIdentifierJournalAndMeshQueries", "testQueriesPastTheWatermarkGoToESearch"})
+    public void testDeletedArticlesAreNotReturned() {
+        store.delete(28356292L, BaselineImporter.sequenceOf("pubmed24n0002.xml.gz"));
+
+        List<PubMedArticle> pubMedArticles = search("Frindt G[au]");
+
+        assertEquals(pubMedArticles.size(), 2);
+        assertEquals(count("Frindt G[au]").intValue(), 2);
+        assertEquals(count("Frindt G[au] AND 2017[dp]").intValue(), 2);
+    }
+
+    @Test(dependsOnMethods = "testDeletedArticlesAreNotReturned")
+    public void testRevisedArticlesAreCountedByTheirNewTerms() {
+        PubMedArticle pubMedArticle = search("Lopez L[au]").get(0);
+        long pmid = search("Frindt G[au]").get(0).getMedlinecitation().getMedlinecitationpmid().getPmid();
+        pubMedArticle.getMedlinecitation().getMedlinecitationpmid().setPmid(pmid);
+
+        store.put(pubMedArticle, BaselineImporter.sequenceOf("pubmed24n0003.xml.gz"));
+
+        assertEquals(count("Frindt G[au]").intValue(), 1);
+        assertEquals(count("Lopez L[au]").intValue(), 4);
+        assertEquals(count("Frindt G[au] OR Lopez L[au]").intValue(), 5);
+    }
+
+    @Test
+    public void testPostingListMergesOutOfOrderAdditions() {
+        PostingList postingList = new PostingList();
+        int[] added = {5, 3, 9, 3, 1, 300000, 9, 2};
+        for (int i = 0; i < 100; i++) {
+            for (int pmid : added) {
+                postingList.add(pmid + i * 1000000);
+            }
+        }
+        int[] pmids = postingList.toArray();
+        assertEquals(pmids.length, 600);
+        assertEquals(postingList.size(), 600);
+        for (int i = 1; i < pmids.length; i++) {
+            assertTrue(pmids[i - 1] < pmids[i]);
+        }
+        assertEquals(PostingList.intersect(pmids, new int[] {2, 4, 5, 99300000}), new int[] {2, 5, 99300000});
+    }
+
+    /**
+     * Counts {@code query} among the articles added to PubMed up to the last import.
+     */
+    private Integer count(String query) {
+        return engine.count(dated(query));
+    }
+
+    private List<PubMedArticle> search(String query) {
+        return engine.search(dated(query));
+    }
+
+    private static String dated(String query) {
+        return "(" + query + ") AND (1900/01/01[edat]:2020/01/23[edat])";
+    }
+
+    private static PubMedArticle parse(String xml) throws Exception {
+        return new PubMedUriParserCallable(new PubmedEFetchHandler(), SAXParserFactory.newInstance().newSAXParser(),
+                new InputSource(new StringReader(xml))).call().get(0);
+    }
+}
@@ -0,0 +1,109 @@
+package reciter.pubmed.xmlparser;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+import reciter.model.pubmed.PubMedArticle;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Checks that the SAX, StAX and parallel engines return the same articles and compares their parse time on an
+ * EFetch window sized document.
+ */
+@Slf4j
+public class ParserEngineBenchmarkTest {
+
+    private static final String[] FIXTURES = {"28356292", "31746150", "31967741"};
+    private static final Pattern ARTICLE = Pattern.compile("<PubmedArticle>.*?</PubmedArticle>", Pattern.DOTALL);
+    private static final int ARTICLES = 2000;
+    private static final int ITERATIONS = 5;
+
+    private String document;
+
+    @BeforeClass
+    public void setup() throws IOException {
+        List<String> articles = new ArrayList<>();
+        for (String pmid : FIXTURES) {
+            String xml = new String(Files.readAllBytes(Paths.get("src/test/resources/pubmed/callable/" + pmid + ".xml")), StandardCharsets.UTF_8);
+            Matcher matcher = ARTICLE.matcher(xml);
+            while (matcher.find()) {
+                articles.add(matcher.group());
+            }
+        }
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" ?>\n<!DOCTYPE PubmedArticleSet PUBLIC "
+                + "\"-//NLM//DTD PubMedArticle, 1st June 2018//EN\" \"https://dtd.nlm.nih.gov/ncbi/pubmed/out/pubmed_180601.dtd\">\n"
+                + "<PubmedArticleSet>\n");
+        for (int i = 0; i < ARTICLES; i++) {
+            xml.append(articles.get(i % articles.size())).append('\n');
+        }
+        document = xml.append("</PubmedArticleSet>\n").toString();
+    }
+
+    @Test
+    public void testEnginesProduceSameArticles() throws IOException, SAXException {
+        ObjectMapper json = Jackson2ObjectMapperBuilder.json().build();
+        List<PubMedArticle> sax = measure(PubMedArticleParser.SAX);
+        List<PubMedArticle> stax = measure(PubMedArticleParser.STAX);
+
+        assertEquals(sax.size(), ARTICLES);
+        assertEquals(json.writeValueAsString(stax), json.writeValueAsString(sax));
+    }
+
+    @Test
+    public void testParallelParsingKeepsArticleOrder() throws IOException, SAXException {
+        ObjectMapper json = Jackson2ObjectMapperBuilder.json().build();
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            List<PubMedArticle> sax = measure(PubMedArticleParser.SAX, PubMedArticleParser.of(PubMedArticleParser.SAX));
+            List<PubMedArticle> parallel = measure("parallel sax", new ParallelPubMedArticleParser(
+                    PubMedArticleParser.of(PubMedArticleParser.SAX), pool, 97));
+
+            assertEquals(json.writeValueAsString(parallel), json.writeValueAsString(sax));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expectedExceptions = SAXException.class)
+    public void testParallelParsingReportsTruncatedDocument() throws IOException, SAXException {
+        ParallelPubMedArticleParser parser = new ParallelPubMedArticleParser(
+                PubMedArticleParser.of(PubMedArticleParser.SAX), ForkJoinPool.commonPool(), 10);
+        parser.parse(new StringReader(document.substring(0, document.length() / 2)));
+    }
+
+    @Test(expectedExceptions = SAXException.class)
+    public void testStaxReportsMalformedXmlAsSaxException() throws IOException, SAXException {
+        PubMedArticleParser.of(PubMedArticleParser.STAX).parse(new StringReader("<PubmedArticleSet><PubmedArticle></PubmedArticleSet>"));
+    }
+
+    private List<PubMedArticle> measure(String engine) throws IOException, SAXException {
+        return measure(engine, PubMedArticleParser.of(engine));
+    }
+
+    private List<PubMedArticle> measure(String engine, PubMedArticleParser parser) throws IOException, SAXException {
+        List<PubMedArticle> pubMedArticles = null;
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            pubMedArticles = parser.parse(new StringReader(document));
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        log.info("{} articles ({} chars) with {}: {} ms", ARTICLES, document.length(), engine, best / 1_000_000);
+        return pubMedArticles;
+    }
+}
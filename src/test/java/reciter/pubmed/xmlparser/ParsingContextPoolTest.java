@@ -0,0 +1,66 @@
+package reciter.pubmed.xmlparser;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+/**
+ * Checks that pooled parsers and handlers are reused and that a reused one gives the same result as a new one.
+ */
+public class ParsingContextPoolTest {
+
+    private final ObjectMapper json = Jackson2ObjectMapperBuilder.json().build();
+
+    @Test
+    public void testSaxParserIsReused() throws IOException, SAXException {
+        SaxPubMedArticleParser parser = new SaxPubMedArticleParser(4);
+        String first = json.writeValueAsString(parser.parse(new StringReader(fixture("31967741"))));
+        String second = json.writeValueAsString(parser.parse(new StringReader(fixture("31746150"))));
+
+        assertEquals(parser.getPool().getCreated(), 1);
+        assertEquals(first, json.writeValueAsString(PubMedArticleParser.of(PubMedArticleParser.SAX).parse(new StringReader(fixture("31967741")))));
+        assertEquals(second, json.writeValueAsString(PubMedArticleParser.of(PubMedArticleParser.SAX).parse(new StringReader(fixture("31746150")))));
+    }
+
+    @Test
+    public void testFailedSaxParserIsDropped() throws IOException, SAXException {
+        SaxPubMedArticleParser parser = new SaxPubMedArticleParser(4);
+        parseTruncated(parser);
+        parser.parse(new StringReader(fixture("31967741")));
+
+        assertEquals(parser.getPool().getCreated(), 2);
+    }
+
+    @Test
+    public void testHandlerIsCleanAfterFailedParse() throws IOException, SAXException {
+        PubMedArticleParser stax = new StaxPubMedArticleParser(1);
+        parseTruncated(stax);
+        String reused = json.writeValueAsString(stax.parse(new StringReader(fixture("31746150"))));
+
+        assertEquals(reused, json.writeValueAsString(new StaxPubMedArticleParser(1).parse(new StringReader(fixture("31746150")))));
+    }
+
+    private void parseTruncated(PubMedArticleParser parser) throws IOException {
+        String xml = fixture("28356292");
+        try {
+            parser.parse(new StringReader(xml.substring(0, xml.length() / 2)));
+            fail("a truncated document was parsed");
+        } catch (SAXException e) {
+            // Leaves the handler in the middle of an article.
+        }
+    }
+
+    private static String fixture(String pmid) throws IOException {
+        return new String(Files.readAllBytes(Paths.get("src/test/resources/pubmed/callable/" + pmid + ".xml")), StandardCharsets.UTF_8);
+    }
+}
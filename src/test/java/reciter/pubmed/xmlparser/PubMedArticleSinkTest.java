@@ -0,0 +1,117 @@
+package reciter.pubmed.xmlparser;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+import reciter.model.pubmed.PubMedArticle;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Checks that the engines hand articles to the sink while the document is still being read.
+ */
+public class PubMedArticleSinkTest {
+
+    private static final Pattern ARTICLE = Pattern.compile("<PubmedArticle>.*?</PubmedArticle>", Pattern.DOTALL);
+    private static final int ARTICLES = 60;
+
+    private String document;
+
+    @BeforeClass
+    public void setup() throws IOException {
+        List<String> articles = new ArrayList<>();
+        for (String pmid : new String[] {"28356292", "31746150", "31967741"}) {
+            String xml = new String(Files.readAllBytes(Paths.get("src/test/resources/pubmed/callable/" + pmid + ".xml")), StandardCharsets.UTF_8);
+            Matcher matcher = ARTICLE.matcher(xml);
+            while (matcher.find()) {
+                articles.add(matcher.group());
+            }
+        }
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" ?>\n<PubmedArticleSet>\n");
+        for (int i = 0; i < ARTICLES; i++) {
+            xml.append(articles.get(i % articles.size())).append('\n');
+        }
+        document = xml.append("</PubmedArticleSet>\n").toString();
+    }
+
+    /**
+     * The parallel engine only hands over chunks that happen to be done while it reads, so it is left out here.
+     */
+    @DataProvider
+    public Object[][] streamingEngines() {
+        return new Object[][] {
+                {PubMedArticleParser.of(PubMedArticleParser.SAX)},
+                {PubMedArticleParser.of(PubMedArticleParser.STAX)}
+        };
+    }
+
+    @DataProvider
+    public Object[][] engines() {
+        return new Object[][] {
+                {PubMedArticleParser.of(PubMedArticleParser.SAX)},
+                {PubMedArticleParser.of(PubMedArticleParser.STAX)},
+                {new ParallelPubMedArticleParser(PubMedArticleParser.of(PubMedArticleParser.SAX), ForkJoinPool.commonPool(), 5)}
+        };
+    }
+
+    @Test(dataProvider = "streamingEngines")
+    public void testArticlesArriveBeforeDocumentEnds(PubMedArticleParser parser) throws IOException, SAXException {
+        CountingReader reader = new CountingReader(document);
+        List<Long> readWhenAccepted = new ArrayList<>();
+        parser.parse(reader, pubMedArticle -> readWhenAccepted.add(reader.count));
+
+        assertEquals(readWhenAccepted.size(), ARTICLES);
+        assertTrue(readWhenAccepted.get(0) < document.length(),
+                "first article accepted after reading " + readWhenAccepted.get(0) + " of " + document.length() + " chars");
+    }
+
+    @Test(dataProvider = "engines")
+    public void testSinkCanStopParsing(PubMedArticleParser parser) throws IOException {
+        List<PubMedArticle> accepted = new ArrayList<>();
+        try {
+            parser.parse(new StringReader(document), pubMedArticle -> {
+                accepted.add(pubMedArticle);
+                if (accepted.size() == 10) {
+                    throw new SAXException("enough");
+                }
+            });
+            fail("the sink's exception was swallowed");
+        } catch (SAXException e) {
+            assertEquals(accepted.size(), 10);
+        }
+    }
+
+    private static class CountingReader extends FilterReader {
+
+        private volatile long count;
+
+        CountingReader(String text) {
+            super(new StringReader(text));
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            // Small reads, so that the engines cannot buffer the whole document at once.
+            int n = super.read(cbuf, off, Math.min(len, 4096));
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package reciter.pubmed.xmlparser;
+
+import org.testng.annotations.Test;
+import reciter.model.pubmed.PubMedArticle;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+
+public class VocabularyInternerTest {
+
+    @Test
+    public void testReturnsSharedInstance() {
+        VocabularyInterner interner = new VocabularyInterner(1024);
+        String first = interner.intern(new StringBuilder("Humans"));
+        String second = interner.intern(new StringBuilder("Humans"));
+
+        assertEquals(second, "Humans");
+        assertSame(second, first);
+        assertEquals(interner.capacity(), 1024);
+    }
+
+    @Test
+    public void testSkipsLongValuesAndDisabledTable() {
+        StringBuilder abstractText = new StringBuilder();
+        while (abstractText.length() <= VocabularyInterner.MAX_LENGTH) {
+            abstractText.append("Background. ");
+        }
+        VocabularyInterner interner = new VocabularyInterner(1024);
+        assertNotSame(interner.intern(abstractText), interner.intern(abstractText));
+
+        VocabularyInterner disabled = new VocabularyInterner(0);
+        assertEquals(disabled.intern(new StringBuilder("Humans")), "Humans");
+        assertNotSame(disabled.intern(new StringBuilder("Humans")), disabled.intern(new StringBuilder("Humans")));
+    }
+
+    /**
+     * Test that the same journal title in two documents ends up as one string.
+     */
+    @Test
+    public void testParsedArticlesShareVocabulary() throws Exception {
+        String xml = new String(Files.readAllBytes(Paths.get("src/test/resources/pubmed/callable/31967741.xml")), StandardCharsets.UTF_8);
+        PubMedArticleParser parser = PubMedArticleParser.of(PubMedArticleParser.SAX);
+        List<PubMedArticle> first = parser.parse(new StringReader(xml));
+        List<PubMedArticle> second = parser.parse(new StringReader(xml));
+
+        assertSame(second.get(0).getMedlinecitation().getArticle().getJournal().getTitle(),
+                first.get(0).getMedlinecitation().getArticle().getJournal().getTitle());
+        assertNotSame(second.get(0).getMedlinecitation().getArticle().getArticletitle(),
+                first.get(0).getMedlinecitation().getArticle().getArticletitle());
+    }
+
+    /**
+     * Test that parsers given the same table share values, and parsers with tables of their own do not.
+     */
+    @Test
+    public void testParsersShareOnlyTheTableTheyAreGiven() throws Exception {
+        String xml = new String(Files.readAllBytes(Paths.get("src/test/resources/pubmed/callable/31967741.xml")), StandardCharsets.UTF_8);
+        VocabularyInterner interner = new VocabularyInterner(1024);
+        String sax = PubMedArticleParser.of(PubMedArticleParser.SAX, 1, interner).parse(new StringReader(xml))
+                .get(0).getMedlinecitation().getArticle().getJournal().getTitle();
+        String stax = PubMedArticleParser.of(PubMedArticleParser.STAX, 1, interner).parse(new StringReader(xml))
+                .get(0).getMedlinecitation().getArticle().getJournal().getTitle();
+        String own = PubMedArticleParser.of(PubMedArticleParser.SAX).parse(new StringReader(xml))
+                .get(0).getMedlinecitation().getArticle().getJournal().getTitle();
+
+        assertSame(stax, sax);
+        assertNotSame(own, sax);
+    }
+}
@@ -0,0 +1,35 @@
+package reciter.tracing;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TraceTest {
+
+    /**
+     * Test that a trace keeps its first spans and only counts those beyond the cap.
+     */
+    @Test
+    public void testSpansAreCapped() {
+        Trace trace = new Trace("id", "GET /pubmed/query/x");
+        for (int i = 0; i < Trace.MAX_SPANS + 5; i++) {
+            trace.event("efetch", String.valueOf(i));
+        }
+        assertEquals(trace.getSpans().size(), Trace.MAX_SPANS);
+        assertEquals(trace.getDroppedSpans(), 5);
+    }
+
+    /**
+     * Test that a supplied request id is kept only when it is short and free of unsafe characters.
+     */
+    @Test
+    public void testRequestIdIsValidated() {
+        assertEquals(TracingFilter.requestId("abc-123_X.y"), "abc-123_X.y");
+        assertNotEquals(TracingFilter.requestId("abc\r\nforged log line"), "abc\r\nforged log line");
+        assertNotEquals(TracingFilter.requestId(new String(new char[65]).replace('\0', 'a')).length(), 65);
+        assertTrue(TracingFilter.requestId("").matches("[0-9a-f-]{36}"));
+        assertTrue(TracingFilter.requestId(null).matches("[0-9a-f-]{36}"));
+    }
+}
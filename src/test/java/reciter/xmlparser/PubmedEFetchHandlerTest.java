@@ -2,8 +2,12 @@ package reciter.xmlparser;
 
 import static org.testng.Assert.assertEquals;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.List;
 
 import javax.xml.parsers.SAXParser;
@@ -52,4 +56,24 @@ public class PubmedEFetchHandlerTest {
         journalTitle = pubMedArticle.getMedlinecitation().getArticle().getJournal().getTitle();
         assertEquals(journalTitle, "MicrobiologyOpen");
     }
+
+    /**
+     * Test that the ArticleIds of cited works in the ReferenceList are not read as those of the article
+     * @throws Exception
+     */
+    @Test
+    public void testReferenceListIsIgnored() throws Exception {
+        String xml = new String(Files.readAllBytes(Paths.get("src/test/resources/pubmed/callable/31746150.xml")), StandardCharsets.UTF_8)
+                .replaceFirst("<!DOCTYPE[^>]*>", "")
+                .replace("<ArticleId IdType=\"doi\">10.1002/mbo3.972</ArticleId>",
+                        "<ArticleId IdType=\"doi\">10.1002/mbo3.972</ArticleId><ArticleId IdType=\"pmc\">PMC1111111</ArticleId>")
+                .replace("<Title>REFERENCES</Title>",
+                        "<Title>REFERENCES</Title><Reference><Citation>Cited work.</Citation><ArticleIdList>"
+                                + "<ArticleId IdType=\"pubmed\">1</ArticleId><ArticleId IdType=\"pmc\">PMC9999999</ArticleId>"
+                                + "</ArticleIdList></Reference>");
+        pubMedUriParserCallable = new PubMedUriParserCallable(xmlHandler, saxParser, new InputSource(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))));
+        PubMedArticle pubMedArticle = pubMedUriParserCallable.call().get(0);
+        assertEquals(pubMedArticle.getMedlinecitation().getMedlinecitationpmid().getPmid(), 31746150L);
+        assertEquals(pubMedArticle.getPubmeddata().getArticleIdList().getPmc(), "PMC1111111");
+    }
 }
\ No newline at end of file